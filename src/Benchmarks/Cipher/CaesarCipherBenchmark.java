@@ -0,0 +1,83 @@
+package Benchmarks.Cipher;
+
+import TheIncredibles.clack.Cipher.CaesarCipher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of CaesarCipher.encrypt and decrypt, for chat-sized up to
+ * file-sized texts, and for small and large alphabets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaesarCipherBenchmark {
+
+    /** Length of the text to encrypt, in chars. */
+    @Param({"16", "1024", "1048576"})
+    int size;
+
+    /**
+     * DEFAULT: the 26-letter default alphabet.
+     * EXTENDED: upper and lower case letters plus " .," (55 chars).
+     * LARGE: 1000 consecutive CJK ideographs.
+     */
+    @Param({"DEFAULT", "EXTENDED", "LARGE"})
+    String alphabet;
+
+    CaesarCipher cipher;
+    String cleartext;
+    String ciphertext;
+
+    @Setup
+    public void setUp() {
+        String chars;
+        switch (alphabet) {
+            case "EXTENDED":
+                chars = CaesarCipher.DEFAULT_ALPHABET + CaesarCipher.DEFAULT_ALPHABET.toLowerCase() + " .,";
+                break;
+            case "LARGE":
+                StringBuilder sb = new StringBuilder();
+                for (char ch = '\u4E00'; ch < '\u4E00' + 1000; ch++) {
+                    sb.append(ch);
+                }
+                chars = sb.toString();
+                break;
+            default:
+                chars = CaesarCipher.DEFAULT_ALPHABET;
+        }
+        cipher = new CaesarCipher(3, chars);
+
+        // Mostly alphabet chars, mixed case, with some punctuation and spaces.
+        Random random = new Random(42);
+        char[] text = new char[size];
+        for (int i = 0; i < size; i++) {
+            int r = random.nextInt(10);
+            if (r == 0) {
+                text[i] = ' ';
+            } else if (r == 1) {
+                text[i] = '!';
+            } else {
+                char ch = chars.charAt(random.nextInt(chars.length()));
+                text[i] = (r % 2 == 0) ? Character.toLowerCase(ch) : ch;
+            }
+        }
+        cleartext = new String(text);
+        ciphertext = cipher.encrypt(cleartext);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return cipher.encrypt(cleartext);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return cipher.decrypt(ciphertext);
+    }
+}
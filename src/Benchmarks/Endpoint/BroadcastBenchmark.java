@@ -0,0 +1,69 @@
+package Benchmarks.Endpoint;
+
+import TheIncredibles.clack.endpoint.SharedFrame;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of queueing one TextMessage for every recipient, without the
+ * sockets: encoding it once per recipient (as the relay used to), against
+ * encoding it once into a SharedFrame and handing each recipient a view.
+ * Each "queue" is one slot of an array; the frames are released again as
+ * if they had been written.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"100", "10000"})
+    int recipients;
+
+    @Param({"64", "4096"})
+    int textLength;
+
+    MessageCodec codec = new MessageCodec();
+    TextMessage message;
+    ByteBuffer[] queued;
+    SharedFrame[] owners;
+
+    @Setup
+    public void setUp() {
+        message = new TextMessage("user", "x".repeat(textLength));
+        queued = new ByteBuffer[recipients];
+        owners = new SharedFrame[recipients];
+    }
+
+    @Benchmark
+    public void encodeEach(Blackhole bh) {
+        for (int i = 0; i < recipients; i++) {
+            queued[i] = codec.encode(message);
+        }
+        bh.consume(queued);
+        for (int i = 0; i < recipients; i++) {
+            codec.getPool().release(queued[i]);
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce(Blackhole bh) {
+        SharedFrame frame = SharedFrame.encode(codec, message);
+        for (int i = 0; i < recipients; i++) {
+            owners[i] = frame.retain();
+            queued[i] = frame.view();
+        }
+        frame.release();
+        bh.consume(queued);
+        for (int i = 0; i < recipients; i++) {
+            owners[i].release();
+        }
+    }
+}
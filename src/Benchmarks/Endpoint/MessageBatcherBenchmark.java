@@ -0,0 +1,87 @@
+package Benchmarks.Endpoint;
+
+import TheIncredibles.clack.endpoint.MessageBatcher;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of sending a burst of 64 short TextMessages over a loopback socket,
+ * one write per message against coalesced by a MessageBatcher. A thread
+ * on the other end just drains the socket.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBatcherBenchmark {
+
+    static final int BURST = 64;
+
+    MessageCodec codec = new MessageCodec();
+    ServerSocketChannel server;
+    SocketChannel out;
+    Thread drain;
+    MessageBatcher batcher;
+    TextMessage[] burst = new TextMessage[BURST];
+
+    @Setup
+    public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        out = SocketChannel.open(server.getLocalAddress());
+        SocketChannel in = server.accept();
+        drain = new Thread(() -> {
+            ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+            try (SocketChannel c = in) {
+                while (c.read(buf) >= 0) {
+                    buf.clear();
+                }
+            } catch (IOException e) {
+                // Closed by tearDown.
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+        batcher = new MessageBatcher(codec, out);
+        for (int i = 0; i < BURST; i++) {
+            burst[i] = new TextMessage("user", "chat line " + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        batcher.close();
+        out.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void writeEach() throws IOException {
+        for (TextMessage msg : burst) {
+            ByteBuffer frame = codec.encode(msg);
+            while (frame.hasRemaining()) {
+                out.write(frame);
+            }
+            codec.getPool().release(frame);
+        }
+    }
+
+    @Benchmark
+    public void batched() throws IOException {
+        for (TextMessage msg : burst) {
+            batcher.send(msg);
+        }
+        batcher.flush();
+    }
+}
@@ -0,0 +1,136 @@
+package Benchmarks.Endpoint;
+
+import TheIncredibles.clack.endpoint.BlockingServer;
+import TheIncredibles.clack.endpoint.Server;
+import TheIncredibles.clack.message.LogoutMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * The three ways of running a server, with the given number of clients
+ * connected over loopback: Server's event loops, and BlockingServer with
+ * a virtual or a platform thread per client. ("virtual" is the same as
+ * "platform" before Java 21.)
+ *
+ * broadcast has the first client send a TextMessage and waits until every
+ * other client has it. connectAndLogout opens one more connection, logs
+ * out and waits for the server to hang up, i.e. the cost of a session's
+ * whole life.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerBenchmark {
+
+    @Param({"eventLoop", "virtual", "platform"})
+    String mode;
+
+    @Param({"16", "256"})
+    int clients;
+
+    MessageCodec codec = new MessageCodec();
+    Closeable server;
+    IntSupplier sessionCount;
+    InetSocketAddress address;
+    SocketChannel[] channels;
+    ByteBuffer[] buffers;
+    ByteBuffer message;
+    ByteBuffer logout;
+
+    @Setup
+    public void setUp() throws IOException {
+        int port;
+        if (mode.equals("eventLoop")) {
+            Server s = new Server(0);
+            s.start();
+            server = s;
+            port = s.getPort();
+            sessionCount = () -> s.getSessions().size();
+        } else {
+            BlockingServer s = mode.equals("virtual") ? BlockingServer.withVirtualThreads(0)
+                                                      : BlockingServer.withPlatformThreads(0);
+            s.start();
+            server = s;
+            port = s.getPort();
+            sessionCount = () -> s.getSessions().size();
+        }
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        channels = new SocketChannel[clients];
+        buffers = new ByteBuffer[clients];
+        for (int i = 0; i < clients; i++) {
+            channels[i] = SocketChannel.open(address);
+            buffers[i] = ByteBuffer.allocate(4096);
+        }
+        // A client only gets broadcasts once the server has its session.
+        while (sessionCount.getAsInt() < clients) {
+            Thread.onSpinWait();
+        }
+        message = toBytes(new TextMessage("user0", "a short chat line"));
+        logout = toBytes(new LogoutMessage("leaver"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public int broadcast() throws IOException {
+        writeFully(channels[0], message.duplicate());
+        int received = 0;
+        for (int i = 1; i < clients; i++) {
+            received += receive(channels[i], buffers[i]).getUsername().length();
+        }
+        return received;
+    }
+
+    @Benchmark
+    public int connectAndLogout() throws IOException {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            writeFully(channel, logout.duplicate());
+            return channel.read(ByteBuffer.allocate(16));
+        }
+    }
+
+    ByteBuffer toBytes(Message msg) {
+        ByteBuffer frame = codec.encode(msg);
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining()).put(frame).flip();
+        codec.getPool().release(frame);
+        return copy;
+    }
+
+    static void writeFully(SocketChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    Message receive(SocketChannel channel, ByteBuffer buf) throws IOException {
+        Message msg;
+        while ((msg = codec.decode(buf.flip())) == null) {
+            buf.compact();
+            if (channel.read(buf) < 0) {
+                throw new IOException("connection closed");
+            }
+        }
+        buf.compact();
+        return msg;
+    }
+}
@@ -0,0 +1,58 @@
+package Benchmarks.Message;
+
+import TheIncredibles.clack.message.FileMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of FileMessage.readFile and writeFile for small to large files.
+ * writeFile saves into the working directory, like the Client does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileMessageBenchmark {
+
+    /** File size in bytes. */
+    @Param({"1024", "1048576", "67108864"})
+    int fileSize;
+
+    Path source;
+    String saveAsName;
+    FileMessage message;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = Files.createTempFile("clack-bench-", ".txt");
+        Files.writeString(source, "The quick brown fox jumps over the lazy dog.\n"
+                .repeat(fileSize / 45 + 1).substring(0, fileSize));
+        saveAsName = "clack_bench_" + fileSize + ".txt";
+        message = new FileMessage("user", source.toString(), saveAsName);
+        message.readFile();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(Paths.get(saveAsName));
+    }
+
+    @Benchmark
+    public String readFile() throws IOException {
+        message.readFile();
+        return message.getFileContents();
+    }
+
+    @Benchmark
+    public void writeFile() throws IOException {
+        message.writeFile();
+    }
+}
@@ -0,0 +1,81 @@
+package Benchmarks.Message;
+
+import TheIncredibles.clack.message.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of hashCode, toString and equals on every Message subclass. For
+ * TextMessage and FileMessage the payload (text, or file contents) has
+ * the given size; the other subclasses carry no payload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({"TextMessage", "FileMessage", "ListUsersMessage", "LogoutMessage", "HelpMessage"})
+    String type;
+
+    /** Payload size in chars, for TextMessage and FileMessage. */
+    @Param({"16", "65536"})
+    int payloadSize;
+
+    Message message;
+    /** Built from the same arguments as message, so equals() has to look at every field. */
+    Message other;
+    Path payloadFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        String payload = "x".repeat(payloadSize);
+        payloadFile = Files.createTempFile("clack-bench-", ".txt");
+        Files.writeString(payloadFile, payload);
+        message = create(payload);
+        other = create(payload);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(payloadFile);
+    }
+
+    private Message create(String payload) throws IOException {
+        switch (type) {
+            case "TextMessage":
+                return new TextMessage("user", payload);
+            case "FileMessage":
+                FileMessage fileMessage = new FileMessage("user", payloadFile.toString());
+                fileMessage.readFile();
+                return fileMessage;
+            case "ListUsersMessage":
+                return new ListUsersMessage("user");
+            case "LogoutMessage":
+                return new LogoutMessage("user");
+            default:
+                return new HelpMessage("user");
+        }
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return message.hashCode();
+    }
+
+    @Benchmark
+    public String toStringOf() {
+        return message.toString();
+    }
+
+    @Benchmark
+    public boolean equalsOther() {
+        return message.equals(other);
+    }
+}
@@ -0,0 +1,36 @@
+package Benchmarks.Message;
+
+import TheIncredibles.clack.message.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of making a message, which is mostly the cost of taking its
+ * timestamp and sequence number. localDateTimeNow is what each message
+ * used to pay for its timestamp alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCreationBenchmark {
+
+    @Benchmark
+    public Message newTextMessage() {
+        return new TextMessage("user", "hi");
+    }
+
+    @Benchmark
+    public long systemClock() {
+        return MessageClock.system().epochNanos();
+    }
+
+    @Benchmark
+    public LocalDateTime localDateTimeNow() {
+        return LocalDateTime.now();
+    }
+}
@@ -0,0 +1,58 @@
+package Tests.Cipher;
+
+import TheIncredibles.clack.Cipher.AsciiCaesarCipher;
+import TheIncredibles.clack.Cipher.CaesarCipher;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsciiCaesarCipherTest {
+
+    @Test
+    void matchesCaesarCipher() {
+        String msg = "The quick, brown fox jumped. Over the lazy poodle!";
+        for (int key = -30; key <= 30; key++) {
+            assertEquals(new CaesarCipher(key).encrypt(msg),
+                    new AsciiCaesarCipher(key).encrypt(msg));
+            assertEquals(new CaesarCipher(key).decrypt(msg),
+                    new AsciiCaesarCipher(key).decrypt(msg));
+        }
+    }
+
+    @Test
+    void encryptBytes() {
+        AsciiCaesarCipher cc = new AsciiCaesarCipher(3);
+        // Long enough to use the eight-bytes-at-a-time path and the leftover path.
+        String msg = "Hello World, xyz XYZ! Ça va? ";
+        byte[] data = msg.getBytes(StandardCharsets.UTF_8);
+        cc.encrypt(data, 0, data.length);
+        // Multi-byte UTF-8 sequences come through untouched.
+        assertEquals("Khoor Zruog, abc ABC! Çd yd? ", new String(data, StandardCharsets.UTF_8));
+
+        cc.decrypt(data, 0, data.length);
+        assertEquals(msg, new String(data, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void encryptByteBuffer() {
+        AsciiCaesarCipher cc = new AsciiCaesarCipher(1);
+        ByteBuffer buf = ByteBuffer.allocateDirect(16);
+        buf.put("Zebra".getBytes(StandardCharsets.US_ASCII)).flip();
+        cc.encrypt(buf);
+        assertEquals(0, buf.position());
+        byte[] out = new byte[buf.remaining()];
+        buf.get(out);
+        assertEquals("Afcsb", new String(out, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void badRange() {
+        AsciiCaesarCipher cc = new AsciiCaesarCipher(1);
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> cc.encrypt(new byte[4], 2, 3));
+    }
+}
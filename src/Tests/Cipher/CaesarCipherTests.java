@@ -6,7 +6,11 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -88,5 +92,91 @@ public class CaesarCipherTests {
         assertEquals(expectedCiphertext, actualCiphertext);
         assertEquals(cleartext, cipher.decrypt(expectedCiphertext));
     }
-}
 
+    @Test
+    public void testKeyLargerThanAlphabet() {
+        CaesarCipher cipher = new CaesarCipher(29);
+        String cleartext = "Hello World";
+        String expectedCiphertext = "Khoor Zruog";
+        assertEquals(expectedCiphertext, cipher.encrypt(cleartext));
+        assertEquals(cleartext, cipher.decrypt(expectedCiphertext));
+    }
+
+    @Test
+    public void testStreamingEncryptDecrypt() throws IOException {
+        CaesarCipher cipher = new CaesarCipher(3);
+        String cleartext = "Hello World! ".repeat(2000);     // several chunks' worth
+        StringWriter ciphertext = new StringWriter();
+        cipher.encrypt(new StringReader(cleartext), ciphertext);
+        assertEquals(cipher.encrypt(cleartext), ciphertext.toString());
+
+        StringWriter roundTrip = new StringWriter();
+        cipher.decrypt(new StringReader(ciphertext.toString()), roundTrip);
+        assertEquals(cleartext, roundTrip.toString());
+    }
+
+    @Test
+    public void testCharBufferEncrypt() {
+        CaesarCipher cipher = new CaesarCipher(3);
+        CharBuffer src = CharBuffer.wrap("Hello World");
+        CharBuffer dst = CharBuffer.allocate(5);
+        cipher.encrypt(src, dst);
+        assertEquals(5, src.position());
+        assertEquals("Khoor", dst.flip().toString());
+
+        dst = CharBuffer.allocate(16);
+        cipher.encrypt(src, dst);
+        assertEquals(" Zruog", dst.flip().toString());
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        CaesarCipher cipher = new CaesarCipher(7);
+        String cleartext = "The quick, brown fox jumped. Over the lazy poodle! ".repeat(500);
+        String expectedCiphertext = cipher.encrypt(cleartext);
+        assertEquals(expectedCiphertext, cipher.encryptParallel(cleartext, 100));
+        assertEquals(cleartext, cipher.decryptParallel(expectedCiphertext, 100));
+        // Below the default threshold, so no splitting at all.
+        assertEquals(expectedCiphertext, cipher.encryptParallel(cleartext));
+    }
+
+    @Test
+    public void testSupplementaryAlphabet() throws IOException {
+        // Mathematical bold capitals, each a surrogate pair in a String.
+        String alphabet = "\uD835\uDC00\uD835\uDC01\uD835\uDC02\uD835\uDC03";
+        CaesarCipher cipher = new CaesarCipher(1, alphabet);
+        String cleartext = "\uD835\uDC00 \uD835\uDC03!";
+        String expectedCiphertext = "\uD835\uDC01 \uD835\uDC00!";
+        assertEquals(expectedCiphertext, cipher.encrypt(cleartext));
+        assertEquals(cleartext, cipher.decrypt(expectedCiphertext));
+
+        // A chunk boundary falling inside a surrogate pair.
+        String longText = "x".repeat(CaesarCipher.STREAM_CHUNK_SIZE - 1) + cleartext;
+        StringWriter ciphertext = new StringWriter();
+        cipher.encrypt(new StringReader(longText), ciphertext);
+        assertEquals(cipher.encrypt(longText), ciphertext.toString());
+    }
+
+    @Test
+    public void testMixedPlaneAlphabet() {
+        // 'B' encrypts to a surrogate pair, so the ciphertext is longer.
+        String alphabet = "AB\uD835\uDC00";
+        CaesarCipher cipher = new CaesarCipher(1, alphabet);
+        assertEquals("B\uD835\uDC00A", cipher.encrypt("AB\uD835\uDC00"));
+        assertEquals("AB\uD835\uDC00", cipher.decrypt("B\uD835\uDC00A"));
+        assertEquals(cipher.encrypt("ABBA".repeat(100)), cipher.encryptParallel("ABBA".repeat(100), 8));
+    }
+
+    @Test
+    public void testLargeSparseAlphabet() {
+        // Every seventh CJK ideograph: too spread out for a dense table.
+        StringBuilder alphabet = new StringBuilder();
+        for (char ch = '\u4E00'; ch < '\u9FA5'; ch += 7) {
+            alphabet.append(ch);
+        }
+        CaesarCipher cipher = new CaesarCipher(2, alphabet.toString());
+        String cleartext = "\u4E00, " + alphabet.charAt(alphabet.length() - 1);
+        assertEquals("\u4E0E, \u4E07", cipher.encrypt(cleartext));
+        assertEquals(cleartext, cipher.decrypt("\u4E0E, \u4E07"));
+    }
+}
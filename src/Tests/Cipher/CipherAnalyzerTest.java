@@ -0,0 +1,75 @@
+package Tests.Cipher;
+
+import TheIncredibles.clack.Cipher.CaesarCipher;
+import TheIncredibles.clack.Cipher.CipherAnalyzer;
+import TheIncredibles.clack.Cipher.VigenereCipher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CipherAnalyzerTest {
+
+    static final String CLEARTEXT = "Call me Ishmael. Some years ago, never mind how long precisely, "
+            + "having little or no money in my purse, and nothing particular to interest me on shore, "
+            + "I thought I would sail about a little and see the watery part of the world. It is a way "
+            + "I have of driving off the spleen and regulating the circulation.";
+
+    @Test
+    void recoverCaesarKey() {
+        CipherAnalyzer analyzer = new CipherAnalyzer();
+        for (int key = 0; key < 26; key++) {
+            assertEquals(key, analyzer.recoverCaesarKey(new CaesarCipher(key).encrypt(CLEARTEXT)));
+        }
+        // No letters at all.
+        assertEquals(0, analyzer.recoverCaesarKey("123 !?"));
+    }
+
+    @Test
+    void recoverCaesarKeyCustomAlphabet() {
+        String alphabet = "XYZABCDEFGHIJKLMNOPQRSTUVW";
+        CipherAnalyzer analyzer = new CipherAnalyzer(alphabet);
+        for (int key = 0; key < 26; key++) {
+            assertEquals(key, analyzer.recoverCaesarKey(new CaesarCipher(key, alphabet).encrypt(CLEARTEXT)));
+        }
+    }
+
+    @Test
+    void recoverCaesarKeys() {
+        CipherAnalyzer analyzer = new CipherAnalyzer();
+        List<String> ciphertexts = new ArrayList<>();
+        for (int key = 0; key < 100; key++) {
+            ciphertexts.add(new CaesarCipher(key).encrypt(CLEARTEXT));
+        }
+        int[] keys = analyzer.recoverCaesarKeys(ciphertexts);
+        for (int key = 0; key < 100; key++) {
+            assertEquals(key % 26, keys[key]);
+        }
+    }
+
+    @Test
+    void recoverVigenereKeyword() {
+        CipherAnalyzer analyzer = new CipherAnalyzer();
+        for (String keyword : new String[] {"K", "LEMON", "SECRETKEY", "INCREDIBLES"}) {
+            assertEquals(keyword,
+                    analyzer.recoverVigenereKeyword(new VigenereCipher(keyword).encrypt(CLEARTEXT)));
+        }
+        assertEquals("", analyzer.recoverVigenereKeyword("123 !?"));
+        assertThrows(IllegalArgumentException.class,
+                () -> analyzer.recoverVigenereKeyword(CLEARTEXT, 0));
+    }
+
+    @Test
+    void badConstructorArgs() {
+        Exception e = assertThrows(IllegalArgumentException.class,
+                () -> new CipherAnalyzer(""));
+        assertEquals("empty alphabet not allowed", e.getMessage());
+
+        e = assertThrows(IllegalArgumentException.class,
+                () -> new CipherAnalyzer("ABC", new double[] {0.5, 0.5}));
+        assertEquals("need one frequency per alphabet char", e.getMessage());
+    }
+}
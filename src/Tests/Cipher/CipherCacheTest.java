@@ -0,0 +1,51 @@
+package Tests.Cipher;
+
+import TheIncredibles.clack.Cipher.CaesarCipher;
+import TheIncredibles.clack.Cipher.CipherCache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CipherCacheTest {
+
+    @Test
+    void badConstructorArgs() {
+        Exception e = assertThrows(IllegalArgumentException.class,
+                () -> new CipherCache(0));
+        assertEquals("capacity must be positive", e.getMessage());
+    }
+
+    @Test
+    void get() {
+        CipherCache cache = new CipherCache();
+        CaesarCipher cc = cache.get(3, "XYZABCDEFGHIJKLMNOPQRSTUVW");
+        assertSame(cc, cache.get(3, "XYZABCDEFGHIJKLMNOPQRSTUVW"));
+        assertEquals(3, cc.getKey());
+        assertEquals("XYZABCDEFGHIJKLMNOPQRSTUVW", cc.getAlphabet());
+        assertEquals("Wklv lv d whvw phvvdjh.", cc.encrypt("This is a test message."));
+
+        // Null means the default alphabet, same as for CaesarCipher.
+        assertSame(cache.get(3, null), cache.get(3, CaesarCipher.DEFAULT_ALPHABET));
+        assertNotSame(cache.get(3, null), cache.get(4, null));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        CipherCache cache = new CipherCache(2);
+        CaesarCipher one = cache.get(1, null);
+        CaesarCipher two = cache.get(2, null);
+        assertSame(one, cache.get(1, null));        // 2 is now the least recently used
+        cache.get(3, null);
+        assertEquals(2, cache.size());
+        assertSame(one, cache.get(1, null));
+        assertNotSame(two, cache.get(2, null));
+    }
+
+    @Test
+    void sharedFactory() {
+        assertSame(CaesarCipher.of(5), CaesarCipher.of(5, CaesarCipher.DEFAULT_ALPHABET));
+        assertEquals(new CaesarCipher(5).encrypt("Hello World"), CaesarCipher.of(5).encrypt("Hello World"));
+    }
+}
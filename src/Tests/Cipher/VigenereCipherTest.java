@@ -0,0 +1,47 @@
+package Tests.Cipher;
+
+import TheIncredibles.clack.Cipher.CaesarCipher;
+import TheIncredibles.clack.Cipher.Cipher;
+import TheIncredibles.clack.Cipher.VigenereCipher;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VigenereCipherTest {
+
+    @Test
+    void badConstructorArgs() {
+        Exception e = assertThrows(IllegalArgumentException.class,
+                () -> new VigenereCipher(""));
+        assertEquals("empty keyword not allowed", e.getMessage());
+
+        e = assertThrows(IllegalArgumentException.class,
+                () -> new VigenereCipher("LEM0N"));
+        assertEquals("keyword char not in alphabet: 0", e.getMessage());
+    }
+
+    @Test
+    void getAlphabet() {
+        Cipher vc = new VigenereCipher("lemon");
+        assertEquals(CaesarCipher.DEFAULT_ALPHABET, vc.getAlphabet());
+    }
+
+    @Test
+    void encrypt() {
+        VigenereCipher vc = new VigenereCipher("LEMON");
+        assertEquals("LXFOPVEFRNHR", vc.encrypt("ATTACKATDAWN"));
+        // Case is kept, and the keyword only advances on letters.
+        assertEquals("Lxfopv ef rnhr!", vc.encrypt("Attack at dawn!"));
+        // A one-letter keyword is just a Caesar cipher.
+        assertEquals(new CaesarCipher(3).encrypt("Hello World"),
+                new VigenereCipher("D").encrypt("Hello World"));
+    }
+
+    @Test
+    void decrypt() {
+        VigenereCipher vc = new VigenereCipher("LEMON");
+        assertEquals("ATTACKATDAWN", vc.decrypt("LXFOPVEFRNHR"));
+        assertEquals("Attack at dawn!", vc.decrypt("Lxfopv ef rnhr!"));
+    }
+}
@@ -0,0 +1,197 @@
+package Tests.Endpoint;
+
+import TheIncredibles.clack.endpoint.Client;
+import TheIncredibles.clack.endpoint.Server;
+import TheIncredibles.clack.message.ListUsersMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static Tests.Endpoint.ServerTest.waitFor;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientTest {
+    MessageCodec codec = new MessageCodec();
+    Server server;
+    SocketChannel bob;
+    PipedOutputStream typing;
+    ByteArrayOutputStream printed;
+    Thread clientThread;
+    AtomicReference<Throwable> clientFailure = new AtomicReference<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new Server(0, 1);
+        server.start();
+        bob = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+        send(new ListUsersMessage("bob"));
+        assertInstanceOf(ListUsersMessage.class, receive());
+
+        typing = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(typing);
+        printed = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(printed, true, StandardCharsets.UTF_8);
+        Client alice = new Client("alice", InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+        clientThread = new Thread(() -> {
+            try {
+                alice.start(in, out);
+            } catch (Throwable e) {
+                clientFailure.set(e);
+            }
+        });
+        clientThread.start();
+        waitFor(() -> server.getSessions().size() == 2);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        typing.close();
+        clientThread.join(10_000);
+        bob.close();
+        server.close();
+    }
+
+    void type(String line) throws IOException {
+        typing.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        typing.flush();
+    }
+
+    String printed() {
+        return printed.toString(StandardCharsets.UTF_8);
+    }
+
+    void send(Message message) throws IOException {
+        ByteBuffer frame = codec.encode(message);
+        while (frame.hasRemaining()) {
+            bob.write(frame);
+        }
+    }
+
+    Message receive() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        Message message;
+        while ((message = codec.decode(buf.flip())) == null) {
+            buf.compact();
+            assertTrue(bob.read(buf) >= 0, "connection closed");
+        }
+        return message;
+    }
+
+    @Test
+    void listUsers() throws Exception {
+        // Asked for on connecting.
+        waitFor(() -> printed().contains("Users online (2): alice, bob"));
+
+        SocketChannel carol = SocketChannel.open(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+        try {
+            ByteBuffer hello = codec.encode(new ListUsersMessage("carol"));
+            while (hello.hasRemaining()) {
+                carol.write(hello);
+            }
+            waitFor(() -> server.getPresence().isOnline("carol"));
+            type("list users");
+            waitFor(() -> printed().contains("Users online (3): alice, bob, carol"));
+        } finally {
+            carol.close();
+        }
+    }
+
+    @Test
+    void sendsTypedLines() throws Exception {
+        type("hello bob");
+        Message message = receive();
+        assertInstanceOf(TextMessage.class, message);
+        assertEquals("alice", message.getUsername());
+        assertEquals("hello bob", message.getData()[0]);
+    }
+
+    @Test
+    void receivesWhileWaitingForInput() throws Exception {
+        // Nothing has been typed: the client is blocked reading input.
+        send(new TextMessage("bob", "are you there?"));
+        waitFor(() -> printed().contains("bob: are you there?"));
+    }
+
+    @Test
+    void compression() throws Exception {
+        PipedOutputStream carolTyping = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(carolTyping);
+        ByteArrayOutputStream carolPrinted = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(carolPrinted, true, StandardCharsets.UTF_8);
+        Client carol = new Client("carol", InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+        carol.setCompression(true);
+        Thread carolThread = new Thread(() -> {
+            try {
+                carol.start(in, out);
+            } catch (Throwable e) {
+                clientFailure.set(e);
+            }
+        });
+        carolThread.start();
+        try {
+            waitFor(() -> carolPrinted.toString(StandardCharsets.UTF_8).contains("Users online (3)"));
+
+            // Bob and alice never asked for compression, so the server sends them carol's line plainly.
+            String line = "tagged " + "release-candidate-".repeat(6);
+            carolTyping.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            carolTyping.flush();
+            Message message = receive();
+            assertEquals("carol", message.getUsername());
+            assertEquals(line, message.getData()[0]);
+            waitFor(() -> printed().contains("carol: " + line));
+
+            String reply = "thanks, pulling the release candidate now ".repeat(3);
+            send(new TextMessage("bob", reply));
+            waitFor(() -> carolPrinted.toString(StandardCharsets.UTF_8).contains("bob: " + reply));
+        } finally {
+            carolTyping.close();
+            carolThread.join(10_000);
+        }
+        assertNull(clientFailure.get());
+    }
+
+    @Test
+    void logout() throws Exception {
+        type("logout");
+        clientThread.join(10_000);
+        assertFalse(clientThread.isAlive());
+        assertNull(clientFailure.get());
+        assertTrue(printed().contains("Goodbye"));
+        waitFor(() -> server.getSessions().size() == 1);
+    }
+
+    @Test
+    void endOfInputLogsOut() throws Exception {
+        typing.close();
+        clientThread.join(10_000);
+        assertFalse(clientThread.isAlive());
+        assertNull(clientFailure.get());
+        waitFor(() -> server.getSessions().size() == 1);
+    }
+
+    @Test
+    void serverGone() throws Exception {
+        server.close();
+        waitFor(() -> printed().contains("Connection to server closed."));
+        type("anyone?");
+        clientThread.join(10_000);
+        assertFalse(clientThread.isAlive());
+        assertNull(clientFailure.get());
+    }
+}
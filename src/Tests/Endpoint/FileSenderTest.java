@@ -0,0 +1,159 @@
+package Tests.Endpoint;
+
+import TheIncredibles.clack.endpoint.FileSender;
+import TheIncredibles.clack.message.FileChunkMessage;
+import TheIncredibles.clack.message.FileChunkWriter;
+import TheIncredibles.clack.message.FileMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSenderTest {
+    final String USERNAME = "the user";
+
+    /** File name for the received copy, written to the working directory. */
+    static final String SAVE_AS_NAME = "clack_sender_test_copy.bin";
+
+    static final int CHUNK_SIZE = 4096;
+
+    /** Temp dir holding the file to send and the captured wire bytes. Created at run time. */
+    static Path TEMP_DIR_PATH;
+    /** Random bytes, not a multiple of the chunk size. Created at run time. */
+    static Path TEST_FILE_PATH;
+    /** Everything the sender wrote, for the channel test. */
+    static Path WIRE_PATH;
+
+    MessageCodec codec = new MessageCodec();
+    FileSender sender = new FileSender(codec, CHUNK_SIZE);
+
+    @BeforeAll
+    static void createTestFile() throws IOException {
+        TEMP_DIR_PATH = Files.createTempDirectory("clack-");
+        TEST_FILE_PATH = TEMP_DIR_PATH.resolve("clack_sender_test.bin");
+        WIRE_PATH = TEMP_DIR_PATH.resolve("clack_sender_wire.bin");
+
+        byte[] contents = new byte[3 * CHUNK_SIZE + 17];
+        new Random(42).nextBytes(contents);
+        Files.write(TEST_FILE_PATH, contents);
+    }
+
+    @AfterAll
+    static void deleteTestFile() throws IOException {
+        Files.delete(TEST_FILE_PATH);
+        Files.deleteIfExists(WIRE_PATH);
+        Files.delete(TEMP_DIR_PATH);
+    }
+
+    @AfterEach
+    void deleteCopy() throws IOException {
+        Files.deleteIfExists(Path.of(SAVE_AS_NAME));
+    }
+
+    /** Decodes every frame in wire and writes the chunks; returns the number of chunks. */
+    int receive(ByteBuffer wire) throws IOException {
+        int chunks = 0;
+        FileChunkWriter writer = null;
+        try {
+            Message msg;
+            while ((msg = codec.decode(wire)) != null) {
+                FileChunkMessage chunk = (FileChunkMessage) msg;
+                if (writer == null) {
+                    writer = new FileChunkWriter(chunk);
+                }
+                writer.write(chunk);
+                chunks++;
+            }
+            assertFalse(wire.hasRemaining());
+            assertTrue(writer.isComplete());
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return chunks;
+    }
+
+    @Test
+    void sendToChannel() throws IOException {
+        FileMessage msg = new FileMessage(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME);
+        long sent;
+        try (FileChannel out = FileChannel.open(WIRE_PATH, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            sent = sender.send(msg, out);
+        }
+        assertEquals(Files.size(WIRE_PATH), sent);
+
+        assertEquals(4, receive(ByteBuffer.wrap(Files.readAllBytes(WIRE_PATH))));
+        assertArrayEquals(Files.readAllBytes(TEST_FILE_PATH), Files.readAllBytes(Path.of(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void resumeSend() throws IOException {
+        FileMessage msg = new FileMessage(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME);
+        try (FileChannel out = FileChannel.open(WIRE_PATH, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            sender.send(msg, out, 2 * CHUNK_SIZE);
+        }
+        ByteBuffer wire = ByteBuffer.wrap(Files.readAllBytes(WIRE_PATH));
+        FileChunkMessage first = (FileChunkMessage) codec.decode(wire);
+        assertEquals(2 * CHUNK_SIZE, first.getOffset());
+        assertTrue(first.isIntact());
+        FileChunkMessage last = (FileChunkMessage) codec.decode(wire);
+        assertTrue(last.isLast());
+        assertTrue(last.isIntact());
+        assertFalse(wire.hasRemaining());
+    }
+
+    @Test
+    void sendToSocket() throws Exception {
+        FileMessage msg = new FileMessage(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME);
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            CompletableFuture<Long> sent = CompletableFuture.supplyAsync(() -> {
+                try (SocketChannel out = SocketChannel.open(server.getLocalAddress())) {
+                    return sender.send(msg, out);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            ByteBuffer wire = ByteBuffer.allocate(2 * (int) Files.size(TEST_FILE_PATH));
+            try (SocketChannel in = server.accept()) {
+                while (in.read(wire) >= 0) {
+                    assertTrue(wire.hasRemaining());
+                }
+            }
+            wire.flip();
+            assertEquals(sent.get(), wire.remaining());
+            receive(wire);
+        }
+        assertArrayEquals(Files.readAllBytes(TEST_FILE_PATH), Files.readAllBytes(Path.of(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void missingFile() throws IOException {
+        FileMessage msg = new FileMessage(USERNAME, TEMP_DIR_PATH.resolve("missing").toString());
+        try (FileChannel out = FileChannel.open(WIRE_PATH, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            assertThrows(FileNotFoundException.class, () -> sender.send(msg, out));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package Tests.Endpoint;
+
+import TheIncredibles.clack.endpoint.MessageBatcher;
+import TheIncredibles.clack.message.BufferPool;
+import TheIncredibles.clack.message.ListUsersMessage;
+import TheIncredibles.clack.message.LogoutMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageBatcherTest {
+    final String USERNAME = "the user";
+
+    MessageCodec codec = new MessageCodec();
+
+    /** Collects everything written, counting the writes. */
+    static class RecordingChannel implements WritableByteChannel {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int writes;
+        boolean failing;
+
+        @Override
+        public synchronized int write(ByteBuffer src) throws IOException {
+            if (failing) {
+                throw new IOException("connection reset");
+            }
+            writes++;
+            int n = src.remaining();
+            while (src.hasRemaining()) {
+                bytes.write(src.get());
+            }
+            return n;
+        }
+
+        synchronized List<Message> received(MessageCodec codec) throws IOException {
+            ByteBuffer wire = ByteBuffer.wrap(bytes.toByteArray());
+            List<Message> messages = new ArrayList<>();
+            Message msg;
+            while ((msg = codec.decode(wire)) != null) {
+                messages.add(msg);
+            }
+            assertFalse(wire.hasRemaining());
+            return messages;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void coalesce() throws IOException {
+        RecordingChannel channel = new RecordingChannel();
+        List<Message> sent = new ArrayList<>();
+        try (MessageBatcher batcher = new MessageBatcher(codec, channel, 4096, 1, TimeUnit.HOURS)) {
+            for (int i = 0; i < 100; i++) {
+                TextMessage msg = new TextMessage(USERNAME, "message " + i);
+                batcher.send(msg);
+                sent.add(msg);
+            }
+            assertEquals(100, batcher.getMessagesSent());
+            // About 35 bytes a frame, so a 4 KiB budget holds over a hundred.
+            assertEquals(0, channel.writes);
+            LogoutMessage logout = new LogoutMessage(USERNAME);
+            batcher.send(logout);
+            sent.add(logout);
+            assertEquals(1, channel.writes);
+            assertEquals(1, batcher.getWrites());
+        }
+        assertEquals(sent, channel.received(codec));
+    }
+
+    @Test
+    void byteBudget() throws IOException {
+        RecordingChannel channel = new RecordingChannel();
+        try (MessageBatcher batcher = new MessageBatcher(codec, channel, 256, 1, TimeUnit.HOURS)) {
+            for (int i = 0; i < 100; i++) {
+                batcher.send(new TextMessage(USERNAME, "message " + i));
+            }
+            assertTrue(channel.writes > 5 && channel.writes < 25, "writes: " + channel.writes);
+        }
+        assertEquals(100, channel.received(codec).size());
+    }
+
+    @Test
+    void deadline() throws Exception {
+        RecordingChannel channel = new RecordingChannel();
+        try (MessageBatcher batcher = new MessageBatcher(codec, channel, 4096, 50, TimeUnit.MILLISECONDS)) {
+            batcher.send(new TextMessage(USERNAME, "first"));
+            batcher.send(new TextMessage(USERNAME, "second"));
+            long start = System.nanoTime();
+            while (channel.writes == 0) {
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "no timed flush");
+                Thread.sleep(1);
+            }
+            assertEquals(1, channel.writes);
+            assertEquals(2, channel.received(codec).size());
+        }
+    }
+
+    @Test
+    void stuckPeerHoldsUpOnlyItsOwnBatcher() throws Exception {
+        CountDownLatch unstick = new CountDownLatch(1);
+        WritableByteChannel stuckChannel = new RecordingChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                try {
+                    unstick.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.write(src);
+            }
+        };
+        MessageBatcher stuck = new MessageBatcher(codec, stuckChannel, 4096, 1, TimeUnit.MILLISECONDS);
+        RecordingChannel channel = new RecordingChannel();
+        try (MessageBatcher batcher = new MessageBatcher(codec, channel, 4096, 1, TimeUnit.MILLISECONDS)) {
+            stuck.send(new TextMessage(USERNAME, "never read"));
+            Thread.sleep(50);
+            // The stuck batcher's timed flush is blocked writing; this one's deadline still passes.
+            batcher.send(new TextMessage(USERNAME, "on time"));
+            long start = System.nanoTime();
+            while (channel.writes == 0) {
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "no timed flush");
+                Thread.sleep(1);
+            }
+        } finally {
+            unstick.countDown();
+            stuck.close();
+        }
+    }
+
+    @Test
+    void controlMessagesFlush() throws IOException {
+        RecordingChannel channel = new RecordingChannel();
+        try (MessageBatcher batcher = new MessageBatcher(codec, channel, 4096, 1, TimeUnit.HOURS)) {
+            batcher.send(new ListUsersMessage(USERNAME));
+            assertEquals(1, channel.writes);
+            batcher.send(new TextMessage(USERNAME, "text"));
+            assertEquals(1, channel.writes);
+            batcher.flush();
+            assertEquals(2, channel.writes);
+            batcher.flush();
+            assertEquals(2, channel.writes);
+        }
+    }
+
+    @Test
+    void largeMessage() throws IOException {
+        RecordingChannel channel = new RecordingChannel();
+        TextMessage small = new TextMessage(USERNAME, "small");
+        TextMessage large = new TextMessage(USERNAME, "x".repeat(2 * BufferPool.DEFAULT_BUFFER_SIZE));
+        try (MessageBatcher batcher = new MessageBatcher(codec, channel, 1024, 1, TimeUnit.HOURS)) {
+            batcher.send(small);
+            batcher.send(large);
+            assertEquals(2, channel.writes);
+        }
+        assertEquals(List.of(small, large), channel.received(codec));
+    }
+
+    @Test
+    void timedFlushFailure() throws Exception {
+        RecordingChannel channel = new RecordingChannel();
+        channel.failing = true;
+        MessageBatcher batcher = new MessageBatcher(codec, channel, 4096, 1, TimeUnit.MILLISECONDS);
+        batcher.send(new TextMessage(USERNAME, "lost"));
+        Thread.sleep(100);
+        channel.failing = false;
+        assertThrows(IOException.class, () -> batcher.send(new TextMessage(USERNAME, "next")));
+        batcher.close();
+        assertThrows(IllegalStateException.class, () -> batcher.send(new TextMessage(USERNAME, "closed")));
+    }
+
+    @Test
+    void badArguments() {
+        RecordingChannel channel = new RecordingChannel();
+        assertThrows(IllegalArgumentException.class,
+                () -> new MessageBatcher(codec, channel, 0, 1, TimeUnit.MILLISECONDS));
+        assertThrows(IllegalArgumentException.class,
+                () -> new MessageBatcher(codec, channel, 4096, -1, TimeUnit.MILLISECONDS));
+    }
+}
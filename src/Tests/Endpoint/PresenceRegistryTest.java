@@ -0,0 +1,154 @@
+package Tests.Endpoint;
+
+import TheIncredibles.clack.endpoint.PresenceRegistry;
+import TheIncredibles.clack.message.ListUsersMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PresenceRegistryTest {
+
+    PresenceRegistry presence = new PresenceRegistry();
+
+    @Test
+    void joinAndLeave() {
+        assertEquals(0, presence.getVersion());
+        assertTrue(presence.join("alice"));
+        assertTrue(presence.join("bob"));
+        // A second connection is no change.
+        assertFalse(presence.join("alice"));
+        assertEquals(2, presence.getVersion());
+        assertEquals(List.of("alice", "bob"), presence.getUsers());
+
+        assertFalse(presence.leave("alice"));
+        assertTrue(presence.isOnline("alice"));
+        assertTrue(presence.leave("alice"));
+        assertFalse(presence.isOnline("alice"));
+        assertFalse(presence.leave("nobody"));
+        assertEquals(3, presence.getVersion());
+        assertEquals(List.of("bob"), presence.getUsers());
+    }
+
+    @Test
+    void snapshot() {
+        presence.join("carol");
+        presence.join("alice");
+        ListUsersMessage answer = presence.answer(new ListUsersMessage("alice"));
+        assertEquals(ListUsersMessage.KIND_SNAPSHOT, answer.getKind());
+        assertEquals(2, answer.getVersion());
+        assertArrayEquals(new String[] { "alice", "carol" }, answer.getJoined());
+        assertEquals("alice", answer.getUsername());
+    }
+
+    @Test
+    void delta() {
+        presence.join("alice");
+        presence.join("bob");
+        long version = presence.getVersion();
+        presence.join("carol");
+        presence.leave("bob");
+        // Came and went, or went and came back: nothing to report.
+        presence.join("dave");
+        presence.leave("dave");
+        presence.leave("alice");
+        presence.join("alice");
+
+        ListUsersMessage answer = presence.answer(new ListUsersMessage("alice", version));
+        assertEquals(ListUsersMessage.KIND_DELTA, answer.getKind());
+        assertEquals(version, answer.getBaseVersion());
+        assertEquals(presence.getVersion(), answer.getVersion());
+        assertArrayEquals(new String[] { "carol" }, answer.getJoined());
+        assertArrayEquals(new String[] { "bob" }, answer.getLeft());
+
+        // Up to date already.
+        ListUsersMessage none = presence.answer(new ListUsersMessage("alice", presence.getVersion()));
+        assertEquals(ListUsersMessage.KIND_DELTA, none.getKind());
+        assertEquals(0, none.getData().length);
+    }
+
+    @Test
+    void tooFarBehind() {
+        presence = new PresenceRegistry(4);
+        presence.join("alice");
+        long version = presence.getVersion();
+        for (int i = 0; i < 20; i++) {
+            presence.join("user" + i);
+        }
+        presence.getUsers();    // trims the log
+        ListUsersMessage answer = presence.answer(new ListUsersMessage("alice", version));
+        assertEquals(ListUsersMessage.KIND_SNAPSHOT, answer.getKind());
+        assertEquals(21, answer.getJoined().length);
+
+        // Ahead of the registry, e.g. from before a restart.
+        answer = presence.answer(new ListUsersMessage("alice", 1000));
+        assertEquals(ListUsersMessage.KIND_SNAPSHOT, answer.getKind());
+    }
+
+    @Test
+    void deltasAddUp() {
+        Set<String> roster = new TreeSet<>();
+        long version = 0;
+        for (int round = 0; round < 50; round++) {
+            presence.join("user" + round);
+            if (round % 3 == 0) {
+                presence.leave("user" + (round / 2));
+            }
+            ListUsersMessage answer = presence.answer(new ListUsersMessage("me", version));
+            if (answer.getKind() == ListUsersMessage.KIND_SNAPSHOT) {
+                roster.clear();
+                roster.addAll(List.of(answer.getJoined()));
+            } else {
+                assertEquals(version, answer.getBaseVersion());
+                roster.addAll(List.of(answer.getJoined()));
+                roster.removeAll(List.of(answer.getLeft()));
+            }
+            version = answer.getVersion();
+            assertEquals(presence.getUsers(), new ArrayList<>(roster));
+        }
+    }
+
+    @Test
+    void concurrentJoins() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    presence.join("user" + id + "-" + i);
+                    if (i % 2 == 1) {
+                        presence.leave("user" + id + "-" + (i - 1));
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread * 3 / 2, presence.getVersion());
+        assertEquals(threads * perThread / 2, presence.getUsers().size());
+        ListUsersMessage answer = presence.answer(new ListUsersMessage("me", 0));
+        assertEquals(presence.getUsers(), List.of(answer.getJoined()));
+    }
+
+    @Test
+    void badHistory() {
+        assertThrows(IllegalArgumentException.class, () -> new PresenceRegistry(0));
+    }
+}
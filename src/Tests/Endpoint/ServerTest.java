@@ -0,0 +1,334 @@
+package Tests.Endpoint;
+
+import TheIncredibles.clack.endpoint.Server;
+import TheIncredibles.clack.endpoint.ServerSession;
+import TheIncredibles.clack.message.CompressionContext;
+import TheIncredibles.clack.message.FileOfferMessage;
+import TheIncredibles.clack.message.FileOfferReplyMessage;
+import TheIncredibles.clack.message.ListUsersMessage;
+import TheIncredibles.clack.message.LogoutMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerTest {
+    MessageCodec codec = new MessageCodec();
+    Server server;
+    List<SocketChannel> clients = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new Server(0, 2);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    SocketChannel connect() throws IOException {
+        SocketChannel client = SocketChannel.open(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+        clients.add(client);
+        return client;
+    }
+
+    /** Connects a client and says hello, so the server knows its username. */
+    SocketChannel login(String username) throws Exception {
+        int before = server.getSessions().size();
+        SocketChannel client = connect();
+        send(client, new ListUsersMessage(username));
+        assertInstanceOf(ListUsersMessage.class, receive(client));
+        waitFor(() -> server.getSessions().stream().anyMatch(s -> username.equals(s.getUsername())));
+        assertEquals(before + 1, server.getSessions().size());
+        return client;
+    }
+
+    void send(SocketChannel client, Message message) throws IOException {
+        write(client, codec.encode(message));
+    }
+
+    void write(SocketChannel client, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            client.write(frame);
+        }
+    }
+
+    Message receive(SocketChannel client) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1024 * 1024);
+        Message message;
+        while ((message = codec.decode(buf.flip())) == null) {
+            buf.compact();
+            assertTrue(client.read(buf) >= 0, "connection closed");
+        }
+        assertFalse(buf.hasRemaining());
+        return message;
+    }
+
+    /** Receives count messages, decoding with the given context; returns how many bytes that took. */
+    long receive(SocketChannel client, CompressionContext context, List<Message> into, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1024 * 1024);
+        long bytes = 0;
+        int wanted = into.size() + count;
+        while (true) {
+            buf.flip();
+            Message message;
+            while ((message = codec.decode(buf, context)) != null) {
+                into.add(message);
+            }
+            buf.compact();
+            if (into.size() >= wanted) {
+                break;
+            }
+            int read = client.read(buf);
+            assertTrue(read >= 0, "connection closed");
+            bytes += read;
+        }
+        assertEquals(wanted, into.size());
+        assertEquals(0, buf.position());
+        return bytes;
+    }
+
+    static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long start = System.nanoTime();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - start < 10_000_000_000L, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void relay() throws Exception {
+        SocketChannel alice = login("alice");
+        SocketChannel bob = login("bob");
+        SocketChannel carol = login("carol");
+
+        TextMessage hello = new TextMessage("alice", "hello, everyone");
+        send(alice, hello);
+        assertEquals(hello, receive(bob));
+        assertEquals(hello, receive(carol));
+
+        TextMessage reply = new TextMessage("bob", "hi alice");
+        send(bob, reply);
+        assertEquals(reply, receive(alice));
+        assertEquals(reply, receive(carol));
+    }
+
+    @Test
+    void relayFileOffers() throws Exception {
+        SocketChannel alice = login("alice");
+        SocketChannel bob = login("bob");
+
+        FileOfferMessage offer = new FileOfferMessage("alice", "notes.txt", 3, "ab".repeat(32));
+        send(alice, offer);
+        assertEquals(offer, receive(bob));
+
+        FileOfferReplyMessage reply = new FileOfferReplyMessage("bob", offer.getContentHash(), false, 0);
+        send(bob, reply);
+        assertEquals(reply, receive(alice));
+    }
+
+    @Test
+    void broadcast() throws Exception {
+        SocketChannel alice = login("alice");
+        SocketChannel bob = login("bob");
+        SocketChannel carol = login("carol");
+
+        TextMessage notice = new TextMessage("server", "going down soon");
+        assertEquals(3, server.broadcast(notice, null));
+        assertEquals(notice, receive(alice));
+        assertEquals(notice, receive(bob));
+        assertEquals(notice, receive(carol));
+    }
+
+    @Test
+    void listUsers() throws Exception {
+        SocketChannel alice = login("alice");
+        login("bob");
+
+        send(alice, new ListUsersMessage("alice"));
+        ListUsersMessage snapshot = (ListUsersMessage) receive(alice);
+        assertEquals(ListUsersMessage.KIND_SNAPSHOT, snapshot.getKind());
+        assertArrayEquals(new String[] { "alice", "bob" }, snapshot.getJoined());
+
+        SocketChannel carol = login("carol");
+        carol.close();
+        waitFor(() -> !server.getPresence().isOnline("carol"));
+        login("dave");
+
+        send(alice, new ListUsersMessage("alice", snapshot.getVersion()));
+        ListUsersMessage delta = (ListUsersMessage) receive(alice);
+        assertEquals(ListUsersMessage.KIND_DELTA, delta.getKind());
+        assertEquals(snapshot.getVersion(), delta.getBaseVersion());
+        assertArrayEquals(new String[] { "dave" }, delta.getJoined());
+        assertEquals(0, delta.getLeft().length);
+    }
+
+    @Test
+    void partialAndLargeFrames() throws Exception {
+        SocketChannel alice = login("alice");
+        SocketChannel bob = login("bob");
+
+        // One byte at a time.
+        TextMessage small = new TextMessage("alice", "dribbled");
+        ByteBuffer frame = codec.encode(small);
+        while (frame.hasRemaining()) {
+            alice.write(frame.slice().limit(1));
+            frame.position(frame.position() + 1);
+            Thread.sleep(1);
+        }
+        assertEquals(small, receive(bob));
+
+        // Much larger than an event loop's read buffer.
+        TextMessage large = new TextMessage("alice", "x".repeat(300 * 1024));
+        send(alice, large);
+        assertEquals(large, receive(bob));
+    }
+
+    @Test
+    void lengthPrefixesAlone() throws Exception {
+        SocketChannel alice = login("alice");
+        SocketChannel bob = login("bob");
+
+        // Each promises the longest frame allowed, then sends almost none of it.
+        int promisers = 40;
+        for (int i = 0; i < promisers; i++) {
+            SocketChannel client = login("promiser" + i);
+            ByteBuffer start = ByteBuffer.allocate(Integer.BYTES + 16);
+            start.putInt(ServerSession.MAX_FRAME_LENGTH).flip();
+            while (start.hasRemaining()) {
+                client.write(start);
+            }
+        }
+
+        TextMessage text = new TextMessage("alice", "still here");
+        send(alice, text);
+        assertEquals(text, receive(bob));
+        assertEquals(2 + promisers, server.getSessions().size());
+    }
+
+    @Test
+    void relayLargerThanQueueLimit() throws Exception {
+        SocketChannel alice = login("alice");
+        SocketChannel bob = login("bob");
+
+        TextMessage large = new TextMessage("alice", "y".repeat((int) ServerSession.MAX_QUEUED_BYTES + 1024));
+        ByteBuffer frame = codec.encode(large);
+        Thread writer = new Thread(() -> {
+            try {
+                while (frame.hasRemaining()) {
+                    alice.write(frame);
+                }
+            } catch (IOException e) {
+                // Shows up as the message not arriving.
+            }
+        });
+        writer.start();
+        ByteBuffer buf = ByteBuffer.allocate(frame.capacity());
+        Message message;
+        while ((message = codec.decode(buf.flip())) == null) {
+            buf.compact();
+            assertTrue(bob.read(buf) >= 0, "connection closed");
+        }
+        writer.join();
+        assertEquals(large, message);
+    }
+
+    @Test
+    void compression() throws Exception {
+        SocketChannel bob = login("bob");
+        CompressionContext aliceContext = new CompressionContext();
+        try {
+            // A compressed hello asks the server to compress what it sends back.
+            SocketChannel alice = connect();
+            write(alice, codec.encodeCompressed(new ListUsersMessage("alice"), aliceContext));
+            List<Message> received = new ArrayList<>();
+            receive(alice, aliceContext, received, 1);
+            assertInstanceOf(ListUsersMessage.class, received.get(0));
+            received.clear();
+
+            List<Message> chat = new ArrayList<>();
+            long plainBytes = 0;
+            for (int i = 0; i < 50; i++) {
+                TextMessage line = new TextMessage("bob", "the build on branch " + i + " is green again, please pull and rebase");
+                send(bob, line);
+                chat.add(line);
+                plainBytes += codec.encodedLength(line);
+            }
+            long compressedBytes = receive(alice, aliceContext, received, chat.size());
+            assertEquals(chat, received);
+            assertTrue(compressedBytes < plainBytes / 2, compressedBytes + " bytes, " + plainBytes + " plain");
+
+            // Bob never asked for compression, so gets plain frames.
+            TextMessage reply = new TextMessage("alice", "pulled, ".repeat(20));
+            write(alice, codec.encode(reply, aliceContext));
+            assertTrue(aliceContext.getBytesOut() < aliceContext.getBytesIn());
+            assertEquals(reply, receive(bob));
+
+            TextMessage notice = new TextMessage("server", "going down for maintenance at noon, ".repeat(4));
+            assertEquals(2, server.broadcast(notice, null));
+            assertEquals(notice, receive(bob));
+            received.clear();
+            receive(alice, aliceContext, received, 1);
+            assertEquals(notice, received.get(0));
+        } finally {
+            aliceContext.close();
+        }
+    }
+
+    @Test
+    void logout() throws Exception {
+        SocketChannel alice = login("alice");
+        send(alice, new LogoutMessage("alice"));
+        assertEquals(-1, alice.read(ByteBuffer.allocate(16)));
+        waitFor(() -> server.getSessions().isEmpty());
+    }
+
+    @Test
+    void badFrame() throws Exception {
+        SocketChannel alice = login("alice");
+        alice.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 2, 0, 0 }));
+        assertEquals(-1, alice.read(ByteBuffer.allocate(16)));
+        waitFor(() -> server.getSessions().isEmpty());
+    }
+
+    @Test
+    void manyClients() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            connect();
+        }
+        waitFor(() -> server.getSessions().size() == 2000);
+        SocketChannel alice = clients.get(0);
+        send(alice, new TextMessage("alice", "to all"));
+        assertEquals("to all", receive(clients.get(1999)).getData()[0]);
+        for (ServerSession session : server.getSessions()) {
+            assertTrue(session.isOpen());
+        }
+    }
+
+    @Test
+    void close() throws Exception {
+        SocketChannel alice = login("alice");
+        server.close();
+        assertEquals(-1, alice.read(ByteBuffer.allocate(16)));
+        assertTrue(server.getSessions().isEmpty());
+    }
+}
@@ -0,0 +1,68 @@
+package Tests.Endpoint;
+
+import TheIncredibles.clack.endpoint.SharedFrame;
+import TheIncredibles.clack.message.BufferPool;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedFrameTest {
+
+    /** Remembers what was given back. */
+    static class RecordingPool extends BufferPool {
+        List<ByteBuffer> released = new ArrayList<>();
+
+        @Override
+        public void release(ByteBuffer buf) {
+            released.add(buf);
+            super.release(buf);
+        }
+    }
+
+    RecordingPool pool = new RecordingPool();
+    MessageCodec codec = new MessageCodec(pool);
+    TextMessage message = new TextMessage("alice", "hello, everyone");
+
+    @Test
+    void viewsAreIndependent() throws Exception {
+        SharedFrame frame = SharedFrame.encode(codec, message);
+        ByteBuffer a = frame.view();
+        ByteBuffer b = frame.view();
+        assertTrue(a.isReadOnly());
+        assertEquals(frame.length(), a.remaining());
+        assertEquals(message, codec.decode(a));
+        assertFalse(a.hasRemaining());
+        // Reading one view leaves the others where they were.
+        assertEquals(frame.length(), b.remaining());
+        assertEquals(message, codec.decode(b));
+        frame.release();
+    }
+
+    @Test
+    void lastReleaseFreesBuffer() {
+        SharedFrame frame = SharedFrame.encode(codec, message);
+        frame.retain().retain();
+        assertEquals(3, frame.refCount());
+        frame.release();
+        frame.release();
+        assertTrue(pool.released.isEmpty());
+        frame.release();
+        assertEquals(1, pool.released.size());
+        assertEquals(0, frame.refCount());
+    }
+
+    @Test
+    void overRelease() {
+        SharedFrame frame = SharedFrame.encode(codec, message);
+        frame.release();
+        assertThrows(IllegalStateException.class, frame::release);
+        assertThrows(IllegalStateException.class, frame::retain);
+        assertEquals(1, pool.released.size());
+    }
+}
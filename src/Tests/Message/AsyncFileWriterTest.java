@@ -0,0 +1,142 @@
+package Tests.Message;
+
+import TheIncredibles.clack.message.AsyncFileWriter;
+import TheIncredibles.clack.message.FileMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncFileWriterTest {
+    static final int BLOCK_SIZE = 4096;
+
+    Path tempDir;
+    AsyncFileWriter writer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("clack-");
+        writer = new AsyncFileWriter(2, BLOCK_SIZE);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        writer.close();
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    long fileCount() throws IOException {
+        try (Stream<Path> paths = Files.list(tempDir)) {
+            return paths.count();
+        }
+    }
+
+    @Test
+    void writeBlocks() throws Exception {
+        byte[] contents = new byte[10 * BLOCK_SIZE + 123];
+        new Random(42).nextBytes(contents);
+        Path target = tempDir.resolve("blocks.bin");
+        assertEquals(target, writer.write(target, ByteBuffer.wrap(contents)).get());
+        assertArrayEquals(contents, Files.readAllBytes(target));
+        // Nothing left behind but the file itself.
+        assertEquals(1, fileCount());
+    }
+
+    @Test
+    void replace() throws Exception {
+        Path target = tempDir.resolve("replace.txt");
+        Files.writeString(target, "old contents, longer than the new");
+        writer.write(target, "new \u00e9").get();
+        assertEquals("new \u00e9", Files.readString(target));
+    }
+
+    @Test
+    void permissions() throws Exception {
+        Path plain = tempDir.resolve("plain.txt");
+        Files.writeString(plain, "written directly");
+        Path written = tempDir.resolve("written.txt");
+        writer.write(written, "written asynchronously").get();
+        assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(written));
+
+        // Replacing a file keeps its permissions.
+        Files.setPosixFilePermissions(plain, PosixFilePermissions.fromString("rw-r-----"));
+        writer.write(plain, "replaced").get();
+        assertEquals(PosixFilePermissions.fromString("rw-r-----"), Files.getPosixFilePermissions(plain));
+    }
+
+    @Test
+    void emptyFile() throws Exception {
+        Path target = tempDir.resolve("empty.bin");
+        writer.write(target, ByteBuffer.allocate(0)).get();
+        assertEquals(0, Files.size(target));
+    }
+
+    @Test
+    void manyFiles() throws Exception {
+        CompletableFuture<?>[] written = new CompletableFuture<?>[20];
+        for (int i = 0; i < written.length; i++) {
+            written[i] = writer.write(tempDir.resolve("file" + i + ".txt"), "file " + i);
+        }
+        CompletableFuture.allOf(written).get();
+        for (int i = 0; i < written.length; i++) {
+            assertEquals("file " + i, Files.readString(tempDir.resolve("file" + i + ".txt")));
+        }
+    }
+
+    @Test
+    void missingDirectory() throws IOException {
+        Path target = tempDir.resolve("missing").resolve("file.txt");
+        ExecutionException e = assertThrows(ExecutionException.class, () -> writer.write(target, "text").get());
+        assertInstanceOf(NoSuchFileException.class, e.getCause());
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    void closeWaitsForWrites() throws IOException {
+        byte[] contents = new byte[100 * BLOCK_SIZE];
+        Path target = tempDir.resolve("close.bin");
+        CompletableFuture<Path> written = writer.write(target, ByteBuffer.wrap(contents));
+        writer.close();
+        assertTrue(written.isDone());
+        assertEquals(contents.length, Files.size(target));
+        assertThrows(IllegalStateException.class, () -> writer.write(target, "text"));
+    }
+
+    @Test
+    void writeFileAsync() throws Exception {
+        Path source = tempDir.resolve("source.txt");
+        Path target = Path.of("clack_async_test_copy.txt");
+        Files.writeString(source, "some text");
+        try {
+            FileMessage msg = new FileMessage("the user", source.toString(), target.toString());
+            msg.readFile();
+            assertEquals(target, msg.writeFileAsync(writer).get());
+            assertEquals("some text", Files.readString(target));
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    void badArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new AsyncFileWriter(0, BLOCK_SIZE));
+        assertThrows(IllegalArgumentException.class, () -> new AsyncFileWriter(1, 0));
+    }
+}
@@ -0,0 +1,144 @@
+package Tests.Message;
+
+import TheIncredibles.clack.message.CompressionContext;
+import TheIncredibles.clack.message.FileMessage;
+import TheIncredibles.clack.message.ListUsersMessage;
+import TheIncredibles.clack.message.LogoutMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionContextTest {
+    final String USERNAME = "the user";
+
+    MessageCodec codec = new MessageCodec();
+    CompressionContext sender = new CompressionContext();
+    CompressionContext receiver = new CompressionContext();
+
+    @AfterEach
+    void tearDown() {
+        sender.close();
+        receiver.close();
+    }
+
+    /** Encodes with the sender's context, checks the decoded copy, returns the frame length. */
+    int send(Message msg) throws ProtocolException {
+        ByteBuffer frame = codec.encode(msg, sender);
+        int length = frame.remaining();
+        assertEquals(msg, codec.decode(frame, receiver));
+        assertFalse(frame.hasRemaining());
+        codec.getPool().release(frame);
+        return length;
+    }
+
+    boolean isCompressed(Message msg) {
+        ByteBuffer frame = codec.encode(msg, sender);
+        return (frame.get(Integer.BYTES) & MessageCodec.COMPRESSED_FLAG) != 0;
+    }
+
+    @Test
+    void chatLines() throws ProtocolException {
+        int plain = 0;
+        int compressed = 0;
+        for (int i = 0; i < 200; i++) {
+            TextMessage msg = new TextMessage(USERNAME,
+                    "Has anyone seen the build results for commit number " + i + " yet?");
+            plain += codec.encodedLength(msg);
+            compressed += send(msg);
+        }
+        // Shared history makes each line after the first cost little more than its number.
+        assertTrue(compressed < plain / 2, compressed + " vs " + plain);
+        assertTrue(sender.getBytesOut() < sender.getBytesIn());
+    }
+
+    @Test
+    void belowThreshold() throws ProtocolException {
+        TextMessage msg = new TextMessage(USERNAME, "hi");
+        assertFalse(isCompressed(msg));
+        assertEquals(codec.encodedLength(msg), send(msg));
+        assertEquals(0, sender.getBytesIn());
+    }
+
+    @Test
+    void largeText() throws ProtocolException {
+        TextMessage msg = new TextMessage(USERNAME, "all work and no play ".repeat(10_000));
+        assertTrue(send(msg) < codec.encodedLength(msg) / 10);
+    }
+
+    @Test
+    void fileMessage() throws IOException {
+        Path file = Files.createTempFile("clack-", ".log");
+        try {
+            Files.writeString(file, "INFO connection accepted\n".repeat(500));
+            FileMessage msg = new FileMessage(USERNAME, file.toString(), "server.log");
+            msg.readFileBytes();
+            assertTrue(send(msg) < codec.encodedLength(msg) / 10);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void compressedHello() throws ProtocolException {
+        // Compressed however short, so the other end knows to compress too.
+        ListUsersMessage hello = new ListUsersMessage(USERNAME);
+        assertFalse(codec.compresses(hello, sender));
+        ByteBuffer frame = codec.encodeCompressed(hello, sender);
+        assertTrue(MessageCodec.isCompressedFrame(frame));
+        assertEquals(hello, codec.decode(frame, receiver));
+        assertFalse(MessageCodec.isCompressedFrame(codec.encode(hello)));
+        assertThrows(IllegalArgumentException.class, () -> codec.encodeCompressed(new LogoutMessage(USERNAME), sender));
+    }
+
+    @Test
+    void needsContext() {
+        ByteBuffer frame = codec.encode(new TextMessage(USERNAME, "x".repeat(100)), sender);
+        assertThrows(ProtocolException.class, () -> codec.decode(frame));
+    }
+
+    @Test
+    void corruptPayload() {
+        ByteBuffer frame = codec.encode(new TextMessage(USERNAME, "x".repeat(100)), sender);
+        frame.put(frame.limit() - 6, (byte) 0xFF);
+        assertThrows(ProtocolException.class, () -> codec.decode(frame, receiver));
+    }
+
+    @Test
+    void payloadLengthTooLarge() {
+        // A few compressed bytes claiming a 1 GiB payload, then one claiming far more than they could hold.
+        for (long claimed : new long[] { 1L << 30, 1024 * 1024 }) {
+            ProtocolException e = assertThrows(ProtocolException.class,
+                    () -> codec.decode(compressedFrame(claimed, 16), receiver));
+            assertTrue(e.getMessage().contains("payload length"), e.getMessage());
+        }
+    }
+
+    /** A compressed TextMessage frame, by hand: the given payload length, then filler. */
+    static ByteBuffer compressedFrame(long payloadLength, int fillerLength) {
+        ByteBuffer frame = ByteBuffer.allocate(64 + fillerLength);
+        frame.putInt(0);
+        frame.put((byte) (Message.MSGTYPE_TEXT | MessageCodec.COMPRESSED_FLAG));
+        frame.putLong(0);
+        frame.put((byte) 1);                // sequence number
+        frame.put((byte) 2).put((byte) 'u'); // username "u"
+        do {
+            byte b = (byte) (payloadLength & 0x7F);
+            payloadLength >>>= 7;
+            frame.put(payloadLength == 0 ? b : (byte) (b | 0x80));
+        } while (payloadLength != 0);
+        frame.put(new byte[fillerLength]);
+        frame.flip();
+        frame.putInt(0, frame.limit() - Integer.BYTES);
+        return frame;
+    }
+}
@@ -0,0 +1,176 @@
+package Tests.Message;
+
+import TheIncredibles.clack.message.ContentStore;
+import TheIncredibles.clack.message.FileChunkMessage;
+import TheIncredibles.clack.message.FileChunkReader;
+import TheIncredibles.clack.message.FileChunkWriter;
+import TheIncredibles.clack.message.FileMessage;
+import TheIncredibles.clack.message.FileOfferMessage;
+import TheIncredibles.clack.message.FileOfferReplyMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentStoreTest {
+    final String USERNAME = "the user";
+
+    /** File names for the received copies, written to the working directory. */
+    static final String SAVE_AS_NAME = "clack_store_test_copy.bin";
+    static final String OTHER_SAVE_AS_NAME = "clack_store_test_other.bin";
+
+    /** SHA-256 of "abc". */
+    static final String ABC_HASH = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    Path tempDir;
+    Path testFile;
+    ContentStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("clack-");
+        testFile = tempDir.resolve("clack_store_test.bin");
+        byte[] contents = new byte[10000];
+        new Random(42).nextBytes(contents);
+        Files.write(testFile, contents);
+        store = new ContentStore(tempDir.resolve("store"));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(Path.of(SAVE_AS_NAME));
+        Files.deleteIfExists(Path.of(OTHER_SAVE_AS_NAME));
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    long storedCount() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir.resolve("store").resolve("objects"))) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    void hash() throws IOException {
+        Path abc = tempDir.resolve("abc.txt");
+        Files.writeString(abc, "abc");
+        assertEquals(ABC_HASH, ContentStore.hash(abc));
+        assertEquals(ABC_HASH, store.put(ByteBuffer.wrap("abc".getBytes())));
+    }
+
+    @Test
+    void saveTwice() throws IOException {
+        FileMessage msg = new FileMessage(USERNAME, testFile.toString(), SAVE_AS_NAME);
+        msg.readFileBytes();
+        String contentHash = store.save(msg);
+        assertTrue(store.contains(contentHash));
+        assertArrayEquals(Files.readAllBytes(testFile), Files.readAllBytes(Path.of(SAVE_AS_NAME)));
+
+        msg.setFileSaveAsName(OTHER_SAVE_AS_NAME);
+        assertEquals(contentHash, store.save(msg));
+        assertArrayEquals(Files.readAllBytes(testFile), Files.readAllBytes(Path.of(OTHER_SAVE_AS_NAME)));
+        assertEquals(1, storedCount());
+    }
+
+    @Test
+    void saveText() throws IOException {
+        FileMessage msg = new FileMessage(USERNAME, tempDir.resolve("abc.txt").toString(), SAVE_AS_NAME);
+        Files.writeString(Path.of(msg.getFilePath()), "abc");
+        msg.readFile();
+        assertEquals(ABC_HASH, store.save(msg));
+        assertEquals("abc", Files.readString(Path.of(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void offer() throws IOException {
+        MessageCodec codec = new MessageCodec();
+        FileMessage msg = new FileMessage(USERNAME, testFile.toString(), SAVE_AS_NAME);
+        FileOfferMessage offer = msg.offer();
+        assertEquals(Message.MSGTYPE_FILE_OFFER, offer.getMsgType());
+        assertEquals(Files.size(testFile), offer.getFileLength());
+        assertEquals(ContentStore.hash(testFile), offer.getContentHash());
+
+        // Not stored yet: the file has to be sent.
+        FileOfferReplyMessage reply = store.accept((FileOfferMessage) codec.decode(codec.encode(offer)), "receiver");
+        assertFalse(reply.haveContent());
+        assertFalse(Files.exists(Path.of(SAVE_AS_NAME)));
+
+        msg.readFileBytes();
+        store.save(msg);
+        Files.delete(Path.of(SAVE_AS_NAME));
+
+        // Stored now: answering the offer saves the file, and nothing more is sent.
+        reply = store.accept(offer, "receiver");
+        assertEquals(reply, codec.decode(codec.encode(reply)));
+        assertTrue(reply.haveContent());
+        assertEquals(offer.getContentHash(), reply.getContentHash());
+        assertArrayEquals(Files.readAllBytes(testFile), Files.readAllBytes(Path.of(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void adoptChunkedFile() throws IOException {
+        try (FileChunkReader reader = new FileChunkReader(USERNAME, testFile.toString(), SAVE_AS_NAME, 4096)) {
+            FileChunkMessage first = reader.next();
+            try (FileChunkWriter writer = new FileChunkWriter(first)) {
+                writer.write(first);
+                while (reader.hasNext()) {
+                    writer.write(reader.next());
+                }
+            }
+        }
+        String contentHash = store.adopt(Path.of(SAVE_AS_NAME));
+        assertEquals(ContentStore.hash(testFile), contentHash);
+        assertTrue(store.contains(contentHash));
+        assertArrayEquals(Files.readAllBytes(testFile), Files.readAllBytes(Path.of(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void changeSavedFile() throws IOException {
+        FileMessage msg = new FileMessage(USERNAME, testFile.toString(), SAVE_AS_NAME);
+        msg.readFileBytes();
+        String contentHash = store.save(msg);
+
+        // The user's file is theirs to change; the stored content stays as it was.
+        Path saved = Path.of(SAVE_AS_NAME);
+        assertTrue(Files.isWritable(saved));
+        Files.writeString(saved, "changed in place");
+        FileOfferReplyMessage reply = store.accept(msg.offer(), "receiver");
+        assertTrue(reply.haveContent());
+        assertEquals(contentHash, ContentStore.hash(saved));
+    }
+
+    @Test
+    void badArguments() {
+        assertThrows(IllegalArgumentException.class, () -> store.contains("abc"));
+        assertThrows(IllegalArgumentException.class, () -> store.contains(ABC_HASH.toUpperCase()));
+        assertThrows(FileNotFoundException.class, () -> store.saveAs(ABC_HASH, Path.of(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void namesWithPaths() throws IOException {
+        String contentHash = store.put(ByteBuffer.wrap("abc".getBytes()));
+        Path outside = tempDir.resolve("outside.txt");
+        assertThrows(IllegalArgumentException.class, () -> store.saveAs(contentHash, outside));
+        assertThrows(IllegalArgumentException.class, () -> store.saveAs(contentHash, Path.of("..", SAVE_AS_NAME)));
+        assertThrows(IllegalArgumentException.class,
+                     () -> new FileOfferMessage(USERNAME, "../" + SAVE_AS_NAME, 3, contentHash));
+        assertThrows(IllegalArgumentException.class,
+                     () -> new FileOfferMessage(USERNAME, outside.toString(), 3, contentHash));
+        assertFalse(Files.exists(outside));
+    }
+}
@@ -0,0 +1,239 @@
+package Tests.Message;
+
+import TheIncredibles.clack.message.FileChunkMessage;
+import TheIncredibles.clack.message.FileChunkReader;
+import TheIncredibles.clack.message.FileChunkWriter;
+import TheIncredibles.clack.message.FileMessage;
+import TheIncredibles.clack.message.FileOfferMessage;
+import TheIncredibles.clack.message.FileOfferReplyMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileChunkReaderTest {
+    final String USERNAME = "the user";
+
+    /** File name for the received copy, written to the working directory. */
+    static final String SAVE_AS_NAME = "clack_chunk_test_copy.bin";
+
+    /** Temp dir holding the files to send. Created at run time. */
+    static Path TEMP_DIR_PATH;
+    /** Random bytes, not a multiple of the chunk size. Created at run time. */
+    static Path TEST_FILE_PATH;
+    /** Empty file. Created at run time. */
+    static Path EMPTY_FILE_PATH;
+
+    static final int CHUNK_SIZE = 4096;
+
+    @BeforeAll
+    static void createTestFiles() throws IOException {
+        TEMP_DIR_PATH = Files.createTempDirectory("clack-");
+        TEST_FILE_PATH = TEMP_DIR_PATH.resolve("clack_chunk_test.bin");
+        EMPTY_FILE_PATH = TEMP_DIR_PATH.resolve("clack_chunk_empty.bin");
+
+        byte[] contents = new byte[10 * CHUNK_SIZE + 123];
+        new Random(42).nextBytes(contents);
+        Files.write(TEST_FILE_PATH, contents);
+        Files.write(EMPTY_FILE_PATH, new byte[0]);
+    }
+
+    @AfterAll
+    static void deleteTestFiles() throws IOException {
+        Files.delete(TEST_FILE_PATH);
+        Files.delete(EMPTY_FILE_PATH);
+        Files.delete(TEMP_DIR_PATH);
+    }
+
+    @AfterEach
+    void deleteCopy() throws IOException {
+        Files.deleteIfExists(Path.of(SAVE_AS_NAME));
+        Files.deleteIfExists(Path.of(SAVE_AS_NAME + FileChunkWriter.PART_SUFFIX));
+        Files.deleteIfExists(Path.of(SAVE_AS_NAME + FileChunkWriter.MANIFEST_SUFFIX));
+    }
+
+    List<FileChunkMessage> readAll(Path file) throws IOException {
+        List<FileChunkMessage> chunks = new ArrayList<>();
+        try (FileChunkReader reader = new FileChunkReader(USERNAME, file.toString(), SAVE_AS_NAME, CHUNK_SIZE)) {
+            reader.forEachRemaining(chunks::add);
+        }
+        return chunks;
+    }
+
+    @Test
+    void chunks() throws IOException {
+        List<FileChunkMessage> chunks = readAll(TEST_FILE_PATH);
+        assertEquals(11, chunks.size());
+        long offset = 0;
+        for (FileChunkMessage chunk : chunks) {
+            assertEquals(Message.MSGTYPE_FILE_CHUNK, chunk.getMsgType());
+            assertEquals(SAVE_AS_NAME, chunk.getFileSaveAsName());
+            assertEquals(offset, chunk.getOffset());
+            assertEquals(Files.size(TEST_FILE_PATH), chunk.getFileLength());
+            offset += chunk.getChunkLength();
+        }
+        assertEquals(123, chunks.get(10).getChunkLength());
+        assertTrue(chunks.get(10).isLast());
+        assertFalse(chunks.get(9).isLast());
+    }
+
+    @Test
+    void transferThroughCodec() throws IOException {
+        MessageCodec codec = new MessageCodec();
+        List<FileChunkMessage> received = new ArrayList<>();
+        for (FileChunkMessage chunk : readAll(TEST_FILE_PATH)) {
+            ByteBuffer frame = codec.encode(chunk);
+            Message decoded = codec.decode(frame);
+            codec.getPool().release(frame);
+            assertEquals(chunk, decoded);
+            received.add((FileChunkMessage) decoded);
+        }
+        // Chunks are written at their own offsets, so order doesn't matter.
+        Collections.shuffle(received, new Random(7));
+
+        try (FileChunkWriter writer = new FileChunkWriter(received.get(0))) {
+            for (int i = 0; i < received.size(); i++) {
+                assertEquals(i == received.size() - 1, writer.write(received.get(i)));
+            }
+        }
+        assertArrayEquals(Files.readAllBytes(TEST_FILE_PATH), Files.readAllBytes(Path.of(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void emptyFile() throws IOException {
+        List<FileChunkMessage> chunks = readAll(EMPTY_FILE_PATH);
+        assertEquals(1, chunks.size());
+        assertTrue(chunks.get(0).isLast());
+        try (FileChunkWriter writer = new FileChunkWriter(chunks.get(0))) {
+            assertTrue(writer.write(chunks.get(0)));
+        }
+        assertEquals(0, Files.size(Path.of(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void resume() throws IOException {
+        FileOfferMessage offer = new FileMessage(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME).offer();
+
+        // The first transfer is cut off after five chunks.
+        try (FileChunkWriter writer = new FileChunkWriter(offer);
+             FileChunkReader reader = new FileChunkReader(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME, CHUNK_SIZE)) {
+            assertEquals(0, writer.getResumeOffset());
+            for (int i = 0; i < 5; i++) {
+                assertFalse(writer.write(reader.next()));
+            }
+        }
+        assertFalse(Files.exists(Path.of(SAVE_AS_NAME)));
+        assertTrue(Files.exists(Path.of(SAVE_AS_NAME + FileChunkWriter.MANIFEST_SUFFIX)));
+
+        // The second picks up where the first stopped.
+        MessageCodec codec = new MessageCodec();
+        try (FileChunkWriter writer = new FileChunkWriter(offer)) {
+            FileOfferReplyMessage reply = (FileOfferReplyMessage) codec.decode(codec.encode(writer.replyToOffer("receiver")));
+            assertFalse(reply.haveContent());
+            assertEquals(5 * CHUNK_SIZE, reply.getResumeOffset());
+            try (FileChunkReader reader = new FileChunkReader(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME,
+                                                              CHUNK_SIZE, reply.getResumeOffset())) {
+                int chunks = 0;
+                while (reader.hasNext()) {
+                    writer.write(reader.next());
+                    chunks++;
+                }
+                assertEquals(6, chunks);
+            }
+            assertTrue(writer.isComplete());
+        }
+        assertArrayEquals(Files.readAllBytes(TEST_FILE_PATH), Files.readAllBytes(Path.of(SAVE_AS_NAME)));
+        assertFalse(Files.exists(Path.of(SAVE_AS_NAME + FileChunkWriter.PART_SUFFIX)));
+        assertFalse(Files.exists(Path.of(SAVE_AS_NAME + FileChunkWriter.MANIFEST_SUFFIX)));
+    }
+
+    @Test
+    void resumeOtherContent() throws IOException {
+        FileOfferMessage offer = new FileMessage(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME).offer();
+        try (FileChunkWriter writer = new FileChunkWriter(offer);
+             FileChunkReader reader = new FileChunkReader(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME, CHUNK_SIZE)) {
+            writer.write(reader.next());
+        }
+        FileOfferMessage changed = new FileOfferMessage(USERNAME, SAVE_AS_NAME, offer.getFileLength(),
+                                                        "0".repeat(64));
+        try (FileChunkWriter writer = new FileChunkWriter(changed)) {
+            assertEquals(0, writer.getResumeOffset());
+        }
+    }
+
+    @Test
+    void contentNotAsOffered() throws IOException {
+        FileOfferMessage offer = new FileMessage(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME).offer();
+        FileOfferMessage wrong = new FileOfferMessage(USERNAME, SAVE_AS_NAME, offer.getFileLength(), "0".repeat(64));
+        FileChunkWriter writer = new FileChunkWriter(wrong);
+        try (FileChunkReader reader = new FileChunkReader(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME, CHUNK_SIZE)) {
+            while (reader.hasNext()) {
+                writer.write(reader.next());
+            }
+        }
+        assertTrue(writer.isComplete());
+        assertThrows(IOException.class, writer::close);
+        assertFalse(Files.exists(Path.of(SAVE_AS_NAME)));
+        assertFalse(Files.exists(Path.of(SAVE_AS_NAME + FileChunkWriter.PART_SUFFIX)));
+    }
+
+    @Test
+    void checksum() throws IOException {
+        MessageCodec codec = new MessageCodec();
+        FileChunkMessage chunk = readAll(TEST_FILE_PATH).get(0);
+        assertTrue(chunk.isIntact());
+        ByteBuffer frame = codec.encode(chunk);
+        // Flip a bit in the chunk's last byte, as if damaged in transit.
+        frame.put(frame.limit() - 1, (byte) (frame.get(frame.limit() - 1) ^ 1));
+        FileChunkMessage damaged = (FileChunkMessage) codec.decode(frame);
+        assertFalse(damaged.isIntact());
+        try (FileChunkWriter writer = new FileChunkWriter(damaged)) {
+            assertThrows(IOException.class, () -> writer.write(damaged));
+            assertEquals(0, writer.getResumeOffset());
+        }
+    }
+
+    @Test
+    void readChunks() throws IOException {
+        FileMessage msg = new FileMessage(USERNAME, TEST_FILE_PATH.toString(), SAVE_AS_NAME);
+        try (FileChunkReader reader = msg.readChunks(CHUNK_SIZE)) {
+            assertEquals(Files.size(TEST_FILE_PATH), reader.getFileLength());
+            assertEquals(SAVE_AS_NAME, reader.next().getFileSaveAsName());
+        }
+    }
+
+    @Test
+    void badStartOffset() {
+        assertThrows(IllegalArgumentException.class, () -> new FileChunkReader(USERNAME, TEST_FILE_PATH.toString(),
+                SAVE_AS_NAME, CHUNK_SIZE, Files.size(TEST_FILE_PATH) + 1));
+    }
+
+    @Test
+    void nameWithPath() {
+        ByteBuffer bytes = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        assertThrows(IllegalArgumentException.class,
+                () -> new FileChunkMessage(USERNAME, "../" + SAVE_AS_NAME, 0, 3, bytes));
+        assertThrows(IllegalArgumentException.class,
+                () -> new FileChunkMessage(USERNAME, TEMP_DIR_PATH.resolve(SAVE_AS_NAME).toString(), 0, 3, bytes));
+    }
+
+    @Test
+    void missingFile() {
+        assertThrows(FileNotFoundException.class,
+                () -> new FileChunkReader(USERNAME, TEMP_DIR_PATH.resolve("missing").toString()));
+    }
+}
@@ -2,10 +2,14 @@ package Tests.Message;
 
 import TheIncredibles.clack.message.FileMessage;
 import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
 import org.junit.jupiter.api.*;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
@@ -115,6 +119,38 @@ class FileMessageTest {
         assertNotEquals(msg2.hashCode(), msg3.hashCode());
     }
 
+    @Test
+    void getFingerprint() throws IOException {
+        long before = msg2.getFingerprint();
+        assertEquals(before, msg2.getFingerprint());
+        msg2.setFileSaveAsName("other_name.txt");
+        assertNotEquals(before, msg2.getFingerprint());
+        assertNotEquals(msg2, msg3);
+
+        before = msg3.getFingerprint();
+        msg3.readFileBytes();
+        assertNotEquals(before, msg3.getFingerprint());
+    }
+
+    @Test
+    void fingerprintOfContents() throws IOException {
+        // {0, 31} and {1, 0} have the same Arrays.hashCode().
+        Path file = TEMP_DIR_PATH.resolve("clack_fingerprint_test.bin");
+        Files.write(file, new byte[] { 0, 31 });
+        FileMessage msg = new FileMessage(USERNAME, file.toString(), TEST_FILE_NAME);
+        msg.readFileBytes();
+        Files.delete(file);
+
+        // Same message but for the file contents, which are last in the frame.
+        MessageCodec codec = new MessageCodec();
+        ByteBuffer frame = codec.encode(msg);
+        frame.put(frame.limit() - 2, (byte) 1).put(frame.limit() - 1, (byte) 0);
+        Message other = codec.decode(frame);
+        assertEquals(msg.getSequenceNumber(), other.getSequenceNumber());
+        assertNotEquals(msg.getFingerprint(), other.getFingerprint());
+        assertNotEquals(msg, other);
+    }
+
     @Test
     void testToString() {
         String str2 = "{class=FileMessage|"
@@ -166,6 +202,16 @@ class FileMessageTest {
         assertEquals("hostname", msg3.getFileSaveAsName());
     }
 
+    @Test
+    void setFileSaveAsNameRejectsPaths() {
+        assertThrows(IllegalArgumentException.class, () -> msg2.setFileSaveAsName("../hostname"));
+        assertThrows(IllegalArgumentException.class, () -> msg2.setFileSaveAsName("/etc/hostname"));
+        assertThrows(IllegalArgumentException.class, () -> msg2.setFileSaveAsName("/"));
+        assertThrows(IllegalArgumentException.class, () -> msg2.setFileSaveAsName(".."));
+        assertThrows(IllegalArgumentException.class, () -> msg2.setFileSaveAsName(""));
+        assertEquals(TEST_FILE_NAME, msg2.getFileSaveAsName());
+    }
+
     @Test
     void getData() {
         String[] data2 = new String[] {
@@ -206,6 +252,38 @@ class FileMessageTest {
         assertEquals(FILE_CONTENTS, whatWeWrote);
     }
 
+    @Test
+    void readFileBytes() throws IOException {
+        msg2.readFileBytes();
+        assertEquals(ByteBuffer.wrap(FILE_CONTENTS.getBytes(StandardCharsets.UTF_8)), msg2.getFileBytes());
+        assertEquals("", msg2.getFileContents());
+
+        msg2.readFile();
+        assertNull(msg2.getFileBytes());
+    }
+
+    @Test
+    void writeFileBytes() throws IOException {
+        // Bytes that aren't valid UTF-8, which readFile() would mangle.
+        byte[] binary = new byte[256];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) i;
+        }
+        Path binaryPath = TEMP_DIR_PATH.resolve("clack_binary_test.bin");
+        Path copyPath = Path.of(".", "clack_binary_test_copy.bin");
+        Files.write(binaryPath, binary);
+        try {
+            FileMessage msg = new FileMessage(USERNAME, binaryPath.toString(), copyPath.toString());
+            assertThrows(FileNotFoundException.class, msg::writeFileBytes);
+            msg.readFileBytes();
+            msg.writeFileBytes();
+            assertArrayEquals(binary, Files.readAllBytes(copyPath));
+        } finally {
+            Files.deleteIfExists(binaryPath);
+            Files.deleteIfExists(copyPath);
+        }
+    }
+
     @Test
     void testEquals() {
         assertTrue(msg2.equals(msg2));
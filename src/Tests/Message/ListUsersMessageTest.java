@@ -7,6 +7,7 @@ import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
 
 import static java.time.Duration.between;
 import static org.junit.jupiter.api.Assertions.*;
@@ -60,6 +61,38 @@ class ListUsersMessageTest {
         assertEquals(0, msg.getData().length);
     }
 
+    @Test
+    void request() {
+        assertTrue(msg.isRequest());
+        assertEquals(0, msg.getBaseVersion());
+        ListUsersMessage since = new ListUsersMessage(USERNAME, 12);
+        assertTrue(since.isRequest());
+        assertEquals(12, since.getBaseVersion());
+        assertTrue(since.toString().endsWith("|sinceVersion=12}"));
+        assertThrows(IllegalArgumentException.class, () -> new ListUsersMessage(USERNAME, -1));
+    }
+
+    @Test
+    void snapshot() {
+        ListUsersMessage snapshot = ListUsersMessage.snapshot(USERNAME, 3, List.of("alice", "bob"));
+        assertFalse(snapshot.isRequest());
+        assertEquals(ListUsersMessage.KIND_SNAPSHOT, snapshot.getKind());
+        assertEquals(3, snapshot.getVersion());
+        assertArrayEquals(new String[] { "alice", "bob" }, snapshot.getData());
+        assertTrue(snapshot.toString().endsWith("|version=3|users=alice,bob}"));
+    }
+
+    @Test
+    void delta() {
+        ListUsersMessage delta = ListUsersMessage.delta(USERNAME, 3, 5, List.of("carol"), List.of("bob"));
+        assertEquals(ListUsersMessage.KIND_DELTA, delta.getKind());
+        assertEquals(3, delta.getBaseVersion());
+        assertEquals(5, delta.getVersion());
+        assertArrayEquals(new String[] { "+carol", "-bob" }, delta.getData());
+        assertArrayEquals(new String[] { "bob" }, delta.getLeft());
+        assertNotEquals(delta, ListUsersMessage.delta(USERNAME, 3, 5, List.of("carol"), List.of()));
+    }
+
     @Test
     void testEquals() {
         assertTrue(msg.equals(msg));
@@ -44,6 +44,13 @@ class LogoutMessageTest {
     @Test
     void testHashCode() {
         assertNotEquals(msg.hashCode(), new LogoutMessage("other user"));
+        assertNotEquals(msg.hashCode(), new LogoutMessage("other user").hashCode());
+    }
+
+    @Test
+    void getFingerprint() {
+        assertEquals(msg.getFingerprint(), msg.getFingerprint());
+        assertNotEquals(msg.getFingerprint(), new LogoutMessage("other user").getFingerprint());
     }
 
     @Test
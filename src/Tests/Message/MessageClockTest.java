@@ -0,0 +1,93 @@
+package Tests.Message;
+
+import TheIncredibles.clack.message.LogoutMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageClock;
+import TheIncredibles.clack.message.TextMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageClockTest {
+    final String USERNAME = "the clock test user";
+
+    @AfterEach
+    void restoreClock() {
+        Message.setClock(MessageClock.system());
+    }
+
+    @Test
+    void systemClock() {
+        long before = System.currentTimeMillis() * 1_000_000L;
+        long now = MessageClock.system().epochNanos();
+        long after = System.currentTimeMillis() * 1_000_000L;
+        assertTrue(now >= before - 3_000_000L && now <= after + 3_000_000L);
+    }
+
+    @Test
+    void pluggableClock() {
+        long epochNanos = 1_700_000_000_123_456_789L;
+        Message.setClock(() -> epochNanos);
+        TextMessage msg = new TextMessage(USERNAME, "text");
+        assertEquals(epochNanos, msg.getEpochNanos());
+        assertEquals(LocalDateTime.ofInstant(Instant.ofEpochSecond(0, epochNanos), ZoneId.systemDefault()),
+                msg.getTimestamp());
+    }
+
+    @Test
+    void sequenceNumbers() {
+        Message.setClock(() -> 42L);
+        TextMessage first = new TextMessage(USERNAME, "text");
+        TextMessage second = new TextMessage(USERNAME, "text");
+        LogoutMessage third = new LogoutMessage(USERNAME);
+        assertEquals(first.getSequenceNumber() + 1, second.getSequenceNumber());
+        assertEquals(second.getSequenceNumber() + 1, third.getSequenceNumber());
+        // Same time, user and text, but still different messages.
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    void sequenceNumbersForManySenders() {
+        long[] now = { 1_700_000_000_000_000_000L };
+        Message.setClock(() -> now[0]);
+        TextMessage idle = new TextMessage(USERNAME, "text");
+        TextMessage busy = new TextMessage(USERNAME + " 2", "text");
+
+        // USERNAME goes quiet, and is forgotten, while many others send.
+        now[0] += 2_000_000_000L;
+        for (int i = 0; i < 10_000; i++) {
+            new TextMessage("sender" + i, "text");
+            if (i % 1000 == 0) {
+                busy = new TextMessage(USERNAME + " 2", "text");
+            }
+        }
+        // Busy senders are never forgotten, and a forgotten one still comes after its old messages.
+        assertEquals(busy.getSequenceNumber() + 1, new TextMessage(USERNAME + " 2", "text").getSequenceNumber());
+        TextMessage later = new TextMessage(USERNAME, "text");
+        assertTrue(Message.CHRONOLOGICAL.compare(idle, later) < 0);
+        // Nor are its sequence numbers given out again.
+        assertTrue(later.getSequenceNumber() > idle.getSequenceNumber());
+    }
+
+    @Test
+    void chronological() {
+        Message.setClock(() -> 42L);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(new TextMessage(USERNAME, "line " + i));
+        }
+        List<Message> shuffled = new ArrayList<>(messages);
+        Collections.shuffle(shuffled, new Random(1));
+        shuffled.sort(Message.CHRONOLOGICAL);
+        assertEquals(messages, shuffled);
+    }
+}
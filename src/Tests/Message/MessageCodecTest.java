@@ -0,0 +1,228 @@
+package Tests.Message;
+
+import TheIncredibles.clack.message.BufferPool;
+import TheIncredibles.clack.message.FileMessage;
+import TheIncredibles.clack.message.FileOfferMessage;
+import TheIncredibles.clack.message.FileOfferReplyMessage;
+import TheIncredibles.clack.message.HelpMessage;
+import TheIncredibles.clack.message.ListUsersMessage;
+import TheIncredibles.clack.message.LogoutMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+    final String USERNAME = "the user";
+
+    MessageCodec codec = new MessageCodec();
+
+    Message roundTrip(Message msg) throws ProtocolException {
+        ByteBuffer buf = codec.encode(msg);
+        assertEquals(codec.encodedLength(msg), buf.remaining());
+        Message decoded = codec.decode(buf);
+        assertFalse(buf.hasRemaining());
+        codec.getPool().release(buf);
+        return decoded;
+    }
+
+    @Test
+    void textMessage() throws ProtocolException {
+        TextMessage msg = new TextMessage(USERNAME, "Hello, Clack! \u00e9\u4e16\ud83d\ude00");
+        assertEquals(msg, roundTrip(msg));
+    }
+
+    @Test
+    void fileMessage() throws ProtocolException {
+        FileMessage msg = new FileMessage(USERNAME, "dir/in.txt", "out.txt");
+        assertEquals(msg, roundTrip(msg));
+    }
+
+    @Test
+    void fileMessageBytes() throws IOException {
+        Path file = Files.createTempFile("clack-", ".bin");
+        try {
+            Files.write(file, new byte[] { 0, (byte) 0xFF, (byte) 0xC3, 0x28, 10 });
+            FileMessage msg = new FileMessage(USERNAME, file.toString(), "out.bin");
+            msg.readFileBytes();
+            FileMessage decoded = (FileMessage) roundTrip(msg);
+            assertEquals(msg, decoded);
+            assertEquals(msg.getFileBytes(), decoded.getFileBytes());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void listUsersMessage() throws ProtocolException {
+        ListUsersMessage msg = new ListUsersMessage(USERNAME);
+        assertEquals(msg, roundTrip(msg));
+    }
+
+    @Test
+    void listUsersAnswers() throws ProtocolException {
+        ListUsersMessage request = new ListUsersMessage(USERNAME, 42);
+        ListUsersMessage decoded = (ListUsersMessage) roundTrip(request);
+        assertEquals(request, decoded);
+        assertEquals(42, decoded.getBaseVersion());
+
+        ListUsersMessage snapshot = ListUsersMessage.snapshot(USERNAME, 7, List.of("alice", "bob"));
+        assertEquals(snapshot, roundTrip(snapshot));
+
+        ListUsersMessage delta = ListUsersMessage.delta(USERNAME, 7, 9, List.of("carol"), List.of("alice"));
+        decoded = (ListUsersMessage) roundTrip(delta);
+        assertEquals(delta, decoded);
+        assertArrayEquals(new String[] { "carol" }, decoded.getJoined());
+        assertArrayEquals(new String[] { "alice" }, decoded.getLeft());
+    }
+
+    @Test
+    void logoutMessage() throws ProtocolException {
+        LogoutMessage msg = new LogoutMessage(USERNAME);
+        assertEquals(msg, roundTrip(msg));
+    }
+
+    @Test
+    void helpMessage() throws ProtocolException {
+        HelpMessage msg = new HelpMessage(USERNAME);
+        Message decoded = roundTrip(msg);
+        assertInstanceOf(HelpMessage.class, decoded);
+        assertEquals(msg.getUsername(), decoded.getUsername());
+        assertEquals(msg.getTimestamp(), decoded.getTimestamp());
+    }
+
+    @Test
+    void nullStrings() throws ProtocolException {
+        TextMessage msg = new TextMessage(null, null);
+        assertEquals(msg, roundTrip(msg));
+    }
+
+    @Test
+    void compact() {
+        assertEquals(22, codec.encodedLength(new TextMessage("user", "hi")));
+    }
+
+    @Test
+    void largeMessage() throws ProtocolException {
+        TextMessage msg = new TextMessage(USERNAME, "x".repeat(3 * BufferPool.DEFAULT_BUFFER_SIZE));
+        assertEquals(msg, roundTrip(msg));
+    }
+
+    @Test
+    void partialFrames() throws ProtocolException {
+        TextMessage first = new TextMessage(USERNAME, "first");
+        LogoutMessage second = new LogoutMessage(USERNAME);
+        ByteBuffer wire = ByteBuffer.allocate(codec.encodedLength(first) + codec.encodedLength(second));
+        codec.encode(first, wire);
+        codec.encode(second, wire);
+        wire.flip();
+
+        ByteBuffer received = ByteBuffer.allocate(wire.capacity());
+        int decoded = 0;
+        while (wire.hasRemaining()) {
+            received.put(wire.get());
+            received.flip();
+            Message msg = codec.decode(received);
+            if (msg != null) {
+                assertEquals(decoded == 0 ? first : second, msg);
+                decoded++;
+            }
+            received.compact();
+        }
+        assertEquals(2, decoded);
+    }
+
+    @Test
+    void unknownMsgType() {
+        ByteBuffer buf = codec.encode(new LogoutMessage(USERNAME));
+        buf.put(Integer.BYTES, (byte) 99);
+        assertThrows(ProtocolException.class, () -> codec.decode(buf));
+    }
+
+    @Test
+    void fileNameWithPath() {
+        // Swap in a name of the same length, as a hostile sender could.
+        ByteBuffer buf = codec.encode(new FileMessage(USERNAME, "in.txt", "abcdef.txt"));
+        byte[] frame = new byte[buf.remaining()];
+        buf.duplicate().get(frame);
+        String text = new String(frame, StandardCharsets.ISO_8859_1);
+        int at = text.indexOf("abcdef.txt");
+        buf.put(at, "../../.pro".getBytes(StandardCharsets.ISO_8859_1));
+        assertThrows(ProtocolException.class, () -> codec.decode(buf));
+    }
+
+    @Test
+    void badContentHash() {
+        // Swap in a hash of the same length that isn't lowercase hex, as a hostile sender could.
+        String hash = "ab".repeat(32);
+        Message[] messages = {
+                new FileOfferMessage(USERNAME, "notes.txt", 3, hash),
+                new FileOfferReplyMessage(USERNAME, hash, false, 0)
+        };
+        for (Message message : messages) {
+            ByteBuffer buf = codec.encode(message);
+            byte[] frame = new byte[buf.remaining()];
+            buf.duplicate().get(frame);
+            int at = new String(frame, StandardCharsets.ISO_8859_1).indexOf(hash);
+            buf.put(at, "AB".repeat(32).getBytes(StandardCharsets.ISO_8859_1));
+            assertThrows(ProtocolException.class, () -> codec.decode(buf));
+        }
+        assertThrows(IllegalArgumentException.class,
+                     () -> new FileOfferMessage(USERNAME, "notes.txt", 3, "not a hash"));
+        assertThrows(IllegalArgumentException.class,
+                     () -> new FileOfferReplyMessage(USERNAME, null, true));
+    }
+
+    @Test
+    void nullUserName() {
+        // A snapshot ending with joined = { "" } and left = {}; make the "" a null.
+        ByteBuffer buf = codec.encode(ListUsersMessage.snapshot(USERNAME, 1, List.of("")));
+        assertEquals(0, buf.get(buf.limit() - 1));
+        buf.put(buf.limit() - 2, (byte) 0);
+        assertThrows(ProtocolException.class, () -> codec.decode(buf));
+    }
+
+    @Test
+    void negativeLengths() {
+        // Ten-byte varints that decode to -1 and -2, where a length or count belongs.
+        byte[] minusOne = { -1, -1, -1, -1, -1, -1, -1, -1, -1, 1 };
+        byte[] minusTwo = { -2, -1, -1, -1, -1, -1, -1, -1, -1, 1 };
+        for (byte[] varint : new byte[][] { minusOne, minusTwo }) {
+            ByteBuffer text = frame(Message.MSGTYPE_TEXT, varint);
+            assertThrows(ProtocolException.class, () -> codec.decode(text));
+            // A SNAPSHOT (kind 1) with versions 0 and 0, then its count of users joined.
+            ByteBuffer list = frame(Message.MSGTYPE_LISTUSERS, new byte[] { 1, 0, 0 }, varint);
+            assertThrows(ProtocolException.class, () -> codec.decode(list));
+        }
+    }
+
+    /** A frame by hand: header from user "u", then the given payload bytes, then some filler. */
+    static ByteBuffer frame(int msgType, byte[]... payload) {
+        ByteBuffer frame = ByteBuffer.allocate(256);
+        frame.putInt(0).put((byte) msgType).putLong(0).put((byte) 1).put((byte) 2).put((byte) 'u');
+        for (byte[] bytes : payload) {
+            frame.put(bytes);
+        }
+        frame.put(new byte[16]).flip();
+        frame.putInt(0, frame.limit() - Integer.BYTES);
+        return frame;
+    }
+
+    @Test
+    void truncatedFrame() {
+        ByteBuffer buf = codec.encode(new TextMessage(USERNAME, "text"));
+        buf.putInt(0, buf.getInt(0) - 2);
+        buf.limit(buf.limit() - 2);
+        assertThrows(ProtocolException.class, () -> codec.decode(buf));
+    }
+}
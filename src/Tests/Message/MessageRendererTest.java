@@ -0,0 +1,75 @@
+package Tests.Message;
+
+import TheIncredibles.clack.message.FileMessage;
+import TheIncredibles.clack.message.ListUsersMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.TextMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageRendererTest {
+    final String USERNAME = "the user";
+
+    @Test
+    void sameAsToString() {
+        TextMessage text = new TextMessage(USERNAME, "some text");
+        assertEquals(text.toString(), text.render(new StringBuilder(), 100).toString());
+
+        ListUsersMessage list = new ListUsersMessage(USERNAME);
+        assertEquals(list.toString(), list.render(new StringBuilder(), 100).toString());
+
+        FileMessage file = new FileMessage(USERNAME, "in.txt", "out.txt");
+        assertEquals(file.toString(), file.render(new StringBuilder(), 100).toString());
+    }
+
+    @Test
+    void truncated() {
+        TextMessage msg = new TextMessage(USERNAME, "x".repeat(1_000_000));
+        String rendered = msg.render(new StringBuilder(), 10).toString();
+        assertEquals("{class=TextMessage|timestamp=" + msg.getTimestamp()
+                + "|username=" + USERNAME
+                + "|data=xxxxxxxxxx...[999990 more chars]}", rendered);
+    }
+
+    @Test
+    void surrogatePairNotSplit() {
+        TextMessage msg = new TextMessage(USERNAME, "ab\ud83d\ude00cd");
+        String rendered = msg.render(new StringBuilder(), 3).toString();
+        assertTrue(rendered.endsWith("|data=ab...[4 more chars]}"), rendered);
+    }
+
+    @Test
+    void appendable() throws IOException {
+        TextMessage msg = new TextMessage(USERNAME, "some text");
+        StringWriter out = new StringWriter();
+        msg.render(out, Message.DEFAULT_PREVIEW_LENGTH);
+        assertEquals(msg.toString(), out.toString());
+    }
+
+    @Test
+    void reusedBuilder() {
+        StringBuilder sb = new StringBuilder();
+        TextMessage first = new TextMessage(USERNAME, "first");
+        TextMessage second = new TextMessage(USERNAME, "second");
+        first.render(sb, 100);
+        sb.setLength(0);
+        assertEquals(second.toString(), second.render(sb, 100).toString());
+    }
+
+    @Test
+    void preview() {
+        TextMessage msg = new TextMessage(USERNAME, "y".repeat(500));
+        Object preview = msg.preview(5);
+        assertTrue(preview.toString().endsWith("|data=yyyyy...[495 more chars]}"));
+    }
+
+    @Test
+    void negativePreview() {
+        TextMessage msg = new TextMessage(USERNAME, "text");
+        assertThrows(IllegalArgumentException.class, () -> msg.render(new StringBuilder(), -1));
+    }
+}
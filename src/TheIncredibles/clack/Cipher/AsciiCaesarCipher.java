@@ -0,0 +1,202 @@
+package TheIncredibles.clack.Cipher;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * AsciiCaesarCipher is a byte-oriented Caesar cipher for the default 26-letter alphabet.
+ * It encrypts the ASCII letters 'A'-'Z' and 'a'-'z' (preserving case) and leaves every other
+ * byte alone. Since all bytes of a multi-byte UTF-8 sequence are 0x80 or above, it can be run
+ * directly over UTF-8 encoded text or file contents without decoding them first.
+ *
+ * Byte arrays are processed eight bytes at a time: each group is read as a long and all eight
+ * letters are checked and shifted with a handful of arithmetic operations on the whole word
+ * (SIMD within a register). The few bytes left over at the end go through a 256-entry table.
+ *
+ * For ASCII text the String methods give the same results as a CaesarCipher with the same key
+ * and the default alphabet.
+ */
+public class AsciiCaesarCipher implements Cipher {
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final int ALPHABET_SIZE = 26;
+
+    private final int key;
+    private final int encryptShift;
+    private final int decryptShift;
+    private final byte[] encryptTable = new byte[256];
+    private final byte[] decryptTable = new byte[256];
+
+    /**
+     * Constructor to initialize the AsciiCaesarCipher with a key.
+     *
+     * @param key The number of positions to shift the letters.
+     */
+    public AsciiCaesarCipher(int key) {
+        this.key = key;
+        this.encryptShift = Math.floorMod(key, ALPHABET_SIZE);
+        this.decryptShift = (ALPHABET_SIZE - this.encryptShift) % ALPHABET_SIZE;
+        for (int b = 0; b < 256; b++) {
+            this.encryptTable[b] = (byte) shiftByte(b, this.encryptShift);
+            this.decryptTable[b] = (byte) shiftByte(b, this.decryptShift);
+        }
+    }
+
+    /**
+     * Encrypts the given cleartext. Only ASCII letters are changed.
+     *
+     * @param cleartext The text to be encrypted.
+     * @return The encrypted ciphertext.
+     */
+    @Override
+    public String encrypt(String cleartext) {
+        return translate(cleartext, this.encryptTable);
+    }
+
+    /**
+     * Decrypts the given ciphertext. Only ASCII letters are changed.
+     *
+     * @param ciphertext The text to be decrypted.
+     * @return The decrypted cleartext.
+     */
+    @Override
+    public String decrypt(String ciphertext) {
+        return translate(ciphertext, this.decryptTable);
+    }
+
+    /**
+     * Encrypts data[offset] up to data[offset + length] in place.
+     *
+     * @param data bytes to encrypt, e.g. ASCII or UTF-8 encoded text.
+     * @param offset index of the first byte to encrypt.
+     * @param length number of bytes to encrypt.
+     * @throws IndexOutOfBoundsException if the range is not inside data.
+     */
+    public void encrypt(byte[] data, int offset, int length) {
+        translate(data, offset, length, this.encryptShift, this.encryptTable);
+    }
+
+    /**
+     * Decrypts data[offset] up to data[offset + length] in place.
+     *
+     * @param data bytes to decrypt.
+     * @param offset index of the first byte to decrypt.
+     * @param length number of bytes to decrypt.
+     * @throws IndexOutOfBoundsException if the range is not inside data.
+     */
+    public void decrypt(byte[] data, int offset, int length) {
+        translate(data, offset, length, this.decryptShift, this.decryptTable);
+    }
+
+    /**
+     * Encrypts the remaining bytes of buf in place. The buffer's
+     * position and limit are not changed.
+     *
+     * @param buf bytes to encrypt.
+     */
+    public void encrypt(ByteBuffer buf) {
+        translate(buf, this.encryptShift, this.encryptTable);
+    }
+
+    /**
+     * Decrypts the remaining bytes of buf in place. The buffer's
+     * position and limit are not changed.
+     *
+     * @param buf bytes to decrypt.
+     */
+    public void decrypt(ByteBuffer buf) {
+        translate(buf, this.decryptShift, this.decryptTable);
+    }
+
+    /**
+     * getter for the objects alphabet
+     *
+     * @return The alphabet that is being used, always CaesarCipher.DEFAULT_ALPHABET
+     */
+    @Override
+    public String getAlphabet() {return CaesarCipher.DEFAULT_ALPHABET;}
+
+    /**
+     * getter for the objects key
+     *
+     * @return The key that is being used
+     */
+    public int getKey() {return this.key;}
+
+    private String translate(String text, byte[] table) {
+        char[] buf = new char[text.length()];
+        text.getChars(0, buf.length, buf, 0);
+        for (int i = 0; i < buf.length; i++) {
+            char ch = buf[i];
+            if (ch < 0x80) {
+                buf[i] = (char) table[ch];
+            }
+        }
+        return new String(buf);
+    }
+
+    private void translate(ByteBuffer buf, int shift, byte[] table) {
+        if (buf.hasArray() && !buf.isReadOnly()) {
+            translate(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), shift, table);
+        } else {
+            for (int i = buf.position(); i < buf.limit(); i++) {
+                buf.put(i, table[buf.get(i) & 0xFF]);
+            }
+        }
+    }
+
+    private static void translate(byte[] data, int offset, int length, int shift, byte[] table) {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length
+                    + ", array length " + data.length);
+        }
+        int end = offset + length;
+        int i = offset;
+        for (; i <= end - Long.BYTES; i += Long.BYTES) {
+            long word = (long) LONGS.get(data, i);
+            LONGS.set(data, i, shiftWord(word, shift));
+        }
+        for (; i < end; i++) {
+            data[i] = table[data[i] & 0xFF];
+        }
+    }
+
+    /**
+     * Shifts all eight letters in word at once. Every step below keeps each
+     * byte's value under 0x100, so nothing ever carries or borrows from one
+     * byte into the next.
+     */
+    private static long shiftWord(long word, int shift) {
+        long ascii = ~word & HIGH_BITS;                                 // high bit of each ASCII byte
+        long upper = word & ~(0x20 * ONES) & ~HIGH_BITS;                // fold to uppercase, 7 bits
+        long atLeastA = (upper + (0x80 - 'A') * ONES) & HIGH_BITS;
+        long pastZ = (upper + (0x80 - 'Z' - 1) * ONES) & HIGH_BITS;
+        long letters = ascii & atLeastA & ~pastZ;
+        if (letters == 0) {
+            return word;
+        }
+
+        long shifted = upper + shift * ONES;                            // at most 'Z' + 25, so < 0x80 for letters
+        long wrapped = (shifted + (0x80 - 'Z' - 1) * ONES) & HIGH_BITS;
+        shifted -= (wrapped >>> 7) * ALPHABET_SIZE;
+        shifted |= word & (0x20 * ONES);                                // restore lowercase
+
+        long mask = (letters >>> 7) * 0xFF;
+        return (word & ~mask) | (shifted & mask);
+    }
+
+    private static int shiftByte(int b, int shift) {
+        if (b >= 'A' && b <= 'Z') {
+            return 'A' + (b - 'A' + shift) % ALPHABET_SIZE;
+        }
+        if (b >= 'a' && b <= 'z') {
+            return 'a' + (b - 'a' + shift) % ALPHABET_SIZE;
+        }
+        return b;
+    }
+}
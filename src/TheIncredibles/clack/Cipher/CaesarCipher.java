@@ -1,16 +1,85 @@
 package TheIncredibles.clack.Cipher;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * CaesarCipher class provides methods to encrypt and decrypt messages using the Caesar cipher technique.
- * The class supports an optional custom alphabet and handles case sensitivity by converting all input to uppercase.
+ * The class supports an optional custom alphabet and handles case sensitivity by matching each
+ * character against the alphabet in uppercase.
+ *
+ * The alphabet is made of Unicode code points, so it can hold characters outside the Basic
+ * Multilingual Plane (which take two chars in a String) as well as thousands of characters,
+ * e.g. CJK ideographs.
+ *
+ * The substitution for every character the cipher can change is worked out once, in the
+ * constructor, and kept in lookup tables (one for encrypting, one for decrypting). Encrypting
+ * or decrypting a string is then a single constant-time lookup per character, whatever the
+ * size of the alphabet. Alphabets whose characters are close together in the BMP get plain
+ * arrays indexed by char; others get a CodePointMap.
+ *
+ * Building those tables takes a while for large alphabets. Code that uses the same key and
+ * alphabet over and over should get its cipher from CaesarCipher.of(), which hands out
+ * shared instances from a CipherCache; CaesarCipher objects are immutable, so this is safe.
  */
-public class CaesarCipher {
-    private String alphabet;
-    private int key;
+public class CaesarCipher implements Cipher {
+    private final String alphabet;
+    private final int key;
     public static String DEFAULT_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
 
+    /**
+     * Number of chars read, translated and written at a time by the
+     * streaming (Reader/Writer) versions of encrypt and decrypt.
+     */
+    public static final int STREAM_CHUNK_SIZE = 8192;
+
+    /**
+     * Texts shorter than this many chars are not worth splitting up, and
+     * are handled on the calling thread by encryptParallel and decryptParallel.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 16;
+
+    // BMP alphabets get dense tables as long as the chars they cover span no
+    // more than this (or four times their number, if that's more).
+    private static final int DENSE_TABLE_SPAN = 4096;
+
+    private static final CipherCache SHARED_CACHE = new CipherCache();
+
+    private final int[] alphabetCodePoints;
+
+    // True if every substitution keeps the number of chars the same (no BMP char
+    // turns into a surrogate pair or the other way round), so text can be
+    // translated in place.
+    private final boolean lengthPreserving;
+
+    // Dense tables, indexed by (char - tableBase); null for sparse alphabets.
+    // Characters that fall outside the tables are not in the alphabet and are
+    // passed through as is; so are characters inside the range that the alphabet
+    // doesn't cover, since their table entry is the character itself.
+    private final char[] encryptTable;
+    private final char[] decryptTable;
+    private final int[] indexTable;
+    private final int tableBase;
+
+    // Substitutions for chars 0 to 255, as bytes; null unless every one of
+    // them stays below 256. Lets Latin-1 text be translated as bytes.
+    private final byte[] latin1EncryptTable;
+    private final byte[] latin1DecryptTable;
+
+    // Sparse tables; null for dense alphabets. slots maps each code point the
+    // cipher changes to its position in the three arrays.
+    private final CodePointMap slots;
+    private final int[] encryptSlots;
+    private final int[] decryptSlots;
+    private final int[] indexSlots;
+
     /**
      * Constructor to initialize the CaesarCipher with a key and an optional alphabet.
      *
@@ -20,6 +89,117 @@ public class CaesarCipher {
     public CaesarCipher(int key, String alphabet) {
         this.key = key;
         this.alphabet = (alphabet != null) ? alphabet : DEFAULT_ALPHABET;
+        this.alphabetCodePoints = this.alphabet.codePoints().toArray();
+        int length = this.alphabetCodePoints.length;
+
+        // Where each alphabet char is. Only the first occurrence counts,
+        // which is what indexOf() used to give us.
+        CodePointMap positions = new CodePointMap(length);
+        for (int i = 0; i < length; i++) {
+            positions.putIfAbsent(this.alphabetCodePoints[i], i);
+        }
+
+        // Every code point whose uppercase form is in the alphabet: each alphabet
+        // char that is its own uppercase, and every code point that uppercases
+        // to one of them.
+        int[] mapped = new int[Math.max(16, 2 * length)];
+        int mappedCount = 0;
+        for (int i = 0; i < length; i++) {
+            int upper = this.alphabetCodePoints[i];
+            if (positions.get(upper) != i) {
+                continue;                                                   // A repeat
+            }
+            int from = CaseVariants.first(upper);
+            int to = CaseVariants.end(from, upper);
+            if (mappedCount + 1 + to - from > mapped.length) {
+                mapped = Arrays.copyOf(mapped, 2 * (mappedCount + 1 + to - from));
+            }
+            if (Character.toUpperCase(upper) == upper) {
+                mapped[mappedCount++] = upper;
+            }
+            for (int j = from; j < to; j++) {
+                mapped[mappedCount++] = CaseVariants.VARIANTS[j];
+            }
+        }
+        Arrays.sort(mapped, 0, mappedCount);
+
+        // Work out the substitutions.
+        int[] alphabetLower = this.alphabet.toLowerCase(Locale.ENGLISH).codePoints().toArray();
+        if (alphabetLower.length != length) {
+            alphabetLower = Arrays.stream(this.alphabetCodePoints).map(Character::toLowerCase).toArray();
+        }
+        int shift = (length == 0) ? 0 : Math.floorMod(key, length);
+        int[] encrypted = new int[mappedCount];
+        int[] decrypted = new int[mappedCount];
+        int[] indexes = new int[mappedCount];
+        boolean preserving = true;
+        for (int i = 0; i < mappedCount; i++) {
+            int cp = mapped[i];
+            int index = positions.get(Character.toUpperCase(cp));
+            int encIndex = (index + shift) % length;
+            int decIndex = (index - shift + length) % length;
+            if (Character.isUpperCase(cp)) {                                // Use uppercase alphabet
+                encrypted[i] = this.alphabetCodePoints[encIndex];
+                decrypted[i] = this.alphabetCodePoints[decIndex];
+            } else {                                                        // Use lowercase alphabet
+                encrypted[i] = alphabetLower[encIndex];
+                decrypted[i] = alphabetLower[decIndex];
+            }
+            indexes[i] = index;
+            preserving &= Character.charCount(encrypted[i]) == Character.charCount(cp)
+                    && Character.charCount(decrypted[i]) == Character.charCount(cp);
+        }
+        this.lengthPreserving = preserving;
+
+        int lo = (mappedCount == 0) ? 0 : mapped[0];
+        int hi = (mappedCount == 0) ? -1 : mapped[mappedCount - 1];
+        boolean dense = hi < Character.MIN_SUPPLEMENTARY_CODE_POINT && preserving
+                && hi - lo < Math.max(DENSE_TABLE_SPAN, 4 * mappedCount);
+        if (dense) {
+            this.tableBase = lo;
+            this.encryptTable = new char[hi - lo + 1];
+            this.decryptTable = new char[hi - lo + 1];
+            this.indexTable = new int[hi - lo + 1];
+            for (int c = lo; c <= hi; c++) {
+                this.encryptTable[c - lo] = (char) c;
+                this.decryptTable[c - lo] = (char) c;
+                this.indexTable[c - lo] = -1;
+            }
+            for (int i = 0; i < mappedCount; i++) {
+                this.encryptTable[mapped[i] - lo] = (char) encrypted[i];
+                this.decryptTable[mapped[i] - lo] = (char) decrypted[i];
+                this.indexTable[mapped[i] - lo] = indexes[i];
+            }
+            this.slots = null;
+            this.encryptSlots = null;
+            this.decryptSlots = null;
+            this.indexSlots = null;
+        } else {
+            this.slots = new CodePointMap(mappedCount);
+            for (int i = 0; i < mappedCount; i++) {
+                this.slots.putIfAbsent(mapped[i], i);
+            }
+            this.encryptSlots = encrypted;
+            this.decryptSlots = decrypted;
+            this.indexSlots = indexes;
+            this.tableBase = 0;
+            this.encryptTable = null;
+            this.decryptTable = null;
+            this.indexTable = null;
+        }
+
+        byte[] latin1Encrypt = new byte[256];
+        byte[] latin1Decrypt = new byte[256];
+        boolean latin1 = true;
+        for (int c = 0; c < 256 && latin1; c++) {
+            int encryptedChar = substituteCodePoint(c, true);
+            int decryptedChar = substituteCodePoint(c, false);
+            latin1 = encryptedChar < 256 && decryptedChar < 256;
+            latin1Encrypt[c] = (byte) encryptedChar;
+            latin1Decrypt[c] = (byte) decryptedChar;
+        }
+        this.latin1EncryptTable = latin1 ? latin1Encrypt : null;
+        this.latin1DecryptTable = latin1 ? latin1Decrypt : null;
     }
 
 
@@ -29,8 +209,29 @@ public class CaesarCipher {
      * @param key The number of positions to shift the characters.
      */
     public CaesarCipher(int key) {
-        this.key = key;
-        this.alphabet = DEFAULT_ALPHABET;
+        this(key, DEFAULT_ALPHABET);
+    }
+
+    /**
+     * Gets a shared cipher for the given key and alphabet from a process-wide CipherCache,
+     * building it only if it isn't already cached.
+     *
+     * @param key The number of positions to shift the characters.
+     * @param alphabet The alphabet to use for the cipher. Defaults to "ABCDEFGHIJKLMNOPQRSTUVWXYZ" if null.
+     * @return a cipher equivalent to new CaesarCipher(key, alphabet).
+     */
+    public static CaesarCipher of(int key, String alphabet) {
+        return SHARED_CACHE.get(key, alphabet);
+    }
+
+    /**
+     * Gets a shared cipher for the given key and the default alphabet.
+     *
+     * @param key The number of positions to shift the characters.
+     * @return a cipher equivalent to new CaesarCipher(key).
+     */
+    public static CaesarCipher of(int key) {
+        return SHARED_CACHE.get(key, DEFAULT_ALPHABET);
     }
 
     /**
@@ -48,29 +249,9 @@ public class CaesarCipher {
      * @param cleartext The text to be encrypted.
      * @return The encrypted ciphertext.
      */
+    @Override
     public String encrypt(String cleartext) {
-        String alphabetLower = this.alphabet.toLowerCase(Locale.ENGLISH);
-        StringBuilder ciphertext = new StringBuilder();
-
-        // Just creating an upper case version of the text to make it
-        // easier to check to see if the chars in the text are in the
-        // alphabet
-        String cleartextUpper = cleartext.toUpperCase();
-
-        for (int i = 0; i < cleartext.length(); i++) {
-            int index = this.alphabet.indexOf(cleartextUpper.charAt(i));    // Use uppercase for index lookup
-            if (index != -1) {
-                int newIndex = (index + key) % this.alphabet.length();
-                if (Character.isUpperCase(cleartext.charAt(i))) {           // Use uppercase alphabet
-                    ciphertext.append(this.alphabet.charAt(newIndex));
-                } else {                                                    // Use lowercase alphabet
-                    ciphertext.append(alphabetLower.charAt(newIndex));
-                }
-            } else {
-                ciphertext.append(cleartext.charAt(i));
-            }
-        }
-        return ciphertext.toString();
+        return translate(cleartext, true);
     }
 
     /**
@@ -88,29 +269,280 @@ public class CaesarCipher {
      * @param ciphertext The text to be decrypted.
      * @return The decrypted cleartext.
      */
+    @Override
     public String decrypt(String ciphertext) {
-        StringBuilder cleartext = new StringBuilder();
-        String alphabetLower = this.alphabet.toLowerCase(Locale.ENGLISH);
-
-        // Just creating an upper case version of the text to make it
-        // easier to check to see if the chars in the text are in the
-        // alphabet
-        String ciphertextUpper = ciphertext.toUpperCase();
-
-        for (int i = 0; i < ciphertext.length(); i++) {
-            int index = this.alphabet.indexOf(ciphertextUpper.charAt(i));   // Use uppercase for index lookup
-            if (index != -1) {
-                int newIndex = (index - key + this.alphabet.length()) % this.alphabet.length();
-                if (Character.isUpperCase(ciphertext.charAt(i))) {
-                    cleartext.append(this.alphabet.charAt(newIndex));       // Use uppercase alphabet
-                } else {
-                    cleartext.append(alphabetLower.charAt(newIndex));       // Use lowercase alphabet
+        return translate(ciphertext, false);
+    }
+
+    /**
+     * Encrypts large texts using all available cores. Each char is shifted
+     * independently of its neighbours, so the text is split into ranges that
+     * are encrypted in parallel on the common ForkJoinPool. Texts shorter than
+     * DEFAULT_PARALLEL_THRESHOLD are encrypted on the calling thread, and so
+     * are all texts if the alphabet mixes BMP and supplementary characters
+     * (the ciphertext can then be longer than the cleartext). The result is
+     * the same as encrypt(String).
+     *
+     * @param cleartext The text to be encrypted.
+     * @return The encrypted ciphertext.
+     */
+    public String encryptParallel(String cleartext) {
+        return encryptParallel(cleartext, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Same as encryptParallel(String), but with the given threshold: ranges
+     * of fewer than threshold chars are not split any further.
+     *
+     * @param cleartext The text to be encrypted.
+     * @param threshold smallest range worth splitting, in chars.
+     * @return The encrypted ciphertext.
+     * @throws IllegalArgumentException if threshold is not positive.
+     */
+    public String encryptParallel(String cleartext, int threshold) {
+        return translateParallel(cleartext, true, threshold);
+    }
+
+    /**
+     * Decrypts large texts using all available cores. Counterpart of
+     * encryptParallel(String); the result is the same as decrypt(String).
+     *
+     * @param ciphertext The text to be decrypted.
+     * @return The decrypted cleartext.
+     */
+    public String decryptParallel(String ciphertext) {
+        return decryptParallel(ciphertext, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Same as decryptParallel(String), but with the given threshold: ranges
+     * of fewer than threshold chars are not split any further.
+     *
+     * @param ciphertext The text to be decrypted.
+     * @param threshold smallest range worth splitting, in chars.
+     * @return The decrypted cleartext.
+     * @throws IllegalArgumentException if threshold is not positive.
+     */
+    public String decryptParallel(String ciphertext, int threshold) {
+        return translateParallel(ciphertext, false, threshold);
+    }
+
+    /**
+     * Streaming version of encrypt(String). Reads cleartext from in, a chunk
+     * at a time, and writes the ciphertext to out, so memory use does not
+     * depend on how much text there is. Neither stream is closed.
+     *
+     * @param in where to read the cleartext from.
+     * @param out where to write the ciphertext to.
+     * @throws IOException if reading from in or writing to out fails.
+     */
+    public void encrypt(Reader in, Writer out) throws IOException {
+        translate(in, out, true);
+    }
+
+    /**
+     * Streaming version of decrypt(String). Reads ciphertext from in, a chunk
+     * at a time, and writes the cleartext to out, so memory use does not
+     * depend on how much text there is. Neither stream is closed.
+     *
+     * @param in where to read the ciphertext from.
+     * @param out where to write the cleartext to.
+     * @throws IOException if reading from in or writing to out fails.
+     */
+    public void decrypt(Reader in, Writer out) throws IOException {
+        translate(in, out, false);
+    }
+
+    /**
+     * Encrypts as many chars from src as will fit in dst. Works like
+     * CharsetEncoder.encode(): the positions of both buffers are advanced
+     * past the chars consumed and produced, and anything left in src
+     * can be handled by a later call once dst has been drained. A high
+     * surrogate at the very end of src is left there, since the rest of
+     * its code point may only arrive with the next buffer.
+     *
+     * @param src the cleartext to encrypt.
+     * @param dst where to put the ciphertext.
+     */
+    public void encrypt(CharBuffer src, CharBuffer dst) {
+        translate(src, dst, true);
+    }
+
+    /**
+     * Decrypts as many chars from src as will fit in dst. Works like
+     * CharsetDecoder.decode(): the positions of both buffers are advanced
+     * past the chars consumed and produced, and anything left in src
+     * can be handled by a later call once dst has been drained. A high
+     * surrogate at the very end of src is left there, since the rest of
+     * its code point may only arrive with the next buffer.
+     *
+     * @param src the ciphertext to decrypt.
+     * @param dst where to put the cleartext.
+     */
+    public void decrypt(CharBuffer src, CharBuffer dst) {
+        translate(src, dst, false);
+    }
+
+    private String translateParallel(String text, boolean encrypting, int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold must be positive");
+        }
+        if (text.length() < threshold || !this.lengthPreserving) {
+            return translate(text, encrypting);
+        }
+        char[] buf = new char[text.length()];
+        text.getChars(0, buf.length, buf, 0);
+        ForkJoinPool.commonPool().invoke(new TranslateTask(buf, 0, buf.length, encrypting, threshold));
+        return new String(buf);
+    }
+
+    private void translate(Reader in, Writer out, boolean encrypting) throws IOException {
+        char[] buf = new char[STREAM_CHUNK_SIZE];
+        char[] result = this.lengthPreserving ? buf : new char[2 * STREAM_CHUNK_SIZE];
+        int held = 0;                   // high surrogate kept back from the last chunk
+        int count;
+        while ((count = in.read(buf, held, buf.length - held)) != -1) {
+            int end = held + count;
+            // Don't split a surrogate pair between two chunks.
+            int stop = (end > 0 && Character.isHighSurrogate(buf[end - 1])) ? end - 1 : end;
+            out.write(result, 0, translate(buf, 0, stop, result, 0, encrypting));
+            held = end - stop;
+            if (held > 0) {
+                buf[0] = buf[end - 1];
+            }
+        }
+        if (held > 0) {
+            out.write(result, 0, translate(buf, 0, held, result, 0, encrypting));
+        }
+    }
+
+    private void translate(CharBuffer src, CharBuffer dst, boolean encrypting) {
+        if (this.slots == null) {
+            char[] table = encrypting ? this.encryptTable : this.decryptTable;
+            int count = Math.min(src.remaining(), dst.remaining());
+            if (dst.hasArray() && !dst.isReadOnly()) {
+                // Bulk copy straight into dst's backing array, then translate it there.
+                int start = dst.arrayOffset() + dst.position();
+                src.get(dst.array(), start, count);
+                translate(dst.array(), start, start + count, dst.array(), start, encrypting);
+                dst.position(dst.position() + count);
+            } else {
+                int base = this.tableBase;
+                for (int i = 0; i < count; i++) {
+                    char ch = src.get();
+                    int slot = ch - base;
+                    dst.put((slot >= 0 && slot < table.length) ? table[slot] : ch);
+                }
+            }
+            return;
+        }
+
+        while (src.hasRemaining()) {
+            int pos = src.position();
+            char ch = src.get(pos);
+            int cp = ch;
+            if (Character.isHighSurrogate(ch)) {
+                if (pos + 1 == src.limit()) {
+                    break;                                  // the low surrogate isn't here yet
                 }
+                if (Character.isLowSurrogate(src.get(pos + 1))) {
+                    cp = Character.toCodePoint(ch, src.get(pos + 1));
+                }
+            }
+            int result = substitute(cp, encrypting);
+            if (dst.remaining() < Character.charCount(result)) {
+                break;
+            }
+            if (Character.isBmpCodePoint(result)) {
+                dst.put((char) result);
             } else {
-                cleartext.append(ciphertext.charAt(i));                     // Append non-alphabet characters as is
+                dst.put(Character.highSurrogate(result)).put(Character.lowSurrogate(result));
             }
+            src.position(pos + Character.charCount(cp));
         }
-        return cleartext.toString();
+    }
+
+    /**
+     * Substitutes text into a working array and makes the result String from
+     * it, which copies the array once more. Latin-1 text, the usual case, is
+     * substituted straight into a byte[], which is half the size of a char[]
+     * and is copied into the String as is. Otherwise text is copied into a
+     * char[]; if the result can't be longer than the text, it is substituted
+     * in place there, else into a second array with room for every char to
+     * become a surrogate pair.
+     */
+    private String translate(String text, boolean encrypting) {
+        if (this.latin1EncryptTable != null) {
+            byte[] table = encrypting ? this.latin1EncryptTable : this.latin1DecryptTable;
+            int length = text.length();
+            byte[] bytes = new byte[length];
+            int i = 0;
+            for (char ch; i < length && (ch = text.charAt(i)) < 256; i++) {
+                bytes[i] = table[ch];
+            }
+            if (i == length) {
+                return new String(bytes, StandardCharsets.ISO_8859_1);
+            }
+        }
+        char[] buf = new char[text.length()];
+        text.getChars(0, buf.length, buf, 0);
+        if (this.lengthPreserving) {
+            translate(buf, 0, buf.length, buf, 0, encrypting);
+            return new String(buf);
+        }
+        char[] result = new char[2 * buf.length];
+        int count = translate(buf, 0, buf.length, result, 0, encrypting);
+        return new String(result, 0, count);
+    }
+
+    /**
+     * Substitutes src[from] up to (but not including) src[to], writing the
+     * result to dst starting at dstPos. src and dst may be the same array
+     * (with from == dstPos) if the cipher is length preserving. A surrogate
+     * pair split by from or to is treated as two unpaired surrogates.
+     *
+     * @return the number of chars written to dst.
+     */
+    private int translate(char[] src, int from, int to, char[] dst, int dstPos, boolean encrypting) {
+        if (this.slots == null) {
+            char[] table = encrypting ? this.encryptTable : this.decryptTable;
+            int base = this.tableBase;
+            int size = table.length;
+            for (int i = from; i < to; i++) {
+                char ch = src[i];
+                int slot = ch - base;
+                dst[dstPos + i - from] = (slot >= 0 && slot < size) ? table[slot] : ch;
+            }
+            return to - from;
+        }
+
+        int out = dstPos;
+        int i = from;
+        while (i < to) {
+            char ch = src[i++];
+            int cp = ch;
+            if (Character.isHighSurrogate(ch) && i < to && Character.isLowSurrogate(src[i])) {
+                cp = Character.toCodePoint(ch, src[i++]);
+            }
+            int result = substitute(cp, encrypting);
+            if (Character.isBmpCodePoint(result)) {
+                dst[out++] = (char) result;
+            } else {
+                out += Character.toChars(result, dst, out);
+            }
+        }
+        return out - dstPos;
+    }
+
+    /**
+     * Looks a code point up in the sparse tables.
+     */
+    private int substitute(int cp, boolean encrypting) {
+        int slot = this.slots.get(cp);
+        if (slot == -1) {
+            return cp;
+        }
+        return encrypting ? this.encryptSlots[slot] : this.decryptSlots[slot];
     }
 
 
@@ -119,7 +551,169 @@ public class CaesarCipher {
      *
      * @return The alphabet that is being used
      */
+    @Override
     public String getAlphabet() {return this.alphabet;}
-}
 
+    /**
+     * getter for the objects key
+     *
+     * @return The key that is being used
+     */
+    public int getKey() {return this.key;}
+
+    /**
+     * Number of code points in the alphabet.
+     */
+    int alphabetSize() {
+        return this.alphabetCodePoints.length;
+    }
 
+    /**
+     * The code point at the given position in the alphabet.
+     */
+    int alphabetCodePoint(int index) {
+        return this.alphabetCodePoints[index];
+    }
+
+    /**
+     * Whether encrypting and decrypting always keep the number of chars the same.
+     */
+    boolean isLengthPreserving() {
+        return this.lengthPreserving;
+    }
+
+    /**
+     * Position in the alphabet of cp's uppercase form.
+     *
+     * @return the alphabet index, or -1 if cp is not encrypted by this cipher.
+     */
+    int alphabetIndex(int cp) {
+        if (this.slots != null) {
+            int slot = this.slots.get(cp);
+            return (slot == -1) ? -1 : this.indexSlots[slot];
+        }
+        int slot = cp - this.tableBase;
+        return (slot >= 0 && slot < this.indexTable.length) ? this.indexTable[slot] : -1;
+    }
+
+    /**
+     * Encrypts a single code point.
+     */
+    int encryptCodePoint(int cp) {
+        return substituteCodePoint(cp, true);
+    }
+
+    /**
+     * Decrypts a single code point.
+     */
+    int decryptCodePoint(int cp) {
+        return substituteCodePoint(cp, false);
+    }
+
+    private int substituteCodePoint(int cp, boolean encrypting) {
+        if (this.slots != null) {
+            return substitute(cp, encrypting);
+        }
+        char[] table = encrypting ? this.encryptTable : this.decryptTable;
+        int slot = cp - this.tableBase;
+        return (slot >= 0 && slot < table.length) ? table[slot] : cp;
+    }
+
+    /**
+     * Every code point that Character.toUpperCase() changes, grouped by its
+     * uppercase form: the reverse of toUpperCase(), so the constructor can
+     * find an alphabet's case variants without searching for them. Worked
+     * out once, the first time a CaesarCipher is built.
+     */
+    private static final class CaseVariants {
+        // UPPERS[i] is the uppercase form of VARIANTS[i]; sorted by UPPERS.
+        static final int[] UPPERS;
+        static final int[] VARIANTS;
+
+        static {
+            long[] pairs = new long[2048];
+            int count = 0;
+            for (int cp = 0; cp <= Character.MAX_CODE_POINT; cp++) {
+                int upper = Character.toUpperCase(cp);
+                if (upper != cp) {
+                    if (count == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, 2 * count);
+                    }
+                    pairs[count++] = ((long) upper << 32) | cp;
+                }
+            }
+            Arrays.sort(pairs, 0, count);
+            UPPERS = new int[count];
+            VARIANTS = new int[count];
+            for (int i = 0; i < count; i++) {
+                UPPERS[i] = (int) (pairs[i] >>> 32);
+                VARIANTS[i] = (int) pairs[i];
+            }
+        }
+
+        /**
+         * Index of the first variant of upper, or of where it would be.
+         */
+        static int first(int upper) {
+            int lo = 0;
+            int hi = UPPERS.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (UPPERS[mid] < upper) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Index just past the last variant of upper, starting from first(upper).
+         */
+        static int end(int first, int upper) {
+            int end = first;
+            while (end < UPPERS.length && UPPERS[end] == upper) {
+                end++;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Translates buf[from..to) in place, splitting the range in half
+     * until the pieces are smaller than the threshold. Only used for
+     * length preserving ciphers.
+     */
+    @SuppressWarnings("serial") // never serialized
+    private class TranslateTask extends RecursiveAction {
+        private final char[] buf;
+        private final int from;
+        private final int to;
+        private final boolean encrypting;
+        private final int threshold;
+
+        TranslateTask(char[] buf, int from, int to, boolean encrypting, int threshold) {
+            this.buf = buf;
+            this.from = from;
+            this.to = to;
+            this.encrypting = encrypting;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            // Ranges of under four chars can't always be split in two non-empty halves.
+            if (to - from < Math.max(threshold, 4)) {
+                translate(buf, from, to, buf, from, encrypting);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            if (Character.isHighSurrogate(buf[mid - 1])) {
+                mid++;                                      // keep surrogate pairs together
+            }
+            invokeAll(new TranslateTask(buf, from, mid, encrypting, threshold),
+                      new TranslateTask(buf, mid, to, encrypting, threshold));
+        }
+    }
+}
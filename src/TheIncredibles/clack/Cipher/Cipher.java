@@ -0,0 +1,36 @@
+package TheIncredibles.clack.Cipher;
+
+/**
+ * Cipher interface implemented by all of Clack's ciphers. A cipher is built
+ * with its key and alphabet, and can then encrypt and decrypt any number of
+ * messages. Characters that are not in the cipher's alphabet (spaces,
+ * punctuation, etc.) are passed through as is.
+ *
+ * Implementations are immutable, so a single instance can be shared between
+ * threads.
+ */
+public interface Cipher {
+
+    /**
+     * Encrypts the given cleartext.
+     *
+     * @param cleartext The text to be encrypted.
+     * @return The encrypted ciphertext.
+     */
+    String encrypt(String cleartext);
+
+    /**
+     * Decrypts the given ciphertext.
+     *
+     * @param ciphertext The text to be decrypted.
+     * @return The decrypted cleartext.
+     */
+    String decrypt(String ciphertext);
+
+    /**
+     * getter for the cipher's alphabet
+     *
+     * @return The alphabet that is being used
+     */
+    String getAlphabet();
+}
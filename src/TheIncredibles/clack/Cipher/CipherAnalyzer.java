@@ -0,0 +1,321 @@
+package TheIncredibles.clack.Cipher;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * CipherAnalyzer recovers the keys of Caesar and Vigenère ciphertexts by frequency analysis.
+ *
+ * Each candidate key is scored with the chi-squared statistic, comparing the letter counts the
+ * key would give against the letter frequencies expected in cleartext (English by default). The
+ * ciphertext is only read once, to count how often each alphabet letter occurs; every shift is
+ * then scored from those counts alone, so trying all of them costs the same whatever the length
+ * of the message.
+ *
+ * Alphabet lookups go through a CaesarCipher built on the same alphabet, so letters are matched
+ * exactly the way CaesarCipher and VigenereCipher match them (uppercase, first occurrence), and
+ * custom alphabets work too. The bulk methods spread their messages over all available cores.
+ *
+ * CipherAnalyzer objects are immutable and can be shared between threads.
+ */
+public class CipherAnalyzer {
+    // Relative frequencies of the letters 'A' to 'Z' in English text.
+    private static final double[] ENGLISH_FREQUENCIES = {
+            0.08167, 0.01492, 0.02782, 0.04253, 0.12702, 0.02228, 0.02015,    // A-G
+            0.06094, 0.06966, 0.00153, 0.00772, 0.04025, 0.02406, 0.06749,    // H-N
+            0.07507, 0.01929, 0.00095, 0.05987, 0.06327, 0.09056, 0.02758,    // O-U
+            0.00978, 0.02360, 0.00150, 0.01974, 0.00074                       // V-Z
+    };
+
+    /**
+     * Longest Vigenère keyword tried by recoverVigenereKeyword(String).
+     */
+    public static final int DEFAULT_MAX_KEYWORD_LENGTH = 16;
+
+    // Expected frequency given to alphabet chars we know nothing about (digits,
+    // punctuation...), so that chi-squared never divides by zero.
+    private static final double MIN_FREQUENCY = 0.0001;
+
+    // Columns with fewer letters than this don't say anything useful about a keyword length.
+    private static final int MIN_COLUMN_LETTERS = 2;
+
+    private final String alphabet;
+    private final CaesarCipher lookup;
+    private final double[] expected;
+    private final double plainCoincidence;
+
+    /**
+     * Gets the relative frequencies of the letters 'A' to 'Z' in English text, as used
+     * by the analyzer when no others are given.
+     *
+     * @return A new array of 26 frequencies, 'A' first.
+     */
+    public static double[] englishFrequencies() {
+        return ENGLISH_FREQUENCIES.clone();
+    }
+
+    /**
+     * Constructor for an analyzer of ciphertexts that use the default alphabet,
+     * with English letter frequencies.
+     */
+    public CipherAnalyzer() {
+        this(CaesarCipher.DEFAULT_ALPHABET);
+    }
+
+    /**
+     * Constructor for an analyzer of ciphertexts that use the given alphabet. Its letters
+     * 'A' to 'Z' are given English letter frequencies; any other chars are treated as rare.
+     *
+     * @param alphabet The alphabet the ciphertexts were encrypted with. Defaults to
+     *                 CaesarCipher.DEFAULT_ALPHABET if null.
+     */
+    public CipherAnalyzer(String alphabet) {
+        this(alphabet, englishFrequencies(alphabet != null ? alphabet : CaesarCipher.DEFAULT_ALPHABET));
+    }
+
+    /**
+     * Constructor for an analyzer of ciphertexts that use the given alphabet, with the
+     * given cleartext frequency for each of its chars.
+     *
+     * @param alphabet The alphabet the ciphertexts were encrypted with. Defaults to
+     *                 CaesarCipher.DEFAULT_ALPHABET if null.
+     * @param frequencies Expected relative frequency of each alphabet char, in alphabet order.
+     * @throws IllegalArgumentException if the alphabet is empty, or there isn't one
+     *                                  frequency per alphabet char.
+     */
+    public CipherAnalyzer(String alphabet, double[] frequencies) {
+        this.alphabet = (alphabet != null) ? alphabet : CaesarCipher.DEFAULT_ALPHABET;
+        if (this.alphabet.isEmpty()) {
+            throw new IllegalArgumentException("empty alphabet not allowed");
+        }
+        this.lookup = CaesarCipher.of(0, this.alphabet);
+        if (frequencies.length != this.lookup.alphabetSize()) {
+            throw new IllegalArgumentException("need one frequency per alphabet char");
+        }
+
+        double sum = 0;
+        for (double f : frequencies) {
+            sum += Math.max(f, MIN_FREQUENCY);
+        }
+        this.expected = new double[frequencies.length];
+        for (int i = 0; i < frequencies.length; i++) {
+            this.expected[i] = Math.max(frequencies[i], MIN_FREQUENCY) / sum;
+        }
+        double coincidence = 0;
+        for (double e : this.expected) {
+            coincidence += e * e;
+        }
+        this.plainCoincidence = coincidence;
+    }
+
+    /**
+     * Finds the most likely key of a Caesar ciphertext.
+     *
+     * @param ciphertext Text encrypted with a CaesarCipher on this analyzer's alphabet.
+     * @return The key, between 0 and the alphabet length - 1. new CaesarCipher(key, alphabet)
+     *         decrypts the ciphertext. 0 if the ciphertext has no alphabet letters.
+     */
+    public int recoverCaesarKey(String ciphertext) {
+        int[] counts = new int[this.lookup.alphabetSize()];
+        int total = 0;
+        for (int i = 0; i < ciphertext.length(); ) {
+            int cp = ciphertext.codePointAt(i);
+            i += Character.charCount(cp);
+            int index = this.lookup.alphabetIndex(cp);
+            if (index != -1) {
+                counts[index]++;
+                total++;
+            }
+        }
+        return bestShift(counts, total);
+    }
+
+    /**
+     * Finds the most likely key of each of the given Caesar ciphertexts, in parallel.
+     *
+     * @param ciphertexts Texts encrypted with CaesarCiphers on this analyzer's alphabet.
+     * @return The key of each ciphertext, in the same order.
+     */
+    public int[] recoverCaesarKeys(List<String> ciphertexts) {
+        return IntStream.range(0, ciphertexts.size())
+                .parallel()
+                .map(i -> recoverCaesarKey(ciphertexts.get(i)))
+                .toArray();
+    }
+
+    /**
+     * Finds the most likely keyword of a Vigenère ciphertext, trying keywords of up to
+     * DEFAULT_MAX_KEYWORD_LENGTH letters.
+     *
+     * @param ciphertext Text encrypted with a VigenereCipher on this analyzer's alphabet.
+     * @return The keyword, made of alphabet chars. Empty if the ciphertext has no alphabet letters.
+     */
+    public String recoverVigenereKeyword(String ciphertext) {
+        return recoverVigenereKeyword(ciphertext, DEFAULT_MAX_KEYWORD_LENGTH);
+    }
+
+    /**
+     * Finds the most likely keyword of a Vigenère ciphertext.
+     *
+     * The keyword length is picked first, using the index of coincidence: split
+     * the letters into one column per keyword position, and the right length is
+     * the one whose columns look most like Caesar-encrypted cleartext. Multiples
+     * of the right length score just as well, so the shortest length scoring
+     * clearly closer to cleartext than to random letters is used. Each column is then solved as a Caesar cipher.
+     *
+     * @param ciphertext Text encrypted with a VigenereCipher on this analyzer's alphabet.
+     * @param maxKeywordLength Longest keyword to try.
+     * @return The keyword, made of alphabet chars. Empty if the ciphertext has no alphabet letters.
+     * @throws IllegalArgumentException if maxKeywordLength is not positive.
+     */
+    public String recoverVigenereKeyword(String ciphertext, int maxKeywordLength) {
+        if (maxKeywordLength <= 0) {
+            throw new IllegalArgumentException("maxKeywordLength must be positive");
+        }
+        int[] letters = new int[ciphertext.length()];
+        int count = 0;
+        for (int i = 0; i < ciphertext.length(); ) {
+            int cp = ciphertext.codePointAt(i);
+            i += Character.charCount(cp);
+            int index = this.lookup.alphabetIndex(cp);
+            if (index != -1) {
+                letters[count++] = index;
+            }
+        }
+        if (count == 0) {
+            return "";
+        }
+
+        int maxLength = Math.max(1, Math.min(maxKeywordLength, count / MIN_COLUMN_LETTERS));
+        double[] coincidence = new double[maxLength + 1];
+        double best = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            coincidence[length] = averageCoincidence(letters, count, length);
+            best = Math.max(best, coincidence[length]);
+        }
+        // Halfway between the index of coincidence of cleartext and of random letters.
+        double threshold = Math.min(0.9 * best, (this.plainCoincidence + 1.0 / this.lookup.alphabetSize()) / 2);
+        int keywordLength = 1;
+        while (coincidence[keywordLength] < threshold) {
+            keywordLength++;
+        }
+        // A keyword with a repeated pattern (the same letter every third place, say) can
+        // make a divisor of its length pass too, though it stays well short of what
+        // cleartext scores. The real length then scores clearly higher.
+        double margin = (this.plainCoincidence - 1.0 / this.lookup.alphabetSize()) / 4;
+        int candidate = keywordLength;
+        for (int multiple = 2 * candidate; multiple <= maxLength; multiple += candidate) {
+            if (coincidence[keywordLength] < this.plainCoincidence - margin
+                    && coincidence[multiple] >= coincidence[keywordLength] + margin) {
+                keywordLength = multiple;
+            }
+        }
+
+        int[][] counts = columnCounts(letters, count, keywordLength);
+        StringBuilder keyword = new StringBuilder(keywordLength);
+        for (int column = 0; column < keywordLength; column++) {
+            int total = (count - column + keywordLength - 1) / keywordLength;
+            keyword.appendCodePoint(this.lookup.alphabetCodePoint(bestShift(counts[column], total)));
+        }
+        return keyword.toString();
+    }
+
+    /**
+     * Finds the most likely keyword of each of the given Vigenère ciphertexts, in parallel.
+     *
+     * @param ciphertexts Texts encrypted with VigenereCiphers on this analyzer's alphabet.
+     * @param maxKeywordLength Longest keyword to try.
+     * @return The keyword of each ciphertext, in the same order.
+     */
+    public String[] recoverVigenereKeywords(List<String> ciphertexts, int maxKeywordLength) {
+        return IntStream.range(0, ciphertexts.size())
+                .parallel()
+                .mapToObj(i -> recoverVigenereKeyword(ciphertexts.get(i), maxKeywordLength))
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Chi-squared statistic for decrypting text with the given letter counts using the
+     * given shift. The lower the value, the more the result looks like cleartext.
+     *
+     * @param counts Number of times each alphabet letter occurs in the ciphertext.
+     * @param total Sum of counts.
+     * @param shift Key to score.
+     * @return the chi-squared statistic.
+     */
+    public double chiSquared(int[] counts, int total, int shift) {
+        int n = this.expected.length;
+        double chi = 0;
+        for (int plain = 0; plain < n; plain++) {
+            double expectedCount = total * this.expected[plain];
+            double diff = counts[(plain + shift) % n] - expectedCount;
+            chi += diff * diff / expectedCount;
+        }
+        return chi;
+    }
+
+    /**
+     * getter for the objects alphabet
+     *
+     * @return The alphabet that is being used
+     */
+    public String getAlphabet() {return this.alphabet;}
+
+    private int bestShift(int[] counts, int total) {
+        if (total == 0) {
+            return 0;
+        }
+        int best = 0;
+        double bestChi = Double.MAX_VALUE;
+        for (int shift = 0; shift < this.expected.length; shift++) {
+            double chi = chiSquared(counts, total, shift);
+            if (chi < bestChi) {
+                bestChi = chi;
+                best = shift;
+            }
+        }
+        return best;
+    }
+
+    private double averageCoincidence(int[] letters, int count, int length) {
+        int[][] counts = columnCounts(letters, count, length);
+        double sum = 0;
+        for (int column = 0; column < length; column++) {
+            long total = 0;
+            long pairs = 0;
+            for (int c : counts[column]) {
+                total += c;
+                pairs += (long) c * (c - 1);
+            }
+            if (total > 1) {
+                sum += (double) pairs / (total * (total - 1));
+            }
+        }
+        return sum / length;
+    }
+
+    private int[][] columnCounts(int[] letters, int count, int length) {
+        int[][] counts = new int[length][this.lookup.alphabetSize()];
+        int column = 0;
+        for (int i = 0; i < count; i++) {
+            counts[column][letters[i]]++;
+            if (++column == length) {
+                column = 0;
+            }
+        }
+        return counts;
+    }
+
+    private static double[] englishFrequencies(String alphabet) {
+        int[] codePoints = alphabet.codePoints().toArray();
+        double[] frequencies = new double[codePoints.length];
+        Arrays.fill(frequencies, MIN_FREQUENCY);
+        for (int i = 0; i < codePoints.length; i++) {
+            if (codePoints[i] >= 'A' && codePoints[i] <= 'Z') {
+                frequencies[i] = ENGLISH_FREQUENCIES[codePoints[i] - 'A'];
+            }
+        }
+        return frequencies;
+    }
+}
@@ -0,0 +1,121 @@
+package TheIncredibles.clack.Cipher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * CipherCache keeps CaesarCipher objects so that everyone asking for the same key and
+ * alphabet shares one cipher, instead of each building its own lookup tables. CaesarCipher
+ * objects are immutable, so sharing them between threads is safe.
+ *
+ * The cache holds at most a fixed number of ciphers; when it is full, the one that was
+ * asked for least recently is dropped. All methods are thread-safe. Ciphers are built
+ * outside the cache's lock, so a slow build never holds up lookups of other ciphers.
+ */
+public class CipherCache {
+    /**
+     * Number of ciphers a cache holds if no capacity is given.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, CaesarCipher> ciphers;
+
+    /**
+     * Constructor for a cache holding up to capacity ciphers.
+     *
+     * @param capacity The most ciphers to keep.
+     * @throws IllegalArgumentException if capacity is not positive.
+     */
+    public CipherCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        // Access order, so iteration starts with the least recently used entry.
+        this.ciphers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CaesarCipher> eldest) {
+                return size() > CipherCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Constructor for a cache holding up to DEFAULT_CAPACITY ciphers.
+     */
+    public CipherCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Gets the cipher for the given key and alphabet, building it if it
+     * isn't in the cache yet.
+     *
+     * @param key The number of positions to shift the characters.
+     * @param alphabet The alphabet to use for the cipher. Defaults to CaesarCipher.DEFAULT_ALPHABET if null.
+     * @return a cipher equivalent to new CaesarCipher(key, alphabet).
+     */
+    public CaesarCipher get(int key, String alphabet) {
+        Key cacheKey = new Key(key, (alphabet != null) ? alphabet : CaesarCipher.DEFAULT_ALPHABET);
+        synchronized (this) {
+            CaesarCipher cipher = this.ciphers.get(cacheKey);
+            if (cipher != null) {
+                return cipher;
+            }
+        }
+        CaesarCipher built = new CaesarCipher(cacheKey.key, cacheKey.alphabet);
+        synchronized (this) {
+            // Another thread may have built the same cipher meanwhile; keep the first one.
+            CaesarCipher cipher = this.ciphers.putIfAbsent(cacheKey, built);
+            return (cipher != null) ? cipher : built;
+        }
+    }
+
+    /**
+     * Number of ciphers in the cache.
+     *
+     * @return how many ciphers the cache holds right now.
+     */
+    public synchronized int size() {
+        return this.ciphers.size();
+    }
+
+    /**
+     * getter for the cache's capacity
+     *
+     * @return The most ciphers the cache will keep
+     */
+    public int getCapacity() {return this.capacity;}
+
+    /**
+     * Drops every cipher from the cache.
+     */
+    public synchronized void clear() {
+        this.ciphers.clear();
+    }
+
+    private static final class Key {
+        private final int key;
+        private final String alphabet;
+
+        Key(int key, String alphabet) {
+            this.key = key;
+            this.alphabet = alphabet;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return this.key == that.key && this.alphabet.equals(that.alphabet);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, alphabet);
+        }
+    }
+}
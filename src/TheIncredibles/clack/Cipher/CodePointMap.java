@@ -0,0 +1,103 @@
+package TheIncredibles.clack.Cipher;
+
+import java.util.Arrays;
+
+/**
+ * Map from code points to non-negative ints, used for the lookup tables of ciphers
+ * whose alphabets are too spread out for a plain array.
+ *
+ * Keys and values are kept in two flat int arrays using open addressing with linear
+ * probing, so a lookup is a multiply, a shift and (nearly always) one or two array
+ * reads, with no boxing. The table is at most half full.
+ */
+final class CodePointMap {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * Creates a map with room for expectedSize entries before it has to grow.
+     */
+    CodePointMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Looks up a code point.
+     *
+     * @return the value for key, or -1 if it isn't in the map.
+     */
+    int get(int key) {
+        int slot = hash(key) & this.mask;
+        while (true) {
+            int k = this.keys[slot];
+            if (k == key) {
+                return this.values[slot];
+            }
+            if (k == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * Adds key with the given value, unless key is already in the map.
+     *
+     * @param key a code point (not negative).
+     * @param value the value for key (not negative).
+     * @return true if key was added, false if it was already there.
+     */
+    boolean putIfAbsent(int key, int value) {
+        if (2 * (this.size + 1) > this.keys.length) {
+            int[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        return insert(key, value);
+    }
+
+    /**
+     * Number of entries in the map.
+     */
+    int size() {
+        return this.size;
+    }
+
+    private boolean insert(int key, int value) {
+        int slot = hash(key) & this.mask;
+        while (this.keys[slot] != EMPTY) {
+            if (this.keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        this.size++;
+        return true;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    private static int hash(int key) {
+        // Fibonacci hashing, so runs of consecutive code points spread out.
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
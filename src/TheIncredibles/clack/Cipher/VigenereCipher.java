@@ -0,0 +1,113 @@
+package TheIncredibles.clack.Cipher;
+
+/**
+ * VigenereCipher class provides methods to encrypt and decrypt messages using the Vigenère
+ * cipher technique: a Caesar cipher whose key changes from letter to letter, following
+ * the letters of a keyword.
+ *
+ * Case and the handling of characters outside the alphabet are the same as for
+ * CaesarCipher. Only characters that are in the alphabet use up a keyword letter, so
+ * 'Attack at dawn' with the keyword 'LEMON' encrypts to 'Lxfopv ef rnhr'.
+ */
+public class VigenereCipher implements Cipher {
+    private final String alphabet;
+    private final String keyword;
+
+    // One Caesar cipher per keyword letter, each shifting by that letter's position.
+    private final CaesarCipher[] shifts;
+
+    /**
+     * Constructor to initialize the VigenereCipher with a keyword and an optional alphabet.
+     *
+     * @param keyword The keyword. Each of its chars (in uppercase) must be in the alphabet.
+     * @param alphabet The alphabet to use for the cipher. Defaults to CaesarCipher.DEFAULT_ALPHABET if null.
+     * @throws IllegalArgumentException if the keyword is empty or has chars that are not in the alphabet.
+     */
+    public VigenereCipher(String keyword, String alphabet) {
+        if (keyword == null || keyword.isEmpty()) {
+            throw new IllegalArgumentException("empty keyword not allowed");
+        }
+        this.alphabet = (alphabet != null) ? alphabet : CaesarCipher.DEFAULT_ALPHABET;
+        this.keyword = keyword;
+
+        CaesarCipher lookup = CaesarCipher.of(0, this.alphabet);
+        int[] keywordCodePoints = keyword.codePoints().toArray();
+        this.shifts = new CaesarCipher[keywordCodePoints.length];
+        for (int i = 0; i < keywordCodePoints.length; i++) {
+            int shift = lookup.alphabetIndex(keywordCodePoints[i]);
+            if (shift == -1) {
+                throw new IllegalArgumentException("keyword char not in alphabet: "
+                        + Character.toString(keywordCodePoints[i]));
+            }
+            this.shifts[i] = CaesarCipher.of(shift, this.alphabet);
+        }
+    }
+
+    /**
+     * Constructor to initialize the VigenereCipher with a keyword and the default alphabet.
+     *
+     * @param keyword The keyword. Each of its chars (in uppercase) must be in the alphabet.
+     */
+    public VigenereCipher(String keyword) {
+        this(keyword, CaesarCipher.DEFAULT_ALPHABET);
+    }
+
+    /**
+     * Encrypts the given cleartext, preserving case and passing characters that
+     * are not in the alphabet through as is.
+     *
+     * @param cleartext The text to be encrypted.
+     * @return The encrypted ciphertext.
+     */
+    @Override
+    public String encrypt(String cleartext) {
+        return translate(cleartext, true);
+    }
+
+    /**
+     * Decrypts the given ciphertext, preserving case and passing characters that
+     * are not in the alphabet through as is.
+     *
+     * @param ciphertext The text to be decrypted.
+     * @return The decrypted cleartext.
+     */
+    @Override
+    public String decrypt(String ciphertext) {
+        return translate(ciphertext, false);
+    }
+
+    private String translate(String text, boolean encrypting) {
+        CaesarCipher first = this.shifts[0];
+        char[] buf = new char[first.isLengthPreserving() ? text.length() : 2 * text.length()];
+        int out = 0;
+        int k = 0;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (first.alphabetIndex(cp) != -1) {
+                CaesarCipher shift = this.shifts[k];
+                cp = encrypting ? shift.encryptCodePoint(cp) : shift.decryptCodePoint(cp);
+                if (++k == this.shifts.length) {
+                    k = 0;
+                }
+            }                                               // else not in alphabet, keyword doesn't advance
+            out += Character.toChars(cp, buf, out);
+        }
+        return new String(buf, 0, out);
+    }
+
+    /**
+     * getter for the objects alphabet
+     *
+     * @return The alphabet that is being used
+     */
+    @Override
+    public String getAlphabet() {return this.alphabet;}
+
+    /**
+     * getter for the objects keyword
+     *
+     * @return The keyword that is being used
+     */
+    public String getKeyword() {return this.keyword;}
+}
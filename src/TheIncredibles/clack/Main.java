@@ -3,10 +3,10 @@ package TheIncredibles.clack;
 import TheIncredibles.clack.*;
 import TheIncredibles.clack.endpoint.Client;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 public class Main {
-    public static void main(String[] args) throws FileNotFoundException
+    public static void main(String[] args) throws IOException
     {
         Client myClient = new Client("olaolu");
         myClient.start();
@@ -0,0 +1,387 @@
+package TheIncredibles.clack.endpoint;
+
+import TheIncredibles.clack.message.FileChunkMessage;
+import TheIncredibles.clack.message.FileMessage;
+import TheIncredibles.clack.message.FileOfferMessage;
+import TheIncredibles.clack.message.FileOfferReplyMessage;
+import TheIncredibles.clack.message.ListUsersMessage;
+import TheIncredibles.clack.message.LogoutMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Clack server that gives every client a thread of its own, running
+ * plain blocking code: read a message, handle it, repeat. It does the same
+ * as Server, but without an event loop, so received() is free to block.
+ *
+ * Which threads run the sessions is up to the ExecutorService given. On
+ * Java 21 and later, withVirtualThreads() starts a virtual thread per
+ * client, which costs little more than the session's buffer, so tens of
+ * thousands of clients are no trouble. Earlier Javas have no virtual
+ * threads, and get a platform thread per client instead.
+ *
+ * Sends are written straight to the client's socket. A client that stops
+ * reading therefore blocks whoever is sending to it, until its connection
+ * is closed.
+ */
+public class BlockingServer implements Closeable
+{
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    // How long to stop accepting after accept() fails, e.g. when out of file descriptors.
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+    private final int port;
+    private final ExecutorService executor;
+    private final MessageCodec codec = new MessageCodec();
+    private final Set<BlockingSession> sessions = ConcurrentHashMap.newKeySet();
+    private final PresenceRegistry presence = new PresenceRegistry();
+    private final ByteBudget partialBytes = new ByteBudget(Server.MAX_PARTIAL_BYTES);
+    private ServerSocketChannel serverChannel;
+    private Thread acceptThread;
+    private volatile boolean closing;
+
+    /**
+     * Constructs a BlockingServer. It does not listen until start() is called.
+     *
+     * @param port the port to listen on, or 0 for any free port.
+     * @param executor runs each session until its client leaves. It must be
+     * able to run as many sessions at once as there are clients: a fixed
+     * pool of n threads serves only n clients, and the rest wait their turn.
+     * It is shut down by close().
+     */
+    public BlockingServer(int port, ExecutorService executor)
+    {
+        this.port = port;
+        this.executor = executor;
+    }
+
+    /**
+     * Constructs a BlockingServer that runs each session on a virtual
+     * thread or, before Java 21, on a new platform thread.
+     *
+     * @param port the port to listen on, or 0 for any free port.
+     * @return the server, not yet started.
+     */
+    public static BlockingServer withVirtualThreads(int port)
+    {
+        ExecutorService executor = newVirtualThreadExecutor();
+        return new BlockingServer(port, (executor != null) ? executor : newPlatformThreadExecutor());
+    }
+
+    /**
+     * Constructs a BlockingServer that runs each session on a new platform thread.
+     *
+     * @param port the port to listen on, or 0 for any free port.
+     * @return the server, not yet started.
+     */
+    public static BlockingServer withPlatformThreads(int port)
+    {
+        return new BlockingServer(port, newPlatformThreadExecutor());
+    }
+
+    /**
+     * Whether this Java has virtual threads, i.e. whether withVirtualThreads()
+     * really uses them.
+     *
+     * @return true on Java 21 and later.
+     */
+    public static boolean hasVirtualThreads()
+    {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+
+    /**
+     * Starts listening and serving clients. Returns as soon as the server
+     * is listening; connections are accepted on a thread of its own.
+     *
+     * @throws IOException if the port can't be bound.
+     * @throws IllegalStateException if the server has already been started.
+     */
+    public synchronized void start() throws IOException
+    {
+        if (serverChannel != null) {
+            throw new IllegalStateException("server already started");
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        acceptThread = new Thread(this::acceptLoop, "clack-blocking-server-accept");
+        acceptThread.start();
+    }
+
+    /**
+     * Get the port the server listens on.
+     *
+     * @return the bound port once started, otherwise the port given.
+     */
+    public int getPort()
+    {
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+            }
+        } catch (IOException e) {
+            // Fall through to the configured port.
+        }
+        return port;
+    }
+
+    /**
+     * Get the sessions of the clients now connected.
+     *
+     * @return a live, unmodifiable view of the sessions.
+     */
+    public Set<BlockingSession> getSessions()
+    {
+        return Collections.unmodifiableSet(sessions);
+    }
+
+    /**
+     * Get the registry of users online, which answers LIST USERS.
+     *
+     * @return the server's presence registry.
+     */
+    public PresenceRegistry getPresence()
+    {
+        return presence;
+    }
+
+    /**
+     * Get the codec that encodes and decodes every client's frames.
+     *
+     * @return the server's codec.
+     */
+    public MessageCodec getCodec()
+    {
+        return codec;
+    }
+
+    ByteBudget partialBytes()
+    {
+        return partialBytes;
+    }
+
+    /**
+     * Stops the server: stops listening, closes every client's connection
+     * and waits for the sessions' threads to end.
+     */
+    @Override
+    public void close()
+    {
+        Thread accepting;
+        closing = true;
+        synchronized (this) {
+            accepting = acceptThread;
+            if (serverChannel != null) {
+                try {
+                    serverChannel.close();
+                } catch (IOException e) {
+                    // Shutting down anyway.
+                }
+            }
+        }
+        try {
+            if (accepting != null) {
+                accepting.join();
+            }
+            executor.shutdown();
+            for (BlockingSession session : sessions) {
+                session.close();
+            }
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends a message to every connected client but one. The message is
+     * encoded once and the same bytes written to each client in turn, so
+     * this returns only once every client has them. Only clients that take
+     * compressed frames get it encoded for them alone.
+     *
+     * @param message the message to send.
+     * @param except a session to leave out, e.g. the sender's; or null for none.
+     * @return the number of sessions the message was written to.
+     */
+    public int broadcast(Message message, BlockingSession except)
+    {
+        ByteBuffer frame = codec.encode(message);
+        int count = 0;
+        try {
+            for (BlockingSession session : sessions) {
+                if (session != except) {
+                    session.write(frame.duplicate(), message);
+                    count++;
+                }
+            }
+        } finally {
+            codec.getPool().release(frame);
+        }
+        return count;
+    }
+
+    /**
+     * Handles a message from a client. By default, text and files (whole
+     * or in chunks), file offers and the replies to them are relayed to
+     * every other client, a LIST USERS request
+     * is answered from the presence registry, and a LogoutMessage closes
+     * the client's connection. Runs on the client's own thread.
+     *
+     * @param session the client's session.
+     * @param message the message it sent.
+     */
+    protected void received(BlockingSession session, Message message)
+    {
+        if (message instanceof LogoutMessage) {
+            session.close();
+        } else if (message instanceof ListUsersMessage && ((ListUsersMessage) message).isRequest()) {
+            session.send(presence.answer((ListUsersMessage) message));
+        } else if (message instanceof TextMessage || message instanceof FileMessage
+                   || message instanceof FileChunkMessage || message instanceof FileOfferMessage
+                   || message instanceof FileOfferReplyMessage) {
+            broadcast(message, session);
+        }
+    }
+
+    /**
+     * Called when a client has connected, on its own thread.
+     *
+     * @param session the new client's session.
+     */
+    protected void opened(BlockingSession session)
+    {
+    }
+
+    /**
+     * Called when a client's connection has closed, on its own thread.
+     *
+     * @param session the departed client's session.
+     */
+    protected void closed(BlockingSession session)
+    {
+    }
+
+    void sessionOpened(BlockingSession session)
+    {
+        sessions.add(session);
+        if (closing) {
+            // Accepted just before close(), which may have missed it.
+            session.close();
+        }
+        opened(session);
+    }
+
+    void sessionClosed(BlockingSession session)
+    {
+        sessions.remove(session);
+        if (session.getUsername() != null) {
+            presence.leave(session.getUsername());
+        }
+        closed(session);
+    }
+
+    void dispatch(BlockingSession session, Message message)
+    {
+        if (session.getUsername() == null && message.getUsername() != null) {
+            session.setUsername(message.getUsername());
+            presence.join(message.getUsername());
+        }
+        received(session, message);
+    }
+
+    private void acceptLoop()
+    {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // Most likely out of file descriptors; keep serving those already connected
+                // and give some a chance to be closed, rather than spin.
+                try {
+                    Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                BlockingSession session = new BlockingSession(this, channel);
+                executor.execute(session::run);
+            } catch (IOException | RejectedExecutionException e) {
+                try {
+                    channel.close();
+                } catch (IOException suppressed) {
+                    // Dropping the connection anyway.
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor(), which only
+     * exists from Java 21 on.
+     *
+     * @return the executor, or null if there are no virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor()
+    {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadExecutor()
+    {
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "clack-session-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs a server until the process is killed.
+     *
+     * @param args optionally, the port to listen on.
+     * @throws IOException if the server can't start.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : Client.DEFAULT_SERVER_PORT;
+        BlockingServer server = withVirtualThreads(port);
+        server.start();
+        System.out.println("Clack server listening on port " + server.getPort()
+                           + (hasVirtualThreads() ? ", one virtual thread per client" : ", one thread per client"));
+    }
+}
@@ -0,0 +1,268 @@
+package TheIncredibles.clack.endpoint;
+
+import TheIncredibles.clack.message.CompressionContext;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One client's connection to a BlockingServer. The session's own thread
+ * runs a plain loop: read a message, handle it, repeat. send() writes at
+ * once, blocking until the client has taken the bytes; it may be called
+ * from any thread.
+ *
+ * As with ServerSession, a client that sends a compressed frame gets a
+ * CompressionContext of its own, and is sent compressed frames from then on.
+ */
+public final class BlockingSession
+{
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final BlockingServer server;
+    private final SocketChannel channel;
+    private final SocketAddress remoteAddress;
+    // A lock rather than synchronized, which would pin a virtual thread to its carrier while writing.
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile String username;
+    private volatile boolean closed;
+    // Set by the session thread once the client sends a compressed frame.
+    private volatile CompressionContext compression;
+
+    // Session thread only; kept in write mode between reads.
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    BlockingSession(BlockingServer server, SocketChannel channel) throws IOException
+    {
+        this.server = server;
+        this.channel = channel;
+        this.remoteAddress = channel.getRemoteAddress();
+    }
+
+    /**
+     * Sends a message to the client, waiting until it has been written.
+     * If writing fails, the session is closed.
+     *
+     * @param message the message to send.
+     */
+    public void send(Message message)
+    {
+        if (closed) {
+            return;
+        }
+        MessageCodec codec = server.getCodec();
+        CompressionContext context = compression;
+        if (!codec.compresses(message, context)) {
+            ByteBuffer frame = codec.encode(message);
+            try {
+                write(frame);
+            } finally {
+                codec.getPool().release(frame);
+            }
+            return;
+        }
+        // The client inflates frames in the order they arrive, so each is written before the next is deflated.
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            ByteBuffer frame = codec.encode(message, context);
+            try {
+                write(frame);
+            } finally {
+                codec.getPool().release(frame);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Get the name of the user at the other end: the username of the
+     * first message the client sent.
+     *
+     * @return the username, or null if the client hasn't sent anything yet.
+     */
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * Get the address of the client.
+     *
+     * @return the client's address.
+     */
+    public SocketAddress getRemoteAddress()
+    {
+        return remoteAddress;
+    }
+
+    /**
+     * Whether the connection is still open.
+     *
+     * @return false once the session has been closed, by either end.
+     */
+    public boolean isOpen()
+    {
+        return !closed;
+    }
+
+    /**
+     * Closes the connection. The session's thread then ends.
+     */
+    public void close()
+    {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Closing anyway; nothing more to do.
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BlockingSession{username=" + username + ", remoteAddress=" + remoteAddress + "}";
+    }
+
+    void setUsername(String username)
+    {
+        this.username = username;
+    }
+
+    /**
+     * Writes an encoded frame, waiting until it has all gone. If writing
+     * fails, the session is closed.
+     *
+     * @param frame the frame, between position and limit.
+     */
+    void write(ByteBuffer frame)
+    {
+        if (closed) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+        } catch (IOException e) {
+            close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a broadcast frame, or, if this client takes compressed frames
+     * and the message is worth compressing, sends the message compressed
+     * for this session alone.
+     *
+     * @param frame the message, encoded for every session, between position and limit.
+     * @param message the message itself.
+     */
+    void write(ByteBuffer frame, Message message)
+    {
+        if (server.getCodec().compresses(message, compression)) {
+            send(message);
+        } else {
+            write(frame);
+        }
+    }
+
+    /**
+     * The session's loop: read a message, handle it, until the client
+     * leaves or the connection fails.
+     */
+    void run()
+    {
+        server.sessionOpened(this);
+        try {
+            Message message;
+            while (!closed && (message = readMessage()) != null) {
+                server.dispatch(this, message);
+            }
+        } catch (IOException e) {
+            // Connection lost or garbled; the session ends either way.
+        } finally {
+            close();
+            if (compression != null) {
+                writeLock.lock();
+                try {
+                    compression.close();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+            server.partialBytes().release(buffer.capacity() - INITIAL_BUFFER_SIZE);
+            server.sessionClosed(this);
+        }
+    }
+
+    /**
+     * Reads until the buffer holds a whole frame, then decodes it. A frame
+     * larger than the buffer makes it grow with what has arrived, at most
+     * doubling each time, so a client can't make the server set aside a
+     * large frame's worth of memory just by sending its length. Once the
+     * frame is decoded the buffer goes back to its first size.
+     *
+     * @return the message, or null at end of stream.
+     */
+    private Message readMessage() throws IOException
+    {
+        while (true) {
+            buffer.flip();
+            if (compression == null && MessageCodec.isCompressedFrame(buffer)) {
+                compression = new CompressionContext();
+            }
+            Message message = server.getCodec().decode(buffer, compression);
+            if (message != null) {
+                if (!buffer.hasRemaining() && buffer.capacity() > INITIAL_BUFFER_SIZE) {
+                    shrinkBuffer();
+                } else {
+                    buffer.compact();
+                }
+                return message;
+            }
+            // decode() has checked the length, if there are enough bytes to hold one.
+            long needed = (buffer.remaining() >= Integer.BYTES)
+                          ? Integer.BYTES + (long) buffer.getInt(buffer.position())
+                          : 0;
+            if (needed > Integer.BYTES + (long) ServerSession.MAX_FRAME_LENGTH) {
+                throw new ProtocolException("frame too large: " + (needed - Integer.BYTES));
+            }
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                // Full, yet no whole frame: the frame is larger than the buffer.
+                growBuffer((int) Math.min(needed, 2L * buffer.capacity()));
+            }
+            if (channel.read(buffer) < 0) {
+                return null;
+            }
+        }
+    }
+
+    private void growBuffer(int size) throws ProtocolException
+    {
+        if (!server.partialBytes().reserve(size - buffer.capacity())) {
+            throw new ProtocolException("server is out of buffer space");
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(size);
+        bigger.put(buffer.flip());
+        buffer = bigger;
+    }
+
+    private void shrinkBuffer()
+    {
+        server.partialBytes().release(buffer.capacity() - INITIAL_BUFFER_SIZE);
+        buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+}
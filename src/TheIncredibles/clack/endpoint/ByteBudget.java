@@ -0,0 +1,67 @@
+package TheIncredibles.clack.endpoint;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the bytes a server holds for one purpose across all of its
+ * clients, e.g. frames that have only partly arrived. A client wanting
+ * more than is left is refused, rather than the server running out of
+ * memory. Thread-safe.
+ */
+final class ByteBudget
+{
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * Constructs a ByteBudget.
+     *
+     * @param limit most bytes that may be held at once.
+     * @throws IllegalArgumentException if limit is not positive.
+     */
+    ByteBudget(long limit)
+    {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * Takes bytes from the budget, if there are that many left.
+     *
+     * @param bytes the number of bytes wanted.
+     * @return true if they were taken; false, taking nothing, if not.
+     */
+    boolean reserve(long bytes)
+    {
+        long current;
+        do {
+            current = used.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+        } while (!used.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Gives back bytes taken by reserve().
+     *
+     * @param bytes the number of bytes no longer held.
+     */
+    void release(long bytes)
+    {
+        used.addAndGet(-bytes);
+    }
+
+    /**
+     * Get the number of bytes now taken.
+     *
+     * @return the bytes reserved and not yet released.
+     */
+    long used()
+    {
+        return used.get();
+    }
+}
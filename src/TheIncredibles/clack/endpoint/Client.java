@@ -3,9 +3,26 @@ package TheIncredibles.clack.endpoint;
 import TheIncredibles.clack.message.*;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class Client
 {
@@ -21,14 +38,52 @@ public class Client
      */
     public static final String DEFAULT_SERVER_NAME = "localhost";
 
+    // Starting size of the receive buffer; it grows to fit larger frames.
+    private static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+
+    // How long to wait, after logging out, for the server to hang up.
+    private static final long LOGOUT_TIMEOUT_MILLIS = 5000;
+
+    // How long SEND FILE waits for the others online to answer its offer.
+    private static final long OFFER_REPLY_TIMEOUT_MILLIS = 2000;
+
     private final String username;
     private String filePath;
     private String fileSaveAsPath;
     private final String serverName;
     private final int serverPort;
-    private Message messageToSend;
-    private Message messageReceived;
-    private boolean toContinue = true;
+    private volatile Message messageToSend;
+    private volatile Message messageReceived;
+    private volatile boolean toContinue = true;
+    // Reused by printMessage(), so printing doesn't build a new string each time.
+    private final StringBuilder printBuffer = new StringBuilder();
+    // Writes received files off the receive thread.
+    private final AsyncFileWriter fileWriter = new AsyncFileWriter();
+    private final MessageCodec codec = new MessageCodec();
+    // Filled by the REPL, drained by the send thread.
+    private final BlockingQueue<Message> sendQueue = new LinkedBlockingQueue<>();
+    private Scanner input;
+    private PrintStream output = System.out;
+    // The users online as of rosterVersion. Kept by the receive thread, so
+    // LIST USERS only has to ask for the changes since.
+    private final Set<String> roster = new TreeSet<>();
+    private volatile long rosterVersion;
+    // Users other than this one in the roster, for the send thread.
+    private volatile int othersOnline;
+    // Sends files in chunks, straight from disk.
+    private final FileSender fileSender = new FileSender(codec);
+    // Answers to file offers, handed from the receive thread to the send thread.
+    private final BlockingQueue<FileOfferReplyMessage> offerReplies = new LinkedBlockingQueue<>();
+    // Contents of files received, so a file offered again needn't be sent again.
+    private ContentStore contentStore;
+    // Files being received in chunks, by name. Receive thread only.
+    private final Map<String, FileChunkWriter> incomingFiles = new HashMap<>();
+    // Files offered whose content was already here, so their chunks are skipped. Receive thread only.
+    private final Set<String> filesAlreadyHad = new HashSet<>();
+    // Whether to ask the server for compression; servers that predate it would hang up.
+    private boolean compress;
+    // This connection's compression state, if compress is set. Made by start().
+    private CompressionContext compression;
     //private String userResponse;
 
     /**
@@ -77,13 +132,6 @@ public class Client
         this(username, DEFAULT_SERVER_NAME, DEFAULT_SERVER_PORT);
     }
 
-    /**
-     * The client's REPL loop. Prompt for input, build
-     * message from it, send message and receive/process
-     * the reply, print info for user; repeat until
-     * user enters "LOGOUT".
-     */
-
     /**
      * Message type for encrypted messages
      */
@@ -110,47 +158,96 @@ public class Client
      */
     public final int MSGTYPE_HELP = 50;
 
-    public void start() throws FileNotFoundException
-    {
-        outsideWhileloop:
-        while (true) {
-            messageToSend = readUserInput(); //prompt the user & read their input
-            messageReceived = messageToSend;
-
-            int typeOfMsg = messageReceived.getMsgType(); //get the type of message
-            switch (typeOfMsg) {
-                case MSGTYPE_ENCRYPTION: //encryption
-                    System.out.println("Do some encryption"); //TODO: encryption
-                    break;
-
-                case MSGTYPE_FILE: //send file
-                    //use the write file method
-                    System.out.println("Use writefile() to dump filecontents into fp2"); //TODO: writefile
-                    messageReceived.writeFile();
-                    break;
+    /**
+     * Message type for one chunk of a file sent in chunks
+     */
+    public final int MSGTYPE_FILE_CHUNK = 60;
 
-                case MSGTYPE_LISTUSERS: //list users
-                    printMessage(); //calls toString method() //TODO: should query the server for all connected users
-                    break;
+    /**
+     * Message type for asking whether the receiver already has a file's content
+     */
+    public final int MSGTYPE_FILE_OFFER = 70;
 
-                case MSGTYPE_LOGOUT: //logout
-                    break; //exit out of this loop, then print the goodbye message
+    /**
+     * Message type for answering a file offer
+     */
+    public final int MSGTYPE_FILE_OFFER_REPLY = 71;
 
-                case MSGTYPE_TEXT: //text
-                    String[] out = messageReceived.getData(); //print text??
-                    System.out.println(out[0]);
-                    break;
+    /**
+     * The client's REPL loop. Connects to the server, then prompts for
+     * input, builds a message from it and queues it for sending; repeat
+     * until the user enters "LOGOUT" (or input ends).
+     *
+     * The user is never waited on for anything else: a receive thread
+     * decodes and prints messages from the server as they arrive, and a
+     * send thread writes queued messages, as many at a time as have
+     * piled up.
+     *
+     * SEND FILE first offers the file to the others online. Anyone whose
+     * ContentStore already has its content saves it from there; the rest
+     * say how much of it they have from an earlier, interrupted transfer,
+     * and the file is sent in chunks from there on.
+     *
+     * @throws IOException if the server can't be reached.
+     */
+    public void start() throws IOException
+    {
+        start(System.in, System.out);
+    }
 
-                case MSGTYPE_HELP: //help
-                    messageReceived.callforhelp(); //print text??
-                    break;
+    /**
+     * The client's REPL loop, reading user input from in and printing
+     * to out instead of the console.
+     *
+     * @param in where to read the user's input.
+     * @param out where to print prompts and received messages.
+     * @throws IOException if the server can't be reached.
+     */
+    public void start(InputStream in, PrintStream out) throws IOException
+    {
+        input = new Scanner(in);
+        output = out;
+        contentStore = new ContentStore();
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(serverName, serverPort));
+        compression = compress ? new CompressionContext() : null;
+        Message hello = new ListUsersMessage(username); //tells the server who we are, and who else is here
+        Thread receiver = new Thread(() -> receiveLoop(channel), "clack-client-receive");
+        Thread sender = new Thread(() -> sendLoop(channel, hello), "clack-client-send");
+        receiver.start();
+        sender.start();
+
+        boolean loggedOut = false;
+        while (toContinue && !loggedOut) {
+            messageToSend = readUserInput(); //prompt the user & read their input
+            int typeOfMsg = messageToSend.getMsgType();
+            if (typeOfMsg == MSGTYPE_HELP) {
+                messageToSend.callforhelp(); //answered here, no need to ask the server
+            } else if (typeOfMsg == MSGTYPE_ENCRYPTION) {
+                output.println("Do some encryption"); //TODO: encryption
+            } else {
+                sendQueue.add(messageToSend);
+                loggedOut = (typeOfMsg == MSGTYPE_LOGOUT);
             }
+        }
 
-            if (typeOfMsg == 30) {
-                System.out.println("Exiting System. Goodbye. |˶˙ᵕ˙ )ﾉﾞ "); //if logout is pressed, print goodbye
-                break outsideWhileloop; //breakout of while loop
+        try {
+            if (!loggedOut) {
+                sender.interrupt(); //the connection is gone, so there's no logout to wait for
             }
+            sender.join();
+            // The server hangs up once it has the logout; give it a while to do so.
+            receiver.join(LOGOUT_TIMEOUT_MILLIS);
+            channel.close();
+            receiver.join();
+        } catch (InterruptedException e) {
+            channel.close();
+            Thread.currentThread().interrupt();
+        }
+        if (compression != null) {
+            compression.close();
         }
+        output.println("Exiting System. Goodbye. |˶˙ᵕ˙ )ﾉﾞ "); //if logout is pressed, print goodbye
+        fileWriter.close(); //let files still being written finish
     }
 
     /**
@@ -161,9 +258,15 @@ public class Client
      */
     public Message readUserInput() //reads AND evaluates
     {
-        Scanner myScanner = new Scanner(System.in);  // Create a Scanner object
-        System.out.print("What would you like to do?: "); //prompt user
-        String userResponse = myScanner.nextLine().trim();  // Read user input & trim for whitespaces
+        if (input == null) {
+            input = new Scanner(System.in);  // one Scanner for good, so no buffered input is lost
+        }
+        output.print("What would you like to do?: "); //prompt user
+        output.flush();
+        if (!input.hasNextLine()) {
+            return new LogoutMessage(username); //input has ended, so there's nothing more to send
+        }
+        String userResponse = input.nextLine().trim();  // Read user input & trim for whitespaces
 
         //save the input to an array, but split the input by spaces
         String[] userResponseArray = userResponse.split("\\s+"); //split by one or more whitespaces
@@ -175,7 +278,7 @@ public class Client
             //list users case
         } else if (userResponseArray[0].equalsIgnoreCase("list") &&
                 userResponseArray[1].equalsIgnoreCase("users")) {
-            return new ListUsersMessage(username);
+            return new ListUsersMessage(username, rosterVersion);
 
             //send file case
             //fp1 & fp2 specified [SEND FILE fp1 AS fp2]
@@ -185,7 +288,7 @@ public class Client
                     userResponseArray[3].equalsIgnoreCase("as")) {
                 filePath = userResponseArray[2];
                 fileSaveAsPath = userResponseArray[4];
-                System.out.println("inside send 'as'");
+                output.println("inside send 'as'");
                 return new FileMessage(username, filePath, fileSaveAsPath);
             }
             //send file case
@@ -195,13 +298,13 @@ public class Client
                     userResponseArray[1].equalsIgnoreCase("file")) { //if "fp1" is present
                 filePath = userResponseArray[2];
                 fileSaveAsPath = userResponseArray[2];
-                System.out.println("inside send file");
+                output.println("inside send file");
                 return new FileMessage(username, filePath, fileSaveAsPath);
 
                 // encryption key case
             } else if (userResponseArray[0].equalsIgnoreCase("encryption") &&
                     userResponseArray[1].equalsIgnoreCase("key")) {
-                System.out.println("encryption with key");
+                output.println("encryption with key");
                 //TODO: return something
             }
 
@@ -217,7 +320,7 @@ public class Client
             else if (userResponseArray[0].equalsIgnoreCase("encryption") &&
                     userResponseArray[1].equalsIgnoreCase("ON") ||
                     userResponseArray[1].equalsIgnoreCase("OFF")) {
-                System.out.println("on off encryption");
+                output.println("on off encryption");
                 //TODO: return something
 
             }
@@ -233,14 +336,320 @@ public class Client
 
     /**
      * Print the current messageReceived object to System.out.
-     * What is printed is the result of calling toString()
-     * on the messageReceived object.
+     * What is printed is the message as toString() would show it,
+     * but with each field cut short after
+     * Message.DEFAULT_PREVIEW_LENGTH chars, so printing a large file
+     * message stays cheap.
      */
-    public void printMessage()
+    public synchronized void printMessage()
     {
-        System.out.println(messageReceived.toString());
+        printBuffer.setLength(0);
+        messageReceived.render(printBuffer, Message.DEFAULT_PREVIEW_LENGTH);
+        output.println(printBuffer);
     }
 
+    /**
+     * Handles a message from the server: prints it, or for a file,
+     * writes it out. Runs on the receive thread.
+     *
+     * @param message the message received.
+     */
+    protected void received(Message message)
+    {
+        messageReceived = message;
+        switch (message.getMsgType()) {
+            case MSGTYPE_FILE: //receive file
+                FileMessage file = (FileMessage) message;
+                //the name comes from another user: never let it point outside the Clack directory
+                if (!FileMessage.isFileName(file.getFileSaveAsName())) {
+                    output.println("Refusing file with bad name from " + file.getUsername());
+                    break;
+                }
+                //written on the file writer's thread, so the receive loop never waits for the disk
+                file.writeFileAsync(fileWriter)
+                        .whenComplete((path, e) -> {
+                            if (e != null) {
+                                output.println("Error writing to file: " + e.getMessage());
+                            }
+                        });
+                break;
+
+            case MSGTYPE_FILE_OFFER: //someone is about to send a file
+                receiveOffer((FileOfferMessage) message);
+                break;
+
+            case MSGTYPE_FILE_CHUNK: //part of a file
+                receiveChunk((FileChunkMessage) message);
+                break;
+
+            case MSGTYPE_FILE_OFFER_REPLY: //answer to an offer, maybe ours
+                offerReplies.add((FileOfferReplyMessage) message);
+                break;
+
+            case MSGTYPE_LISTUSERS: //list users
+                updateRoster((ListUsersMessage) message);
+                break;
+
+            case MSGTYPE_TEXT: //text
+                output.println(message.getUsername() + ": " + message.getData()[0]);
+                break;
+
+            default:
+                printMessage();
+                break;
+        }
+    }
+
+    /**
+     * Brings the roster up to date from the server's answer to LIST USERS,
+     * and prints it.
+     */
+    private void updateRoster(ListUsersMessage list)
+    {
+        if (list.isRequest()) {
+            printMessage(); //not an answer; nothing to update
+            return;
+        }
+        if (list.getKind() == ListUsersMessage.KIND_SNAPSHOT) {
+            roster.clear();
+            roster.addAll(Arrays.asList(list.getJoined()));
+        } else if (list.getKind() == ListUsersMessage.KIND_DELTA && list.getBaseVersion() == rosterVersion) {
+            roster.addAll(Arrays.asList(list.getJoined()));
+            roster.removeAll(Arrays.asList(list.getLeft()));
+        } else {
+            //changes to a roster we don't have, e.g. from a second request sent before the first was answered
+            sendQueue.add(new ListUsersMessage(username));
+            return;
+        }
+        rosterVersion = list.getVersion();
+        othersOnline = roster.size() - (roster.contains(username) ? 1 : 0);
+        output.println("Users online (" + roster.size() + "): " + String.join(", ", roster));
+    }
+
+    /**
+     * Answers an offer of a file: saves it from the content store if the
+     * content is already there, otherwise gets ready to receive its chunks,
+     * picking up any part of it received before.
+     */
+    private void receiveOffer(FileOfferMessage offer)
+    {
+        String name = offer.getFileSaveAsName();
+        closeIncoming(name); //an earlier transfer cut off; its manifest lets this one resume
+        filesAlreadyHad.remove(name);
+        try {
+            FileOfferReplyMessage reply = contentStore.accept(offer, username);
+            if (reply.haveContent()) {
+                filesAlreadyHad.add(name);
+                output.println("Received file " + name + " from " + offer.getUsername());
+            } else {
+                FileChunkWriter writer = new FileChunkWriter(offer);
+                incomingFiles.put(name, writer);
+                reply = writer.replyToOffer(username);
+            }
+            sendQueue.add(reply);
+        } catch (IOException | IllegalArgumentException e) {
+            output.println("Error receiving file " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a chunk of a file into place, and once the file is complete,
+     * stores a copy of it in the content store.
+     */
+    private void receiveChunk(FileChunkMessage chunk)
+    {
+        String name = chunk.getFileSaveAsName();
+        if (filesAlreadyHad.contains(name)) {
+            //sent for someone else
+            if (chunk.getOffset() + chunk.getChunkLength() >= chunk.getFileLength()) {
+                filesAlreadyHad.remove(name);
+            }
+            return;
+        }
+        FileChunkWriter writer = incomingFiles.get(name);
+        try {
+            if (writer == null) {
+                //chunks sent without an offer first
+                writer = new FileChunkWriter(chunk);
+                incomingFiles.put(name, writer);
+            }
+            if (writer.write(chunk)) {
+                incomingFiles.remove(name);
+                writer.close();
+                contentStore.adopt(Paths.get(name));
+                output.println("Received file " + name + " from " + chunk.getUsername());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            closeIncoming(name);
+            output.println("Error receiving file " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void closeIncoming(String name)
+    {
+        FileChunkWriter writer = incomingFiles.remove(name);
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                output.println("Error receiving file " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads frames from the server and hands each message to received(),
+     * until the server hangs up. Frames longer than a server accepts
+     * (ServerSession.MAX_FRAME_LENGTH) end the connection.
+     */
+    private void receiveLoop(SocketChannel channel)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+        try {
+            while (true) {
+                buf.flip();
+                Message message;
+                while ((message = codec.decode(buf, compression)) != null) {
+                    received(message);
+                }
+                // decode() has checked the length, if there are enough bytes to hold one.
+                long needed = (buf.remaining() >= Integer.BYTES)
+                              ? Integer.BYTES + (long) buf.getInt(buf.position())
+                              : 0;
+                if (needed > Integer.BYTES + (long) ServerSession.MAX_FRAME_LENGTH) {
+                    throw new ProtocolException("frame too large: " + (needed - Integer.BYTES));
+                }
+                buf.compact();
+                if (!buf.hasRemaining()) {
+                    // Full, yet no whole frame: grow with what has arrived, rather than trusting the length.
+                    int size = (int) Math.min(needed, 2L * buf.capacity());
+                    buf = ByteBuffer.allocate(size).put(buf.flip());
+                }
+                if (channel.read(buf) < 0) {
+                    break;
+                }
+            }
+        } catch (ClosedChannelException e) {
+            return; //closed by start(), which is done with the connection
+        } catch (IOException | RuntimeException e) {
+            //a garbled frame or a failing handler ends the connection, not the client
+            output.println("Error receiving: " + e);
+        }
+        for (String name : incomingFiles.keySet().toArray(new String[0])) {
+            closeIncoming(name); //keeps what has arrived, so the transfer can resume
+        }
+        if (toContinue) {
+            output.println("Connection to server closed.");
+            toContinue = false;
+        }
+    }
+
+    /**
+     * Writes the hello, then queued messages, to the server. Whatever has
+     * piled up while the last write was going out is batched into one
+     * write; the batch is flushed as soon as the queue is empty, so nothing
+     * waits for company. With compression, the hello is sent compressed
+     * however short it is, which tells the server to compress what it
+     * sends back.
+     */
+    private void sendLoop(SocketChannel channel, Message hello)
+    {
+        try (MessageBatcher batcher = new MessageBatcher(codec, compression, channel)) {
+            if (compression != null) {
+                ByteBuffer frame = codec.encodeCompressed(hello, compression);
+                try {
+                    while (frame.hasRemaining()) {
+                        channel.write(frame);
+                    }
+                } finally {
+                    codec.getPool().release(frame);
+                }
+            } else {
+                batcher.send(hello);
+            }
+            while (true) {
+                Message message = sendQueue.take();
+                if (message instanceof FileMessage) {
+                    batcher.flush();
+                    sendFile((FileMessage) message, batcher, channel);
+                    continue;
+                }
+                batcher.send(message);
+                if (message instanceof LogoutMessage) {
+                    return;
+                }
+                if (sendQueue.isEmpty()) {
+                    batcher.flush();
+                }
+            }
+        } catch (IOException e) {
+            output.println("Error sending: " + e.getMessage());
+            toContinue = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Offers a file to the others online, waits for their answers, then
+     * sends in chunks whatever part of the file any of them still needs.
+     * Runs on the send thread.
+     */
+    private void sendFile(FileMessage file, MessageBatcher batcher, SocketChannel channel)
+            throws IOException, InterruptedException
+    {
+        FileOfferMessage offer;
+        try {
+            offer = file.offer();
+        } catch (IOException e) {
+            output.println("Error reading file: " + e.getMessage());
+            return;
+        }
+        offerReplies.clear();
+        batcher.send(offer); //not a TextMessage, so written at once
+
+        int others = othersOnline;
+        int answered = 0;
+        boolean needed = false;
+        long resumeOffset = offer.getFileLength();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(OFFER_REPLY_TIMEOUT_MILLIS);
+        while (answered < others || answered == 0) {
+            FileOfferReplyMessage reply = offerReplies.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (reply == null) {
+                if (answered < others) {
+                    //someone hasn't answered: send them all of it
+                    needed = true;
+                    resumeOffset = 0;
+                }
+                break;
+            }
+            if (!offer.getContentHash().equals(reply.getContentHash())) {
+                continue; //an answer to someone else's offer
+            }
+            answered++;
+            if (!reply.haveContent()) {
+                needed = true;
+                resumeOffset = Math.min(resumeOffset, reply.getResumeOffset());
+            }
+        }
+        if (needed) {
+            fileSender.send(file, channel, resumeOffset);
+        }
+    }
+
+    /**
+     * Sets whether to compress text, files and user lists sent over the
+     * connection, and ask the server to do the same. Off by default, since
+     * a server that knows nothing of compression hangs up on the first
+     * compressed frame. Takes effect at the next start().
+     *
+     * @param compress true to use compression.
+     */
+    public void setCompression(boolean compress)
+    {
+        this.compress = compress;
+    }
 
     /**
      * Gets the username of the user in use of the client
@@ -269,12 +678,23 @@ public class Client
      */
     public String toString()
     {
-        return "{class=Client|"
-                + "|username=" + this.username
-                + "|serverName=" + this.serverName
-                + "|serverPort=" + this.serverPort
-                + "|messageToSend={" + this.messageToSend.toString() + "}"
-                + "|messageReceived={" + this.messageReceived.toString() + "}"
-                + "}";
+        StringBuilder sb = new StringBuilder("{class=Client|")
+                .append("|username=").append(this.username)
+                .append("|serverName=").append(this.serverName)
+                .append("|serverPort=").append(this.serverPort)
+                .append("|messageToSend={");
+        appendPreview(sb, this.messageToSend);
+        sb.append("}|messageReceived={");
+        appendPreview(sb, this.messageReceived);
+        return sb.append("}}").toString();
+    }
+
+    private static void appendPreview(StringBuilder sb, Message message)
+    {
+        if (message == null) {
+            sb.append("null");
+        } else {
+            message.render(sb, Message.DEFAULT_PREVIEW_LENGTH);
+        }
     }
 }
@@ -0,0 +1,228 @@
+package TheIncredibles.clack.endpoint;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One event-loop thread of a Server: a Selector and the sessions
+ * registered with it. Everything touching those sessions' channels runs
+ * on this thread; other threads hand work over with execute().
+ *
+ * All the loop's sessions share one read buffer. A session only gets a
+ * buffer of its own while it holds part of a frame, so idle connections
+ * cost no buffer memory at all.
+ *
+ * A handler or task that throws is reported to the thread's uncaught
+ * exception handler; the handler's channel is closed, but the loop and
+ * its other sessions carry on.
+ */
+final class EventLoop implements Runnable
+{
+    /**
+     * Size of the shared read buffer: 64 KiB.
+     */
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Tasks waiting for a time to come, soonest first. Loop thread only.
+    private final PriorityQueue<TimedTask> timedTasks =
+            new PriorityQueue<>(Comparator.comparingLong(TimedTask::due));
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private volatile boolean running = true;
+    private boolean started;
+
+    /**
+     * Opens the loop's Selector. The thread is not started.
+     *
+     * @param name the thread's name.
+     * @throws IOException if the Selector can't be opened.
+     */
+    EventLoop(String name) throws IOException
+    {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    synchronized void start()
+    {
+        started = true;
+        thread.start();
+    }
+
+    Selector selector()
+    {
+        return selector;
+    }
+
+    ByteBuffer readBuffer()
+    {
+        return readBuffer;
+    }
+
+    boolean inLoop()
+    {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs a task on the loop thread, after the current round of events.
+     *
+     * @param task the task to run.
+     */
+    void execute(Runnable task)
+    {
+        tasks.add(task);
+        if (!inLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs a task on the loop thread once a delay has passed. Must be
+     * called on the loop thread.
+     *
+     * @param task the task to run.
+     * @param delayMillis how long to wait first, in milliseconds.
+     */
+    void schedule(Runnable task, long delayMillis)
+    {
+        timedTasks.add(new TimedTask(System.nanoTime() + delayMillis * 1_000_000L, task));
+    }
+
+    /**
+     * Stops the loop, closing every channel still registered with it,
+     * and waits for the thread to end.
+     */
+    void shutdown()
+    {
+        running = false;
+        synchronized (this) {
+            if (!started) {
+                // Nothing is registered without a running loop but the server socket.
+                started = true;
+                thread.start();
+            }
+        }
+        selector.wakeup();
+        if (!inLoop()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (running) {
+                TimedTask next = timedTasks.peek();
+                if (next == null) {
+                    selector.select();
+                } else {
+                    long wait = next.due() - System.nanoTime();
+                    if (wait > 0) {
+                        selector.select(Math.max(1, wait / 1_000_000L));
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+                wakeupPending.set(false);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Handler handler = (Handler) key.attachment();
+                    try {
+                        handler.ready(key);
+                    } catch (RuntimeException e) {
+                        report(e);
+                        handler.close();
+                    }
+                }
+                selector.selectedKeys().clear();
+                long now = System.nanoTime();
+                while ((next = timedTasks.peek()) != null && next.due() - now <= 0) {
+                    timedTasks.poll();
+                    tasks.add(next.task());
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        report(e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClosedSelectorException e) {
+            // Closed from outside; nothing more to do.
+        } finally {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                ((Handler) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Nothing useful to do while shutting down.
+            }
+        }
+    }
+
+    private void report(RuntimeException e)
+    {
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    private static final class TimedTask
+    {
+        private final long due;
+        private final Runnable task;
+
+        TimedTask(long due, Runnable task)
+        {
+            this.due = due;
+            this.task = task;
+        }
+
+        long due()
+        {
+            return due;
+        }
+
+        Runnable task()
+        {
+            return task;
+        }
+    }
+
+    /**
+     * What is attached to each key registered with the loop.
+     */
+    interface Handler
+    {
+        /**
+         * Handles the key's ready operations, on the loop thread.
+         */
+        void ready(SelectionKey key);
+
+        /**
+         * Closes the channel, when the loop shuts down.
+         */
+        void close();
+    }
+}
@@ -0,0 +1,151 @@
+package TheIncredibles.clack.endpoint;
+
+import TheIncredibles.clack.message.FileChunkMessage;
+import TheIncredibles.clack.message.FileMessage;
+import TheIncredibles.clack.message.MessageCodec;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sends the file of a FileMessage ("SEND FILE fp1 AS fp2") over a channel
+ * without reading it into the Java heap. The file goes out as a sequence of
+ * FileChunkMessage frames: each frame's small header is encoded by the
+ * MessageCodec, and the chunk's bytes are then copied from the file to the
+ * channel by FileChannel.transferTo(), which for sockets lets the kernel
+ * move them directly (sendfile on Linux).
+ *
+ * Each header carries the CRC32C checksum of its chunk, computed from a
+ * read-only mapping of the chunk just before it is sent, so the receiver
+ * can verify what it got.
+ *
+ * The receiver needs nothing special: it decodes the frames with
+ * MessageCodec.decode() and writes them with a FileChunkWriter, exactly as
+ * for chunks made by a FileChunkReader. To resume an interrupted transfer,
+ * send from the receiver's FileOfferReplyMessage.getResumeOffset().
+ */
+public class FileSender
+{
+    /**
+     * Chunk size used if none is given: 1 MiB. Chunks never pass through the
+     * sender's heap, but the receiver holds one at a time.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final MessageCodec codec;
+    private final int chunkSize;
+
+    /**
+     * Constructs a FileSender.
+     *
+     * @param codec encodes the chunk headers.
+     * @param chunkSize most file bytes in one frame.
+     * @throws IllegalArgumentException if chunkSize is not positive.
+     */
+    public FileSender(MessageCodec codec, int chunkSize)
+    {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.codec = codec;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Constructs a FileSender with DEFAULT_CHUNK_SIZE chunks.
+     *
+     * @param codec encodes the chunk headers.
+     */
+    public FileSender(MessageCodec codec)
+    {
+        this(codec, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Sends the file named by msg.getFilePath(), to be saved as
+     * msg.getFileSaveAsName(). The message's fileContents are not used.
+     *
+     * @param msg the FileMessage naming the file to send.
+     * @param out where to send it; a blocking channel, e.g. a SocketChannel.
+     * @return number of bytes written to out, headers included.
+     * @throws FileNotFoundException if the file doesn't exist or isn't readable.
+     * @throws IOException if reading the file or writing to out fails.
+     */
+    public long send(FileMessage msg, WritableByteChannel out) throws IOException
+    {
+        return send(msg, out, 0);
+    }
+
+    /**
+     * Sends the file named by msg.getFilePath(), to be saved as
+     * msg.getFileSaveAsName(), starting part way into the file.
+     *
+     * @param msg the FileMessage naming the file to send.
+     * @param out where to send it; a blocking channel, e.g. a SocketChannel.
+     * @param startOffset position in the file of the first byte to send.
+     * @return number of bytes written to out, headers included.
+     * @throws FileNotFoundException if the file doesn't exist or isn't readable.
+     * @throws IOException if reading the file or writing to out fails.
+     * @throws IllegalArgumentException if startOffset is negative or past the end of the file.
+     */
+    public long send(FileMessage msg, WritableByteChannel out, long startOffset) throws IOException
+    {
+        Path file = Paths.get(msg.getFilePath());
+        if (!Files.exists(file)) {
+            throw new FileNotFoundException("File does not exist: " + msg.getFilePath());
+        }
+        if (!Files.isReadable(file)) {
+            throw new FileNotFoundException("File is not readable: " + msg.getFilePath());
+        }
+
+        long sent = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileLength = in.size();
+            if (startOffset < 0 || startOffset > fileLength) {
+                throw new IllegalArgumentException("startOffset " + startOffset + " is outside file of "
+                                                   + fileLength + " bytes");
+            }
+            long offset = startOffset;
+            do {
+                int length = (int) Math.min(chunkSize, fileLength - offset);
+                int checksum = FileChunkMessage.checksum(in.map(FileChannel.MapMode.READ_ONLY, offset, length));
+                ByteBuffer header = codec.encodeChunkHeader(msg.getUsername(), msg.getFileSaveAsName(),
+                                                            offset, fileLength, checksum, length);
+                try {
+                    while (header.hasRemaining()) {
+                        sent += out.write(header);
+                    }
+                } finally {
+                    codec.getPool().release(header);
+                }
+                long end = offset + length;
+                while (offset < end) {
+                    long n = in.transferTo(offset, end - offset, out);
+                    if (n <= 0 && in.size() < end) {
+                        throw new IOException("File shrank while being sent: " + msg.getFilePath());
+                    }
+                    offset += n;
+                    sent += n;
+                }
+            } while (offset < fileLength);
+        }
+        return sent;
+    }
+
+    /**
+     * Get the most file bytes sent in one frame.
+     *
+     * @return the chunk size, in bytes.
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+}
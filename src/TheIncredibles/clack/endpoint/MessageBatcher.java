@@ -0,0 +1,295 @@
+package TheIncredibles.clack.endpoint;
+
+import TheIncredibles.clack.message.CompressionContext;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces outgoing messages into fewer, larger writes. A burst of short
+ * TextMessages is encoded, frame after frame, into one batch buffer, and
+ * the batch goes out in a single write when it reaches the byte budget or
+ * when its oldest message has waited maxDelay, whichever comes first. The
+ * frames themselves are unchanged, so the receiver decodes them one by one
+ * as usual.
+ *
+ * Only TextMessages wait. Every other message (e.g. LogoutMessage or
+ * ListUsersMessage, which expect a prompt reply) flushes the batch, itself
+ * included, at once; flush() does the same on demand.
+ *
+ * The deadline is kept by one timer thread shared by all batchers, which
+ * never writes itself: when a deadline passes, it hands the flush to a
+ * thread of its own, so a peer that has stopped reading holds up only its
+ * own batcher and not every other batcher's deadlines. If a timed flush
+ * fails, the exception is thrown by the next send() or flush().
+ * A MessageBatcher may be used by several threads at once.
+ *
+ * Given the connection's CompressionContext, messages the codec finds
+ * worth compressing are compressed as they are sent, and their compressed
+ * frames batched like any other.
+ */
+public class MessageBatcher implements Closeable
+{
+    /**
+     * Byte budget used if none is given: 16 KiB.
+     */
+    public static final int DEFAULT_BYTE_BUDGET = 16 * 1024;
+
+    /**
+     * Longest a message waits if no delay is given: 1 ms, in nanoseconds.
+     */
+    public static final long DEFAULT_MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "clack-batch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Runs timed flushes, whose writes may block; at most one per batcher at a time.
+    private static final ExecutorService FLUSHERS = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "clack-batch-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MessageCodec codec;
+    private final CompressionContext compression;
+    private final WritableByteChannel out;
+    private final long maxDelayNanos;
+    private final ByteBuffer batch;
+
+    // All below guarded by this.
+    private ScheduledFuture<?> deadline;
+    // Counts batches written, so a timed flush can tell if its batch has already gone.
+    private long batchesWritten;
+    private IOException timedFlushFailure;
+    private long messagesSent;
+    private long writes;
+    private boolean closed;
+
+    /**
+     * Constructs a MessageBatcher.
+     *
+     * @param codec encodes the messages.
+     * @param compression the sending side of the connection's compression context,
+     *                    or null to send every message uncompressed.
+     * @param out where to write the batches; a blocking channel, e.g. a SocketChannel.
+     * @param byteBudget most bytes to hold before writing.
+     * @param maxDelay longest a message may wait before being written.
+     * @param unit the unit of maxDelay.
+     * @throws IllegalArgumentException if byteBudget is not positive, or maxDelay is negative.
+     */
+    public MessageBatcher(MessageCodec codec, CompressionContext compression, WritableByteChannel out,
+                          int byteBudget, long maxDelay, TimeUnit unit)
+    {
+        if (byteBudget <= 0) {
+            throw new IllegalArgumentException("byteBudget must be positive");
+        }
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must not be negative");
+        }
+        this.codec = codec;
+        this.compression = compression;
+        this.out = out;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.batch = ByteBuffer.allocateDirect(byteBudget);
+    }
+
+    /**
+     * Constructs a MessageBatcher that sends every message uncompressed.
+     *
+     * @param codec encodes the messages.
+     * @param out where to write the batches; a blocking channel, e.g. a SocketChannel.
+     * @param byteBudget most bytes to hold before writing.
+     * @param maxDelay longest a message may wait before being written.
+     * @param unit the unit of maxDelay.
+     * @throws IllegalArgumentException if byteBudget is not positive, or maxDelay is negative.
+     */
+    public MessageBatcher(MessageCodec codec, WritableByteChannel out, int byteBudget,
+                          long maxDelay, TimeUnit unit)
+    {
+        this(codec, null, out, byteBudget, maxDelay, unit);
+    }
+
+    /**
+     * Constructs a MessageBatcher with DEFAULT_BYTE_BUDGET and DEFAULT_MAX_DELAY_NANOS.
+     *
+     * @param codec encodes the messages.
+     * @param compression the sending side of the connection's compression context,
+     *                    or null to send every message uncompressed.
+     * @param out where to write the batches; a blocking channel, e.g. a SocketChannel.
+     */
+    public MessageBatcher(MessageCodec codec, CompressionContext compression, WritableByteChannel out)
+    {
+        this(codec, compression, out, DEFAULT_BYTE_BUDGET, DEFAULT_MAX_DELAY_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Constructs a MessageBatcher with DEFAULT_BYTE_BUDGET and DEFAULT_MAX_DELAY_NANOS
+     * that sends every message uncompressed.
+     *
+     * @param codec encodes the messages.
+     * @param out where to write the batches; a blocking channel, e.g. a SocketChannel.
+     */
+    public MessageBatcher(MessageCodec codec, WritableByteChannel out)
+    {
+        this(codec, null, out);
+    }
+
+    /**
+     * Sends a message: a TextMessage joins the batch, anything else is
+     * written at once along with the batch.
+     *
+     * @param message the message to send.
+     * @throws IOException if writing fails, now or in an earlier timed flush.
+     * @throws IllegalStateException if the batcher has been closed.
+     */
+    public synchronized void send(Message message) throws IOException
+    {
+        if (closed) {
+            throw new IllegalStateException("batcher is closed");
+        }
+        throwTimedFlushFailure();
+        // A compressed frame's length is known only once it is compressed, so it is batched by copying.
+        ByteBuffer frame = codec.compresses(message, compression) ? codec.encode(message, compression) : null;
+        try {
+            int length = (frame != null) ? frame.remaining() : codec.encodedLength(message);
+            if (length > batch.remaining()) {
+                writeBatch();
+            }
+            if (length > batch.remaining()) {
+                // Too big to batch at all; send it on its own.
+                if (frame == null) {
+                    frame = codec.encode(message);
+                }
+                writeFully(frame);
+                messagesSent++;
+                return;
+            }
+            if (frame != null) {
+                batch.put(frame);
+            } else {
+                codec.encode(message, batch);
+            }
+        } finally {
+            if (frame != null) {
+                codec.getPool().release(frame);
+            }
+        }
+        messagesSent++;
+        if (!(message instanceof TextMessage) || !batch.hasRemaining() || maxDelayNanos == 0) {
+            writeBatch();
+        } else if (deadline == null) {
+            long due = batchesWritten;
+            deadline = TIMER.schedule(() -> FLUSHERS.execute(() -> timedFlush(due)),
+                                      maxDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Writes whatever is in the batch now.
+     *
+     * @throws IOException if writing fails, now or in an earlier timed flush.
+     */
+    public synchronized void flush() throws IOException
+    {
+        throwTimedFlushFailure();
+        writeBatch();
+    }
+
+    /**
+     * Get the number of messages sent so far.
+     *
+     * @return the message count.
+     */
+    public synchronized long getMessagesSent()
+    {
+        return messagesSent;
+    }
+
+    /**
+     * Get the number of writes made to the channel so far. Comparing this
+     * with getMessagesSent() shows how well messages are being coalesced.
+     *
+     * @return the write count.
+     */
+    public synchronized long getWrites()
+    {
+        return writes;
+    }
+
+    /**
+     * Flushes the batch and stops batching. The channel is not closed.
+     *
+     * @throws IOException if the final flush fails.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flush();
+    }
+
+    private synchronized void timedFlush(long due)
+    {
+        if (due != batchesWritten || closed) {
+            // Written since the deadline was set, and any deadline now is a newer one's.
+            return;
+        }
+        deadline = null;
+        try {
+            writeBatch();
+        } catch (IOException e) {
+            timedFlushFailure = e;
+        }
+    }
+
+    private void throwTimedFlushFailure() throws IOException
+    {
+        if (timedFlushFailure != null) {
+            IOException e = timedFlushFailure;
+            timedFlushFailure = null;
+            throw e;
+        }
+    }
+
+    private void writeBatch() throws IOException
+    {
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.flip();
+        try {
+            writeFully(batch);
+        } finally {
+            batch.clear();
+            batchesWritten++;
+        }
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException
+    {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+            writes++;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package TheIncredibles.clack.endpoint;
+
+import TheIncredibles.clack.message.ListUsersMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Who is online, for answering LIST USERS. Users join when their first
+ * connection says who they are and leave when their last connection
+ * closes; every such change gets the next version number and goes into a
+ * change log of the most recent history changes.
+ *
+ * A request naming a version still in the log is answered with only the
+ * net changes since, so a client with a large roster downloads just what
+ * is new. Anything else gets a snapshot of the whole list, which is built
+ * at most once per version and then shared by every request until the
+ * list changes again.
+ *
+ * join() and leave() lock only the user's own entry in a ConcurrentHashMap,
+ * so users coming and going at once don't wait for one another, nor for
+ * requests being answered. All methods are thread-safe.
+ */
+public class PresenceRegistry
+{
+    /**
+     * Number of changes kept for deltas if no number is given.
+     */
+    public static final int DEFAULT_HISTORY = 4096;
+
+    private final int history;
+    // Open connections per user online.
+    private final Map<String, Integer> connections = new ConcurrentHashMap<>();
+    // Recent changes, by version: true for a join, false for a leave.
+    private final ConcurrentSkipListMap<Long, Change> log = new ConcurrentSkipListMap<>();
+    // Last version handed out.
+    private final AtomicLong lastVersion = new AtomicLong();
+    // Last version whose changes, and all before it, are in the log.
+    private final AtomicLong published = new AtomicLong();
+    // Guarded by this; read without it.
+    private volatile Snapshot latest = new Snapshot(0, new String[0]);
+
+    /**
+     * Constructs a PresenceRegistry.
+     *
+     * @param history number of changes to keep for deltas. Clients further
+     * behind than this get a snapshot.
+     * @throws IllegalArgumentException if history is not positive.
+     */
+    public PresenceRegistry(int history)
+    {
+        if (history <= 0) {
+            throw new IllegalArgumentException("history must be positive");
+        }
+        this.history = history;
+    }
+
+    /**
+     * Constructs a PresenceRegistry keeping DEFAULT_HISTORY changes.
+     */
+    public PresenceRegistry()
+    {
+        this(DEFAULT_HISTORY);
+    }
+
+    /**
+     * Records a new connection for a user.
+     *
+     * @param username the user.
+     * @return true if the user was not online before.
+     */
+    public boolean join(String username)
+    {
+        boolean[] joined = new boolean[1];
+        connections.compute(username, (name, count) -> {
+            if (count != null) {
+                return count + 1;
+            }
+            // Logged while holding the user's entry, so each user's changes are in order.
+            record(name, true);
+            joined[0] = true;
+            return 1;
+        });
+        publish();
+        return joined[0];
+    }
+
+    /**
+     * Records that one of a user's connections has closed.
+     *
+     * @param username the user.
+     * @return true if that was the user's last connection, so the user is now offline.
+     */
+    public boolean leave(String username)
+    {
+        boolean[] left = new boolean[1];
+        connections.computeIfPresent(username, (name, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            record(name, false);
+            left[0] = true;
+            return null;
+        });
+        publish();
+        return left[0];
+    }
+
+    /**
+     * Whether a user has at least one connection open.
+     *
+     * @param username the user.
+     * @return true if the user is online.
+     */
+    public boolean isOnline(String username)
+    {
+        return connections.containsKey(username);
+    }
+
+    /**
+     * Get the current version of the list.
+     *
+     * @return the version; 0 before anyone has joined.
+     */
+    public long getVersion()
+    {
+        return published.get();
+    }
+
+    /**
+     * Get everyone online, as of getVersion().
+     *
+     * @return the user names, sorted; unmodifiable.
+     */
+    public List<String> getUsers()
+    {
+        return Collections.unmodifiableList(Arrays.asList(snapshot().users));
+    }
+
+    /**
+     * Answers a LIST USERS request: with the changes since the version the
+     * request gives, if the log still has them all, otherwise with a
+     * snapshot of the whole list.
+     *
+     * @param request the request.
+     * @return the answer, for the user who asked.
+     */
+    public ListUsersMessage answer(ListUsersMessage request)
+    {
+        long since = request.getBaseVersion();
+        if (since > 0) {
+            ListUsersMessage delta = delta(request.getUsername(), since);
+            if (delta != null) {
+                return delta;
+            }
+        }
+        Snapshot snapshot = snapshot();
+        return ListUsersMessage.snapshot(request.getUsername(), snapshot.version, Arrays.asList(snapshot.users));
+    }
+
+    /**
+     * The net changes from since to now, or null if the log no longer has
+     * them all (or since is from some other registry, being ahead of it).
+     */
+    private ListUsersMessage delta(String username, long since)
+    {
+        long now = published.get();
+        if (since > now) {
+            return null;
+        }
+        // For each user changed: whether the first and the last change were joins.
+        Map<String, boolean[]> changed = new LinkedHashMap<>();
+        for (Change change : log.subMap(since, false, now, true).values()) {
+            boolean[] firstLast = changed.get(change.username);
+            if (firstLast == null) {
+                changed.put(change.username, new boolean[] { change.joined, change.joined });
+            } else {
+                firstLast[1] = change.joined;
+            }
+        }
+        // Checked after reading, in case the changes wanted were trimmed meanwhile.
+        if (since < now && (log.isEmpty() || log.firstKey() > since + 1)) {
+            return null;
+        }
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (Map.Entry<String, boolean[]> entry : changed.entrySet()) {
+            boolean[] firstLast = entry.getValue();
+            // Joined then left, or left then joined again, is no change at all.
+            if (firstLast[0] == firstLast[1]) {
+                (firstLast[1] ? joined : left).add(entry.getKey());
+            }
+        }
+        Collections.sort(joined);
+        Collections.sort(left);
+        return ListUsersMessage.delta(username, since, now, joined, left);
+    }
+
+    /**
+     * The list as of the current version, brought up to date from the
+     * last snapshot and the log if the list has changed since.
+     */
+    private Snapshot snapshot()
+    {
+        Snapshot snapshot = latest;
+        if (snapshot.version == published.get()) {
+            return snapshot;
+        }
+        synchronized (this) {
+            snapshot = latest;
+            long now = published.get();
+            if (snapshot.version == now) {
+                return snapshot;
+            }
+            TreeSet<String> users = new TreeSet<>(Arrays.asList(snapshot.users));
+            for (Change change : log.subMap(snapshot.version, false, now, true).values()) {
+                if (change.joined) {
+                    users.add(change.username);
+                } else {
+                    users.remove(change.username);
+                }
+            }
+            snapshot = new Snapshot(now, users.toArray(new String[0]));
+            latest = snapshot;
+            // Only changes the snapshot already includes are ever dropped.
+            log.headMap(now - history, true).clear();
+            return snapshot;
+        }
+    }
+
+    private void record(String username, boolean joined)
+    {
+        log.put(lastVersion.incrementAndGet(), new Change(username, joined));
+    }
+
+    /**
+     * Moves the published version past every change now in the log without
+     * a gap before it. Versions are handed out in one order and logged in
+     * another, so a change can't be seen until all before it are logged.
+     */
+    private void publish()
+    {
+        long version;
+        while (log.containsKey((version = published.get()) + 1)) {
+            published.compareAndSet(version, version + 1);
+        }
+        if (log.size() > 2 * history) {
+            // Nobody has asked for a while; trim the log anyway.
+            snapshot();
+        }
+    }
+
+    private static final class Change
+    {
+        final String username;
+        final boolean joined;
+
+        Change(String username, boolean joined)
+        {
+            this.username = username;
+            this.joined = joined;
+        }
+    }
+
+    private static final class Snapshot
+    {
+        final long version;
+        final String[] users;
+
+        Snapshot(long version, String[] users)
+        {
+            this.version = version;
+            this.users = users;
+        }
+    }
+}
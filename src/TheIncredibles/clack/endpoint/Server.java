@@ -0,0 +1,347 @@
+package TheIncredibles.clack.endpoint;
+
+import TheIncredibles.clack.message.FileChunkMessage;
+import TheIncredibles.clack.message.FileMessage;
+import TheIncredibles.clack.message.FileOfferMessage;
+import TheIncredibles.clack.message.FileOfferReplyMessage;
+import TheIncredibles.clack.message.ListUsersMessage;
+import TheIncredibles.clack.message.LogoutMessage;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+import TheIncredibles.clack.message.TextMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A non-blocking Clack server. A small, fixed pool of event-loop threads
+ * serves every client: each loop has its own Selector, and new connections
+ * are handed to the loops in turn. No thread is ever tied to a connection,
+ * and an idle connection holds no buffers, so one server can keep tens of
+ * thousands of clients connected.
+ *
+ * Messages arrive as MessageCodec frames and are passed to received(), on
+ * the thread of the client's loop. By default the server relays text and
+ * files to every other client, encoding each message only once, answers
+ * LIST USERS from its PresenceRegistry, and closes a client's connection
+ * when it logs out. Subclasses may override received(), opened() and
+ * closed() to do more; they must not block, since a blocked loop stalls
+ * all of its clients.
+ */
+public class Server implements Closeable
+{
+    /**
+     * Number of event loops used if none is given: one per processor.
+     */
+    public static final int DEFAULT_EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Most bytes of frames that have only partly arrived that the server
+     * holds at once, across all clients: 256 MiB. A client whose frame
+     * would need more is disconnected.
+     */
+    public static final long MAX_PARTIAL_BYTES = 256L * 1024 * 1024;
+
+    // How long to stop accepting after accept() fails, e.g. when out of file descriptors.
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+    private final int port;
+    private final EventLoop[] loops;
+    private final MessageCodec codec = new MessageCodec();
+    private final Set<ServerSession> sessions = ConcurrentHashMap.newKeySet();
+    private final PresenceRegistry presence = new PresenceRegistry();
+    private final ByteBudget partialBytes = new ByteBudget(MAX_PARTIAL_BYTES);
+    private ServerSocketChannel serverChannel;
+    private int nextLoop;
+
+    /**
+     * Constructs a Server. It does not listen until start() is called.
+     *
+     * @param port the port to listen on, or 0 for any free port.
+     * @param eventLoops number of event-loop threads.
+     * @throws IllegalArgumentException if eventLoops is not positive.
+     * @throws IOException if a loop's Selector can't be opened.
+     */
+    public Server(int port, int eventLoops) throws IOException
+    {
+        if (eventLoops <= 0) {
+            throw new IllegalArgumentException("eventLoops must be positive");
+        }
+        this.port = port;
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            this.loops[i] = new EventLoop("clack-server-loop-" + i);
+        }
+    }
+
+    /**
+     * Constructs a Server with DEFAULT_EVENT_LOOPS event loops.
+     *
+     * @param port the port to listen on, or 0 for any free port.
+     * @throws IOException if a loop's Selector can't be opened.
+     */
+    public Server(int port) throws IOException
+    {
+        this(port, DEFAULT_EVENT_LOOPS);
+    }
+
+    /**
+     * Constructs a Server on the port clients connect to by default.
+     *
+     * @throws IOException if a loop's Selector can't be opened.
+     */
+    public Server() throws IOException
+    {
+        this(Client.DEFAULT_SERVER_PORT);
+    }
+
+    /**
+     * Starts listening and serving clients. Returns as soon as the server
+     * is listening; the event loops run on their own threads.
+     *
+     * @throws IOException if the port can't be bound.
+     * @throws IllegalStateException if the server has already been started.
+     */
+    public synchronized void start() throws IOException
+    {
+        if (serverChannel != null) {
+            throw new IllegalStateException("server already started");
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        // The loops aren't running yet, so the first one's Selector can be used directly.
+        serverChannel.register(loops[0].selector(), SelectionKey.OP_ACCEPT, new EventLoop.Handler()
+        {
+            @Override
+            public void ready(SelectionKey key)
+            {
+                accept(key);
+            }
+
+            @Override
+            public void close()
+            {
+                try {
+                    serverChannel.close();
+                } catch (IOException e) {
+                    // Shutting down anyway.
+                }
+            }
+        });
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * Get the port the server listens on.
+     *
+     * @return the bound port once started, otherwise the port given.
+     */
+    public int getPort()
+    {
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+            }
+        } catch (IOException e) {
+            // Fall through to the configured port.
+        }
+        return port;
+    }
+
+    /**
+     * Get the sessions of the clients now connected.
+     *
+     * @return a live, unmodifiable view of the sessions.
+     */
+    public Set<ServerSession> getSessions()
+    {
+        return Collections.unmodifiableSet(sessions);
+    }
+
+    /**
+     * Get the registry of users online, which answers LIST USERS.
+     *
+     * @return the server's presence registry.
+     */
+    public PresenceRegistry getPresence()
+    {
+        return presence;
+    }
+
+    /**
+     * Get the codec that encodes and decodes every client's frames.
+     *
+     * @return the server's codec.
+     */
+    public MessageCodec getCodec()
+    {
+        return codec;
+    }
+
+    ByteBudget partialBytes()
+    {
+        return partialBytes;
+    }
+
+    /**
+     * Stops the server: stops listening, closes every client's connection
+     * and waits for the event loops to end.
+     */
+    @Override
+    public void close()
+    {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * Sends a message to every connected client but one. The message is
+     * encoded once, and every client's queue gets a view of the same
+     * bytes, so the cost is one encode however many clients there are.
+     * Only clients that take compressed frames get it encoded for them alone.
+     *
+     * @param message the message to send.
+     * @param except a session to leave out, e.g. the sender's; or null for none.
+     * @return the number of sessions the message was queued for.
+     */
+    public int broadcast(Message message, ServerSession except)
+    {
+        SharedFrame frame = SharedFrame.encode(codec, message);
+        int count = 0;
+        try {
+            for (ServerSession session : sessions) {
+                if (session != except) {
+                    session.enqueue(frame, message);
+                    count++;
+                }
+            }
+        } finally {
+            frame.release();
+        }
+        return count;
+    }
+
+    /**
+     * Handles a message from a client. By default, text and files (whole
+     * or in chunks), file offers and the replies to them are relayed to
+     * every other client, a LIST USERS request
+     * is answered from the presence registry, and a LogoutMessage closes
+     * the client's connection. Runs on the client's event loop.
+     *
+     * @param session the client's session.
+     * @param message the message it sent.
+     */
+    protected void received(ServerSession session, Message message)
+    {
+        if (message instanceof LogoutMessage) {
+            session.closeAfterFlush();
+        } else if (message instanceof ListUsersMessage && ((ListUsersMessage) message).isRequest()) {
+            session.send(presence.answer((ListUsersMessage) message));
+        } else if (message instanceof TextMessage || message instanceof FileMessage
+                   || message instanceof FileChunkMessage || message instanceof FileOfferMessage
+                   || message instanceof FileOfferReplyMessage) {
+            broadcast(message, session);
+        }
+    }
+
+    /**
+     * Called when a client has connected, on its event loop.
+     *
+     * @param session the new client's session.
+     */
+    protected void opened(ServerSession session)
+    {
+    }
+
+    /**
+     * Called when a client's connection has closed, on its event loop.
+     *
+     * @param session the departed client's session.
+     */
+    protected void closed(ServerSession session)
+    {
+    }
+
+    void sessionOpened(ServerSession session)
+    {
+        sessions.add(session);
+        opened(session);
+    }
+
+    void sessionClosed(ServerSession session)
+    {
+        sessions.remove(session);
+        if (session.getUsername() != null) {
+            presence.leave(session.getUsername());
+        }
+        closed(session);
+    }
+
+    void dispatch(ServerSession session, Message message)
+    {
+        if (session.getUsername() == null && message.getUsername() != null) {
+            session.setUsername(message.getUsername());
+            presence.join(message.getUsername());
+        }
+        received(session, message);
+    }
+
+    /**
+     * Accepts every pending connection and hands each to the next loop.
+     * Runs on the first loop. If accepting fails, the connections left
+     * waiting would make the key ready again at once, so accepting stops
+     * for a moment rather than spin.
+     */
+    private void accept(SelectionKey key)
+    {
+        SocketChannel channel;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    EventLoop loop = loops[nextLoop];
+                    nextLoop = (nextLoop + 1) % loops.length;
+                    ServerSession session = new ServerSession(this, loop, channel);
+                    loop.execute(session::register);
+                } catch (IOException e) {
+                    channel.close();
+                }
+            }
+        } catch (IOException e) {
+            // Most likely out of file descriptors; give some a chance to be closed.
+            key.interestOps(0);
+            loops[0].schedule(() -> {
+                if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_ACCEPT);
+                }
+            }, ACCEPT_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * Runs a server until the process is killed.
+     *
+     * @param args optionally, the port to listen on.
+     * @throws IOException if the server can't start.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : Client.DEFAULT_SERVER_PORT;
+        Server server = new Server(port);
+        server.start();
+        System.out.println("Clack server listening on port " + server.getPort());
+    }
+}
@@ -0,0 +1,427 @@
+package TheIncredibles.clack.endpoint;
+
+import TheIncredibles.clack.message.CompressionContext;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One client's connection to a Server. Its channel belongs to one of the
+ * server's event loops, which does all reading and writing; send() and
+ * close() may be called from any thread.
+ *
+ * Outgoing frames wait in a queue until the loop writes them, several at
+ * a time with one gathering write. A frame broadcast to many sessions is
+ * encoded once and shared: each queue holds only a view of it. A client
+ * that stops reading, so that more than MAX_QUEUED_BYTES pile up behind
+ * a frame not yet written, is disconnected rather than allowed to use up
+ * the server's memory.
+ *
+ * A client that sends a compressed frame gets a CompressionContext of its
+ * own, and from then on is sent compressed frames too: messages worth
+ * compressing are encoded for it alone rather than shared. Clients that
+ * never send one cost no compression memory.
+ */
+public final class ServerSession
+{
+    /**
+     * Most bytes that may wait to be written to one client: 4 MiB. A
+     * larger frame is still sent if nothing is waiting ahead of it.
+     */
+    public static final long MAX_QUEUED_BYTES = 4L * 1024 * 1024;
+
+    /**
+     * Longest frame a client may send: 64 MiB. Larger files should be
+     * sent in chunks.
+     */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    // Most frames handed to one gathering write.
+    private static final int MAX_GATHER = 64;
+    // Smallest buffer kept for a frame that has partly arrived.
+    private static final int MIN_PARTIAL = 1024;
+
+    private final Server server;
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final SocketAddress remoteAddress;
+    private final Queue<Outgoing> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile String username;
+    private volatile boolean closed;
+    // Set by the loop thread once the client sends a compressed frame; locked while deflating.
+    private volatile CompressionContext compression;
+
+    // Loop thread only.
+    private SelectionKey key;
+    private ByteBuffer partial;
+    private boolean closeWhenFlushed;
+
+    ServerSession(Server server, EventLoop loop, SocketChannel channel) throws IOException
+    {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.remoteAddress = channel.getRemoteAddress();
+    }
+
+    /**
+     * Sends a message to the client.
+     *
+     * @param message the message to send.
+     */
+    public void send(Message message)
+    {
+        CompressionContext context = compression;
+        if (server.getCodec().compresses(message, context)) {
+            sendCompressed(message, context);
+        } else {
+            enqueue(SharedFrame.encode(server.getCodec(), message));
+        }
+    }
+
+    /**
+     * Get the name of the user at the other end: the username of the
+     * first message the client sent.
+     *
+     * @return the username, or null if the client hasn't sent anything yet.
+     */
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * Get the address of the client.
+     *
+     * @return the client's address.
+     */
+    public SocketAddress getRemoteAddress()
+    {
+        return remoteAddress;
+    }
+
+    /**
+     * Whether the connection is still open.
+     *
+     * @return false once the session has been closed, by either end.
+     */
+    public boolean isOpen()
+    {
+        return !closed;
+    }
+
+    /**
+     * Closes the connection at once, dropping anything not yet written.
+     */
+    public void close()
+    {
+        if (loop.inLoop()) {
+            closeNow();
+        } else {
+            loop.execute(this::closeNow);
+        }
+    }
+
+    /**
+     * Closes the connection once everything already sent has been written.
+     */
+    public void closeAfterFlush()
+    {
+        loop.execute(() -> {
+            closeWhenFlushed = true;
+            if (!flushScheduled.get()) {
+                closeNow();
+            }
+        });
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ServerSession{username=" + username + ", remoteAddress=" + remoteAddress + "}";
+    }
+
+    /**
+     * Queues a view of a shared frame for writing. This takes over one of
+     * the caller's references to the frame, and releases it once the view
+     * has been written, or dropped because the session closed.
+     *
+     * @param frame the frame to send.
+     */
+    void enqueue(SharedFrame frame)
+    {
+        if (closed) {
+            frame.release();
+            return;
+        }
+        long queued = queuedBytes.addAndGet(frame.length());
+        // A frame with nothing ahead of it is always taken, however large:
+        // only a client that falls behind is cut off.
+        if (queued > MAX_QUEUED_BYTES && queued > frame.length()) {
+            frame.release();
+            close();
+            return;
+        }
+        writeQueue.add(new Outgoing(frame));
+        if (closed) {
+            // Closed meanwhile, perhaps after closeNow() emptied the queue.
+            releaseQueued();
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    /**
+     * Queues a broadcast frame, or, if this client takes compressed frames
+     * and the message is worth compressing, the message compressed for this
+     * session alone. Unlike enqueue(SharedFrame), this leaves the caller's
+     * reference to the frame alone.
+     *
+     * @param frame the message, encoded for every session.
+     * @param message the message itself.
+     */
+    void enqueue(SharedFrame frame, Message message)
+    {
+        CompressionContext context = compression;
+        if (server.getCodec().compresses(message, context)) {
+            sendCompressed(message, context);
+        } else {
+            enqueue(frame.retain());
+        }
+    }
+
+    /**
+     * Registers the channel with the loop. Runs on the loop thread.
+     */
+    void register()
+    {
+        try {
+            key = channel.register(loop.selector(), SelectionKey.OP_READ, new EventLoop.Handler()
+            {
+                @Override
+                public void ready(SelectionKey key)
+                {
+                    ServerSession.this.ready(key);
+                }
+
+                @Override
+                public void close()
+                {
+                    closeNow();
+                }
+            });
+        } catch (IOException e) {
+            closeNow();
+            return;
+        }
+        server.sessionOpened(this);
+    }
+
+    void setUsername(String username)
+    {
+        this.username = username;
+    }
+
+    private void ready(SelectionKey key)
+    {
+        try {
+            if (key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            closeNow();
+        }
+    }
+
+    private void read() throws IOException
+    {
+        ByteBuffer buf = partial;
+        if (buf == null) {
+            buf = loop.readBuffer();
+            buf.clear();
+        }
+        if (channel.read(buf) < 0) {
+            closeNow();
+            return;
+        }
+        buf.flip();
+        Message message;
+        while (!closed && (message = decode(buf)) != null) {
+            server.dispatch(this, message);
+        }
+        keepRest(buf);
+    }
+
+    private Message decode(ByteBuffer buf) throws ProtocolException
+    {
+        if (compression == null && MessageCodec.isCompressedFrame(buf)) {
+            compression = new CompressionContext();
+        }
+        return server.getCodec().decode(buf, compression);
+    }
+
+    private void sendCompressed(Message message, CompressionContext context)
+    {
+        // The client inflates frames in the order they arrive, so they are queued in the order they were deflated.
+        synchronized (context) {
+            if (!closed) {
+                enqueue(SharedFrame.encode(server.getCodec(), message, context));
+            }
+        }
+    }
+
+    /**
+     * Keeps the start of a frame left over after decoding, in a buffer of
+     * this session's own. The buffer grows with what has arrived, at most
+     * doubling each time, so a client can't make the server set aside a
+     * large frame's worth of memory just by sending its length.
+     */
+    private void keepRest(ByteBuffer buf) throws ProtocolException
+    {
+        if (closed || !buf.hasRemaining()) {
+            dropPartial();
+            return;
+        }
+        // decode() has checked the length, if there are enough bytes to hold one.
+        long needed = (buf.remaining() >= Integer.BYTES)
+                      ? Integer.BYTES + (long) buf.getInt(buf.position())
+                      : MIN_PARTIAL;
+        if (needed > Integer.BYTES + (long) MAX_FRAME_LENGTH) {
+            throw new ProtocolException("frame too large: " + (needed - Integer.BYTES));
+        }
+        int size = (int) Math.min(needed, Math.max(MIN_PARTIAL, 2L * buf.remaining()));
+        if (buf == partial && buf.capacity() >= size && buf.capacity() <= 4L * Math.max(size, MIN_PARTIAL)) {
+            buf.compact();
+            return;
+        }
+        if (!server.partialBytes().reserve(size)) {
+            throw new ProtocolException("server is out of buffer space");
+        }
+        ByteBuffer next = ByteBuffer.allocate(size);
+        next.put(buf);
+        dropPartial();
+        partial = next;
+    }
+
+    private void dropPartial()
+    {
+        if (partial != null) {
+            server.partialBytes().release(partial.capacity());
+            partial = null;
+        }
+    }
+
+    /**
+     * Writes queued frames until the queue is empty or the socket is full.
+     * Runs on the loop thread.
+     */
+    private void flush()
+    {
+        if (closed) {
+            return;
+        }
+        ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        try {
+            while (true) {
+                int count = 0;
+                for (Iterator<Outgoing> it = writeQueue.iterator(); it.hasNext() && count < MAX_GATHER; ) {
+                    gather[count++] = it.next().view;
+                }
+                if (count > 0) {
+                    queuedBytes.addAndGet(-channel.write(gather, 0, count));
+                    int written = 0;
+                    while (written < count && !gather[written].hasRemaining()) {
+                        writeQueue.poll().frame.release();
+                        written++;
+                    }
+                    if (written < count) {
+                        // The socket is full; wait until it can take more.
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    continue;
+                }
+                flushScheduled.set(false);
+                if (writeQueue.isEmpty() || !flushScheduled.compareAndSet(false, true)) {
+                    // Nothing more to write, or another thread has scheduled the next flush.
+                    key.interestOps(SelectionKey.OP_READ);
+                    if (closeWhenFlushed) {
+                        closeNow();
+                    }
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    private void closeNow()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Closing anyway; nothing more to do.
+        }
+        dropPartial();
+        releaseQueued();
+        queuedBytes.set(0);
+        CompressionContext context = compression;
+        if (context != null) {
+            synchronized (context) {
+                context.close();
+            }
+        }
+        if (key != null) {
+            server.sessionClosed(this);
+        }
+    }
+
+    private void releaseQueued()
+    {
+        Outgoing out;
+        while ((out = writeQueue.poll()) != null) {
+            out.frame.release();
+        }
+    }
+
+    /**
+     * A queued frame, and this session's own view of it.
+     */
+    private static final class Outgoing
+    {
+        final SharedFrame frame;
+        final ByteBuffer view;
+
+        Outgoing(SharedFrame frame)
+        {
+            this.frame = frame;
+            this.view = frame.view();
+        }
+    }
+}
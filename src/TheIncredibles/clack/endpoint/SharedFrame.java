@@ -0,0 +1,128 @@
+package TheIncredibles.clack.endpoint;
+
+import TheIncredibles.clack.message.BufferPool;
+import TheIncredibles.clack.message.CompressionContext;
+import TheIncredibles.clack.message.Message;
+import TheIncredibles.clack.message.MessageCodec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One encoded frame shared by many recipients. The message is encoded
+ * once; each recipient writes from a read-only view() of the same bytes,
+ * with its own position, so sending to N clients costs one encode and N
+ * small view objects rather than N encodes and N buffers.
+ *
+ * The frame's buffer comes from the codec's pool and goes back to it when
+ * the last reference is released. Whoever queues a view must hold a
+ * reference for it (retain()) and release it once the view is written or
+ * dropped; the reference the frame starts with belongs to its creator.
+ */
+public final class SharedFrame
+{
+    private final ByteBuffer frame;
+    private final BufferPool pool;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private SharedFrame(ByteBuffer frame, BufferPool pool)
+    {
+        this.frame = frame;
+        this.pool = pool;
+    }
+
+    /**
+     * Encodes a message into a frame with one reference, held by the caller.
+     *
+     * @param codec encodes the message, and supplies the buffer.
+     * @param message the message to encode.
+     * @return the frame.
+     * @throws IllegalArgumentException if the message is of an unknown subclass.
+     */
+    public static SharedFrame encode(MessageCodec codec, Message message)
+    {
+        return new SharedFrame(codec.encode(message), codec.getPool());
+    }
+
+    /**
+     * Encodes a message into a frame with one reference, held by the caller,
+     * compressing it with one connection's compression context if the codec
+     * finds it worth compressing. Such a frame is fit only for that connection.
+     *
+     * @param codec encodes the message, and supplies the buffer.
+     * @param message the message to encode.
+     * @param context the sending side of the connection's compression context.
+     * @return the frame.
+     * @throws IllegalArgumentException if the message is of an unknown subclass.
+     */
+    public static SharedFrame encode(MessageCodec codec, Message message, CompressionContext context)
+    {
+        return new SharedFrame(codec.encode(message, context), codec.getPool());
+    }
+
+    /**
+     * Adds a reference, for a new holder of the frame.
+     *
+     * @return this frame.
+     * @throws IllegalStateException if the frame has already been freed.
+     */
+    public SharedFrame retain()
+    {
+        int old;
+        do {
+            old = refs.get();
+            if (old <= 0) {
+                throw new IllegalStateException("frame already released");
+            }
+        } while (!refs.compareAndSet(old, old + 1));
+        return this;
+    }
+
+    /**
+     * Drops a reference. When the last one goes, the buffer is given back
+     * to the pool, and no view of it may be used again.
+     *
+     * @throws IllegalStateException if every reference has already been dropped.
+     */
+    public void release()
+    {
+        int left = refs.decrementAndGet();
+        if (left == 0) {
+            pool.release(frame);
+        } else if (left < 0) {
+            refs.incrementAndGet();
+            throw new IllegalStateException("frame already released");
+        }
+    }
+
+    /**
+     * Get a read-only view of the frame's bytes with its own position and
+     * limit. Valid only while the caller holds a reference.
+     *
+     * @return a view of the whole frame, between position and limit.
+     */
+    public ByteBuffer view()
+    {
+        return frame.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the length of the frame, including its length prefix.
+     *
+     * @return the frame's length in bytes.
+     */
+    public int length()
+    {
+        return frame.remaining();
+    }
+
+    /**
+     * Get the number of references now held.
+     *
+     * @return the reference count; 0 once the frame has been freed.
+     */
+    public int refCount()
+    {
+        return refs.get();
+    }
+}
@@ -0,0 +1,294 @@
+package TheIncredibles.clack.message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes files off the calling thread, so a receive loop never waits
+ * for the disk, and atomically, so no reader ever sees a file half
+ * written.
+ *
+ * Each file is written to a temp file beside its target: the temp file
+ * is first set to its final length, then written in large blocks through
+ * an AsynchronousFileChannel, forced to disk once at the end, and finally
+ * renamed over the target in one atomic step. If anything fails, the temp
+ * file is deleted and the target is left as it was.
+ *
+ * All of this runs on the writer's own I/O threads. write() only hands
+ * the job over and returns a future that completes with the target path.
+ */
+public class AsyncFileWriter implements Closeable
+{
+    /**
+     * Block size used if none is given: 1 MiB.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final int blockSize;
+    // Files given to write() and not yet in place (or failed).
+    private final Set<CompletableFuture<Path>> pending = ConcurrentHashMap.newKeySet();
+    private boolean closed;
+
+    /**
+     * Constructs an AsyncFileWriter.
+     *
+     * @param threads number of I/O threads, i.e. most files written at once.
+     * @param blockSize most bytes in one write.
+     * @throws IllegalArgumentException if threads or blockSize is not positive.
+     */
+    public AsyncFileWriter(int threads, int blockSize)
+    {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.blockSize = blockSize;
+        this.executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "clack-file-writer-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Constructs an AsyncFileWriter with one I/O thread and DEFAULT_BLOCK_SIZE blocks.
+     */
+    public AsyncFileWriter()
+    {
+        this(1, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Get the writer shared by FileMessage.writeFile() and writeFileBytes().
+     * It is never closed; its thread is a daemon.
+     *
+     * @return the shared writer.
+     */
+    public static AsyncFileWriter getDefault()
+    {
+        return DefaultHolder.WRITER;
+    }
+
+    /**
+     * Writes bytes to a file, replacing it if it exists.
+     *
+     * @param target the file to write.
+     * @param contents the bytes between position and limit; these are
+     * not copied, so the caller must not change them until the future completes.
+     * @return a future that completes with target once the file is in place,
+     * or exceptionally with the IOException that stopped it.
+     * @throws IllegalStateException if the writer has been closed.
+     */
+    public CompletableFuture<Path> write(Path target, ByteBuffer contents)
+    {
+        CompletableFuture<Path> done = new CompletableFuture<>();
+        ByteBuffer src = contents.duplicate();
+        submit(done, () -> new Job(target, done).start(src));
+        return done;
+    }
+
+    /**
+     * Writes a string to a file as UTF-8, replacing the file if it exists.
+     * The string is encoded on the I/O thread.
+     *
+     * @param target the file to write.
+     * @param contents the text to write.
+     * @return a future that completes with target once the file is in place,
+     * or exceptionally with the IOException that stopped it.
+     * @throws IllegalStateException if the writer has been closed.
+     */
+    public CompletableFuture<Path> write(Path target, String contents)
+    {
+        CompletableFuture<Path> done = new CompletableFuture<>();
+        submit(done, () -> new Job(target, done).start(ByteBuffer.wrap(contents.getBytes(StandardCharsets.UTF_8))));
+        return done;
+    }
+
+    /**
+     * Get the most bytes written in one write.
+     *
+     * @return the block size, in bytes.
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * Stops accepting files and waits for those already given to be written.
+     * Failed writes are reported through their own futures, not here.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this) {
+            closed = true;
+        }
+        // Jobs still need the executor for their remaining blocks, so let them finish first.
+        for (CompletableFuture<Path> done : pending) {
+            done.exceptionally(e -> null).join();
+        }
+        executor.shutdown();
+    }
+
+    private synchronized void submit(CompletableFuture<Path> done, Runnable task)
+    {
+        if (closed) {
+            throw new IllegalStateException("writer is closed");
+        }
+        pending.add(done);
+        done.whenComplete((path, e) -> pending.remove(done));
+        executor.execute(task);
+    }
+
+    /**
+     * Writing one file: each block's completion starts the next, so there is
+     * only ever one write outstanding and the I/O thread is never blocked.
+     */
+    private final class Job implements CompletionHandler<Integer, ByteBuffer>
+    {
+        private final Path target;
+        private final CompletableFuture<Path> done;
+        private Path temp;
+        private AsynchronousFileChannel channel;
+        private long position;
+
+        Job(Path target, CompletableFuture<Path> done)
+        {
+            this.target = target;
+            this.done = done;
+        }
+
+        void start(ByteBuffer src)
+        {
+            try {
+                Path dir = target.toAbsolutePath().getParent();
+                temp = createTemp(dir, target.getFileName().toString());
+                // Set the final length first, so the block writes never have to grow the file.
+                try (RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw")) {
+                    file.setLength(src.remaining());
+                }
+                channel = AsynchronousFileChannel.open(temp, Set.of(StandardOpenOption.WRITE), executor);
+                next(src);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void next(ByteBuffer src)
+        {
+            if (!src.hasRemaining()) {
+                finish();
+                return;
+            }
+            ByteBuffer block = src.duplicate();
+            block.limit(block.position() + Math.min(blockSize, block.remaining()));
+            try {
+                channel.write(block, position, src, this);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void completed(Integer written, ByteBuffer src)
+        {
+            position += written;
+            src.position(src.position() + written);
+            next(src);
+        }
+
+        @Override
+        public void failed(Throwable e, ByteBuffer src)
+        {
+            fail(e);
+        }
+
+        private void finish()
+        {
+            try {
+                channel.force(true);
+                channel.close();
+                copyPermissions(target, temp);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                done.complete(target);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable e)
+        {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Creates an empty file to write into, named after the target. Unlike
+     * Files.createTempFile(), which makes the file readable by its owner
+     * only, this gives it the same permissions a plain write would: the
+     * defaults left by the umask.
+     */
+    private static Path createTemp(Path dir, String name) throws IOException
+    {
+        while (true) {
+            String suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+            try {
+                return Files.createFile(dir.resolve("." + name + "." + suffix + ".tmp"));
+            } catch (FileAlreadyExistsException e) {
+                // Try another name.
+            }
+        }
+    }
+
+    /**
+     * Gives temp the permissions of the file it is about to replace, if
+     * there is one and the file system has POSIX permissions.
+     */
+    private static void copyPermissions(Path target, Path temp) throws IOException
+    {
+        try {
+            Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+        } catch (NoSuchFileException | UnsupportedOperationException e) {
+            // Nothing to replace, or no permissions to copy; keep the defaults.
+        }
+    }
+
+    private static final class DefaultHolder
+    {
+        static final AsyncFileWriter WRITER = new AsyncFileWriter();
+    }
+}
@@ -0,0 +1,104 @@
+package TheIncredibles.clack.message;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of same-sized ByteBuffers, so that encoding and sending messages
+ * doesn't allocate a new buffer each time. Buffers are handed out by
+ * acquire() and given back with release() once their contents have been
+ * sent. A request for more than the pool's buffer size gets a buffer of
+ * its own, which release() then simply drops.
+ *
+ * All methods are thread-safe.
+ */
+public class BufferPool
+{
+    /**
+     * Size of pooled buffers if none is given.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * Most buffers kept in the pool if no limit is given.
+     */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    private final int bufferSize;
+    private final boolean direct;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+
+    /**
+     * Constructs a BufferPool.
+     *
+     * @param bufferSize capacity of each pooled buffer, in bytes.
+     * @param maxPooled most buffers to keep for reuse; more can be handed out.
+     * @param direct whether to allocate direct (off-heap) buffers.
+     * @throws IllegalArgumentException if bufferSize or maxPooled is not positive.
+     */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct)
+    {
+        if (bufferSize <= 0 || maxPooled <= 0) {
+            throw new IllegalArgumentException("bufferSize and maxPooled must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Constructs a BufferPool of DEFAULT_MAX_POOLED heap buffers
+     * of DEFAULT_BUFFER_SIZE bytes.
+     */
+    public BufferPool()
+    {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED, false);
+    }
+
+    /**
+     * Gets an empty buffer (position 0, limit = capacity) with room for
+     * at least minCapacity bytes.
+     *
+     * @param minCapacity number of bytes the caller needs.
+     * @return a pooled buffer, or a new one if minCapacity is bigger
+     * than the pool's buffer size.
+     */
+    public ByteBuffer acquire(int minCapacity)
+    {
+        if (minCapacity > this.bufferSize) {
+            return allocate(minCapacity);
+        }
+        ByteBuffer buf = this.free.poll();
+        return (buf != null) ? buf : allocate(this.bufferSize);
+    }
+
+    /**
+     * Gives a buffer back to the pool. The caller must not use it
+     * afterwards. Buffers that didn't come from this pool, and buffers
+     * beyond the pool's limit, are left for the garbage collector.
+     *
+     * @param buf the buffer to give back.
+     */
+    public void release(ByteBuffer buf)
+    {
+        if (buf.capacity() == this.bufferSize && buf.isDirect() == this.direct && !buf.isReadOnly()) {
+            buf.clear();
+            this.free.offer(buf);
+        }
+    }
+
+    /**
+     * Get the capacity of the pooled buffers.
+     *
+     * @return capacity of each pooled buffer, in bytes.
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    private ByteBuffer allocate(int capacity)
+    {
+        return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
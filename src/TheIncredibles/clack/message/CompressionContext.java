@@ -0,0 +1,172 @@
+package TheIncredibles.clack.message;
+
+import java.io.Closeable;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compression state of one connection, for compressing the payloads of
+ * TextMessages, FileMessages and ListUsersMessages with
+ * MessageCodec.encode(Message, CompressionContext).
+ *
+ * Each end of a connection keeps one CompressionContext for as long as the
+ * connection is open. Its Deflater compresses every outgoing payload as part
+ * of one continuous stream, flushed after each message, and its Inflater
+ * does the same for incoming ones. Because the stream isn't restarted for
+ * each message, a short chat line can refer back to text in earlier lines,
+ * and so compresses far better than it would on its own. For the same
+ * reason, frames must be decoded in the order they were encoded, and none
+ * may be skipped.
+ *
+ * Payloads shorter than the threshold are sent uncompressed and don't
+ * touch the stream.
+ *
+ * Compressing and decompressing each hold their own lock, so one thread can
+ * send while another receives.
+ */
+public class CompressionContext implements Closeable
+{
+    /**
+     * Smallest payload compressed if no threshold is given, in bytes.
+     */
+    public static final int DEFAULT_THRESHOLD = 32;
+
+    private final int threshold;
+    private final Deflater deflater;
+    private final Inflater inflater;
+
+    /**
+     * Constructs a CompressionContext.
+     *
+     * @param threshold smallest payload to compress, in bytes.
+     * @param level Deflater compression level, 0-9 or Deflater.DEFAULT_COMPRESSION.
+     * @throws IllegalArgumentException if threshold is negative or level is invalid.
+     */
+    public CompressionContext(int threshold, int level)
+    {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        this.threshold = threshold;
+        // Raw deflate, no zlib header or checksum: the frame length already guards each message.
+        this.deflater = new Deflater(level, true);
+        this.inflater = new Inflater(true);
+    }
+
+    /**
+     * Constructs a CompressionContext with DEFAULT_THRESHOLD and the
+     * default compression level.
+     */
+    public CompressionContext()
+    {
+        this(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Get the smallest payload that is compressed.
+     *
+     * @return the threshold, in bytes.
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Get the number of payload bytes compressed so far.
+     *
+     * @return uncompressed bytes sent.
+     */
+    public long getBytesIn()
+    {
+        synchronized (deflater) {
+            return deflater.getBytesRead();
+        }
+    }
+
+    /**
+     * Get the number of compressed bytes they were compressed to.
+     *
+     * @return compressed bytes sent.
+     */
+    public long getBytesOut()
+    {
+        synchronized (deflater) {
+            return deflater.getBytesWritten();
+        }
+    }
+
+    /**
+     * Frees the Deflater's and Inflater's native memory. The context can't
+     * be used afterwards.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (deflater) {
+            deflater.end();
+        }
+        synchronized (inflater) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Room needed to compress length bytes. Deflate never grows data by more
+     * than a few bytes per 16 KiB (stored blocks), plus the flush marker.
+     */
+    static int maxCompressedLength(int length)
+    {
+        return length + (length >> 8) + 64;
+    }
+
+    /**
+     * Compresses all of src into dst and flushes, so that the other end can
+     * decompress everything written so far.
+     *
+     * @throws IllegalStateException if dst is smaller than maxCompressedLength(src.remaining()).
+     */
+    void compress(ByteBuffer src, ByteBuffer dst)
+    {
+        synchronized (deflater) {
+            deflater.setInput(src);
+            int room = dst.remaining();
+            if (deflater.deflate(dst, Deflater.SYNC_FLUSH) == room) {
+                throw new IllegalStateException("no room for compressed payload");
+            }
+        }
+    }
+
+    /**
+     * Decompresses all of src, which must give exactly dst.remaining() bytes.
+     *
+     * @throws ProtocolException if src is not valid compressed data, or gives
+     *         more or fewer bytes than expected.
+     */
+    void decompress(ByteBuffer src, ByteBuffer dst) throws ProtocolException
+    {
+        synchronized (inflater) {
+            inflater.setInput(src);
+            try {
+                while (dst.hasRemaining()) {
+                    if (inflater.inflate(dst) == 0
+                        && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                        throw new ProtocolException("compressed payload shorter than its length");
+                    }
+                }
+                // Consume the rest of src (the flush marker); it mustn't give any more bytes.
+                ByteBuffer extra = ByteBuffer.allocate(1);
+                while (!inflater.needsInput()) {
+                    if (inflater.inflate(extra) != 0 || inflater.finished() || inflater.needsDictionary()) {
+                        throw new ProtocolException("compressed payload longer than its length");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ProtocolException("bad compressed payload: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package TheIncredibles.clack.message;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A receiver-side store of file contents, keyed by their SHA-256 hash.
+ * Each distinct content is stored once, under objects/ in the store's
+ * directory, and saving a file under its fileSaveAsName copies it from
+ * there. So a sender that first asks with a FileOfferMessage need not send
+ * content already received at all.
+ * <p>
+ * Saved files are copies rather than links to the stored content, with
+ * the permissions any new file gets, so the user may change them freely
+ * without changing what the store hands out under their hash. Stored
+ * contents themselves are made read-only.
+ * <p>
+ * Contents are first written to a temp file in the store's tmp/ directory,
+ * then moved into place, so a stored content is always complete. Several
+ * threads (or processes) may share one store.
+ */
+public class ContentStore
+{
+    /**
+     * Default store directory, relative to the local Clack directory.
+     */
+    public static final String DEFAULT_DIRECTORY = ".clack-store";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path objects;
+    private final Path tmp;
+
+    /**
+     * Constructs a ContentStore in the given directory, creating it if needed.
+     *
+     * @param directory the store's directory.
+     * @throws IOException if the directory can't be created.
+     */
+    public ContentStore(Path directory) throws IOException
+    {
+        this.objects = Files.createDirectories(directory.resolve("objects"));
+        this.tmp = Files.createDirectories(directory.resolve("tmp"));
+    }
+
+    /**
+     * Constructs a ContentStore in DEFAULT_DIRECTORY.
+     *
+     * @throws IOException if the directory can't be created.
+     */
+    public ContentStore() throws IOException
+    {
+        this(Paths.get(DEFAULT_DIRECTORY));
+    }
+
+    /**
+     * Whether the store holds the content with the given hash.
+     *
+     * @param contentHash SHA-256 hash, in lowercase hex.
+     * @return true if the content is stored.
+     */
+    public boolean contains(String contentHash)
+    {
+        return Files.isRegularFile(objectPath(contentHash));
+    }
+
+    /**
+     * Answers a FileOfferMessage. If the offered content is stored, it is
+     * saved under the offer's fileSaveAsName and the reply says the file
+     * need not be sent.
+     *
+     * @param offer the offer to answer.
+     * @param username name of the user answering.
+     * @return the reply to send back.
+     * @throws IllegalArgumentException if the offer's fileSaveAsName is not a plain file name.
+     * @throws IOException if the content is stored but can't be saved.
+     */
+    public FileOfferReplyMessage accept(FileOfferMessage offer, String username) throws IOException
+    {
+        Path target = fileNamePath(offer.getFileSaveAsName());
+        String contentHash = offer.getContentHash();
+        boolean have = contains(contentHash)
+                       && Files.size(objectPath(contentHash)) == offer.getFileLength();
+        if (have) {
+            copyOut(contentHash, target);
+        }
+        return new FileOfferReplyMessage(username, contentHash, have);
+    }
+
+    /**
+     * Saves a FileMessage's file under its fileSaveAsName, through the
+     * store: its fileBytes if it has them, otherwise its fileContents.
+     * Does the same as writeFile() or writeFileBytes(), except that
+     * content already stored isn't written again.
+     *
+     * @param message the message whose file to save.
+     * @return the SHA-256 hash of the file's content.
+     * @throws FileNotFoundException if the message has no contents or save
+     * file name.
+     * @throws IllegalArgumentException if the save file name is not a plain file name.
+     * @throws IOException if the file can't be stored or saved.
+     */
+    public String save(FileMessage message) throws IOException
+    {
+        ByteBuffer bytes = message.getFileBytes();
+        if (bytes == null && message.getFileContents() != null) {
+            bytes = ByteBuffer.wrap(message.getFileContents().getBytes(StandardCharsets.UTF_8));
+        }
+        if (bytes == null || message.getFileSaveAsName() == null) {
+            throw new FileNotFoundException("File contents or save file name is null.");
+        }
+        Path target = fileNamePath(message.getFileSaveAsName());
+        String contentHash = put(bytes);
+        copyOut(contentHash, target);
+        return contentHash;
+    }
+
+    /**
+     * Stores a copy of a complete file, such as one written by
+     * FileChunkWriter, unless the same content is already stored. The
+     * file itself is left as it is.
+     *
+     * @param file the file to adopt.
+     * @return the SHA-256 hash of the file's content.
+     * @throws IOException if the file can't be read or stored.
+     */
+    public String adopt(Path file) throws IOException
+    {
+        String contentHash = hash(file);
+        Path object = objectPath(contentHash);
+        if (!Files.exists(object)) {
+            Files.createDirectories(object.getParent());
+            storeFrom(file, object);
+        }
+        return contentHash;
+    }
+
+    /**
+     * Stores the given bytes, unless the same content is already stored.
+     *
+     * @param bytes the content; read from position to limit, which are not changed.
+     * @return the SHA-256 hash of the content.
+     * @throws IOException if the content can't be written.
+     */
+    public String put(ByteBuffer bytes) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        digest.update(bytes.duplicate());
+        String contentHash = toHex(digest.digest());
+        Path object = objectPath(contentHash);
+        if (Files.exists(object)) {
+            return contentHash;
+        }
+        Files.createDirectories(object.getParent());
+        Path temp = Files.createTempFile(this.tmp, contentHash, null);
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer src = bytes.duplicate();
+                while (src.hasRemaining()) {
+                    out.write(src);
+                }
+            }
+            moveIntoPlace(temp, object);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return contentHash;
+    }
+
+    /**
+     * Saves a copy of the stored content with the given hash as target,
+     * replacing any file already there. The copy is written beside target
+     * and then moved over it, so target is never left half written.
+     * Since the name usually comes from another user, it must be a plain
+     * file name, saved in the local Clack directory.
+     *
+     * @param contentHash SHA-256 hash of stored content, in lowercase hex.
+     * @param target where to save the content: a plain file name.
+     * @throws IllegalArgumentException if target is absolute or has more than one component.
+     * @throws FileNotFoundException if the content isn't stored.
+     * @throws IOException if the copy can't be made.
+     */
+    public void saveAs(String contentHash, Path target) throws IOException
+    {
+        copyOut(contentHash, fileNamePath(target.toString()));
+    }
+
+    private void copyOut(String contentHash, Path target) throws IOException
+    {
+        Path object = objectPath(contentHash);
+        if (!Files.isRegularFile(object)) {
+            throw new FileNotFoundException("Content is not stored: " + contentHash);
+        }
+        // Not Files.copy(), which would give the copy the stored content's read-only permissions.
+        Path dir = target.toAbsolutePath().getParent();
+        Path temp;
+        while (true) {
+            String suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+            try {
+                temp = Files.createFile(dir.resolve("." + target.getFileName() + "." + suffix + ".tmp"));
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Try another name.
+            }
+        }
+        try {
+            try (FileChannel in = FileChannel.open(object, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                for (long position = 0; position < size; ) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Get the path of the stored content with the given hash, which
+     * needn't exist.
+     *
+     * @param contentHash SHA-256 hash, in lowercase hex.
+     * @return the content's path in the store.
+     * @throws IllegalArgumentException if contentHash isn't a SHA-256 hash in lowercase hex.
+     */
+    public Path objectPath(String contentHash)
+    {
+        if (!isHash(contentHash)) {
+            throw new IllegalArgumentException("not a SHA-256 hash: " + contentHash);
+        }
+        // Two levels, so no one directory gets too big.
+        return this.objects.resolve(contentHash.substring(0, 2)).resolve(contentHash.substring(2));
+    }
+
+    /**
+     * Whether a string is a SHA-256 hash in lowercase hex, as the store
+     * names its content.
+     *
+     * @param contentHash the string to check.
+     * @return true if contentHash is 64 lowercase hex digits.
+     */
+    public static boolean isHash(String contentHash)
+    {
+        if (contentHash == null || contentHash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < contentHash.length(); i++) {
+            char c = contentHash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Path fileNamePath(String fileSaveAsName)
+    {
+        if (!FileMessage.isFileName(fileSaveAsName)) {
+            throw new IllegalArgumentException("not a file name: " + fileSaveAsName);
+        }
+        return Paths.get(fileSaveAsName);
+    }
+
+    private void storeFrom(Path file, Path object) throws IOException
+    {
+        Path temp = Files.createTempFile(this.tmp, object.getFileName().toString(), null);
+        try {
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            moveIntoPlace(temp, object);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void moveIntoPlace(Path temp, Path object) throws IOException
+    {
+        temp.toFile().setReadOnly();
+        try {
+            Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Someone else stored the same content first; theirs will do.
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file's content.
+     *
+     * @param file the file to hash.
+     * @return the hash, in lowercase hex.
+     * @throws IOException if the file can't be read.
+     */
+    public static String hash(Path file) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
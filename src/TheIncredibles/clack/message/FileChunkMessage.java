@@ -0,0 +1,250 @@
+package TheIncredibles.clack.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+
+/**
+ * This class represents one chunk of a file that is sent in chunks,
+ * rather than whole in a FileMessage. Each chunk carries the name the
+ * file is to be saved as, where in the file its bytes belong and how
+ * long the whole file is, so the receiver can write chunks as they
+ * arrive and knows when the file is complete.
+ *
+ * Chunks are made by FileChunkReader and written by FileChunkWriter.
+ * The bytes are kept as a ByteBuffer, which for chunks read from a
+ * file is a view of a memory-mapped region rather than a copy.
+ *
+ * Each chunk also carries a CRC32C checksum of its bytes, computed by
+ * the sender, so the receiver can verify every chunk before counting it
+ * as received.
+ */
+public class FileChunkMessage extends Message
+{
+    private final String fileSaveAsName;
+    private final long offset;
+    private final long fileLength;
+    private final ByteBuffer chunk;
+    private final int checksum;
+
+    /**
+     * Constructs a FileChunkMessage object, computing the checksum of its
+     * bytes. The chunk's bytes are the ones between its position and limit;
+     * they are not copied, so the caller must not change them afterwards.
+     *
+     * @param username name of user sending the file.
+     * @param fileSaveAsName file name (no path components) to save the file as.
+     * @param offset position in the file of the chunk's first byte.
+     * @param fileLength length of the whole file, in bytes.
+     * @param chunk the chunk's bytes.
+     * @throws IllegalArgumentException if the chunk doesn't fit inside the file,
+     * or fileSaveAsName is not a plain file name.
+     */
+    public FileChunkMessage(String username, String fileSaveAsName, long offset,
+                            long fileLength, ByteBuffer chunk)
+    {
+        this(username, fileSaveAsName, offset, fileLength, chunk, checksum(chunk),
+             getClock().epochNanos(), nextSequenceNumber(username));
+    }
+
+    /**
+     * Constructs a FileChunkMessage object with a given checksum, timestamp
+     * and sequence number. Used by MessageCodec when decoding.
+     *
+     * @throws IllegalArgumentException if the chunk doesn't fit inside the file,
+     * or fileSaveAsName is not a plain file name.
+     */
+    FileChunkMessage(String username, String fileSaveAsName, long offset, long fileLength,
+                     ByteBuffer chunk, int checksum, long epochNanos, long sequenceNumber)
+    {
+        super(username, MSGTYPE_FILE_CHUNK, epochNanos, sequenceNumber);
+        if (!FileMessage.isFileName(fileSaveAsName)) {
+            throw new IllegalArgumentException("fileSaveAsName is not a file name");
+        }
+        if (offset < 0 || offset > fileLength - chunk.remaining()) {
+            throw new IllegalArgumentException("chunk of " + chunk.remaining() + " bytes at offset "
+                                               + offset + " doesn't fit in file of " + fileLength + " bytes");
+        }
+        this.fileSaveAsName = fileSaveAsName;
+        this.offset = offset;
+        this.fileLength = fileLength;
+        this.chunk = chunk.slice().asReadOnlyBuffer();
+        this.checksum = checksum;
+    }
+
+    /**
+     * Computes the CRC32C checksum of the bytes between a buffer's position
+     * and limit, which are not changed.
+     *
+     * @param bytes the bytes to check.
+     * @return the checksum.
+     */
+    public static int checksum(ByteBuffer bytes)
+    {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Get the name the file is to be saved as.
+     *
+     * @return the file name to save as.
+     */
+    public String getFileSaveAsName()
+    {
+        return fileSaveAsName;
+    }
+
+    /**
+     * Get the position in the file of this chunk's first byte.
+     *
+     * @return the chunk's offset in the file.
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Get the length of the whole file.
+     *
+     * @return the file length, in bytes.
+     */
+    public long getFileLength()
+    {
+        return fileLength;
+    }
+
+    /**
+     * Get the chunk's bytes, as a read-only buffer of its own
+     * (position 0, limit the chunk length).
+     *
+     * @return the chunk's bytes.
+     */
+    public ByteBuffer getChunk()
+    {
+        return chunk.duplicate();
+    }
+
+    /**
+     * Get the number of bytes in this chunk.
+     *
+     * @return the chunk length, in bytes.
+     */
+    public int getChunkLength()
+    {
+        return chunk.remaining();
+    }
+
+    /**
+     * Get the CRC32C checksum the sender computed for this chunk's bytes.
+     *
+     * @return the checksum.
+     */
+    public int getChecksum()
+    {
+        return checksum;
+    }
+
+    /**
+     * Whether the chunk's bytes still match its checksum.
+     *
+     * @return true if the checksum of the bytes is getChecksum().
+     */
+    public boolean isIntact()
+    {
+        return checksum(chunk) == checksum;
+    }
+
+    /**
+     * Whether this is the chunk holding the end of the file.
+     *
+     * @return true if the chunk ends where the file ends.
+     */
+    public boolean isLast()
+    {
+        return offset + chunk.remaining() == fileLength;
+    }
+
+    /**
+     * Returns a three-element array of String: the fileSaveAsName, the
+     * offset and the file length. The chunk's bytes are not included;
+     * use getChunk() for those.
+     *
+     * @return the current values of fileSaveAsName, offset and fileLength.
+     */
+    @Override
+    public String[] getData()
+    {
+        return new String[] { fileSaveAsName, Long.toString(offset), Long.toString(fileLength) };
+    }
+
+    /**
+     * Equality comparison. Returns true iff the other object is of
+     * the same class and all fields (including those inherited from
+     * superclasses) and the chunk's bytes are equal.
+     *
+     * @param o the object to test for equality.
+     * @return whether o is of the same class as this, and all fields
+     * are equal.
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FileChunkMessage that = (FileChunkMessage) o;
+        return this.getFingerprint() == that.getFingerprint()
+               && this.offset == that.offset
+               && this.fileLength == that.fileLength
+               && this.checksum == that.checksum
+               && Objects.equals(this.fileSaveAsName, that.fileSaveAsName)
+               && this.getEpochNanos() == that.getEpochNanos()
+               && this.getSequenceNumber() == that.getSequenceNumber()
+               && Objects.equals(this.getUsername(), that.getUsername())
+               && this.chunk.equals(that.chunk);
+    }
+
+    /**
+     * Computes the fingerprint from the fields in getData(), the
+     * chunk's bytes and the checksum.
+     *
+     * @return the fingerprint, not cached.
+     */
+    @Override
+    protected long computeFingerprint()
+    {
+        return (super.computeFingerprint() * 31 + chunk.hashCode()) * 31 + checksum;
+    }
+
+    /**
+     * Constructs a string representation of this object. The chunk's
+     * bytes are shown only by their count.
+     *
+     * @return this object's string representation.
+     */
+    @Override
+    public String toString()
+    {
+        return render(new StringBuilder(), Integer.MAX_VALUE).toString();
+    }
+
+    /**
+     * Describes the fields, showing the chunk's bytes only by their count.
+     */
+    @Override
+    protected void renderFields(MessageRenderer renderer) throws IOException
+    {
+        renderer.field("fileSaveAsName", fileSaveAsName)
+                .field("offset", offset)
+                .field("fileLength", fileLength)
+                .field("chunkLength", chunk.remaining())
+                .field("checksum", checksum & 0xFFFFFFFFL);
+    }
+}
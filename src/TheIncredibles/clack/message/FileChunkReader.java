@@ -0,0 +1,184 @@
+package TheIncredibles.clack.message;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a file as a sequence of FileChunkMessages, for sending a file
+ * too large to hold in memory as a FileMessage.
+ *
+ * The file is memory-mapped one window at a time, and each chunk is a
+ * view of the current window, so reading never copies file bytes onto
+ * the heap. Only one window is mapped at a time; once the chunks of a
+ * window have been sent and dropped, it is unmapped by the garbage
+ * collector. Heap use is therefore the same whatever the file size.
+ *
+ * An empty file gives a single empty chunk, so the receiver still
+ * learns about it. Reading may start part way into the file, to resume
+ * an interrupted transfer from the offset in a FileOfferReplyMessage.
+ */
+public class FileChunkReader implements Iterator<FileChunkMessage>, Closeable
+{
+    /**
+     * Chunk size used if none is given: 64 KiB.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    // How much of the file to map at a time. Rounded down to a multiple of the chunk size.
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final String username;
+    private final String fileSaveAsName;
+    private final int chunkSize;
+    private final long windowSize;
+    private final FileChannel channel;
+    private final long fileLength;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long offset;
+    private boolean sentAny;
+
+    /**
+     * Opens a file for reading in chunks.
+     *
+     * @param username name of user sending the file.
+     * @param filePath where to find the file to read.
+     * @param fileSaveAsPath the filename portion of this is used when saving the file.
+     * @param chunkSize most bytes in one chunk.
+     * @throws FileNotFoundException if the file doesn't exist or isn't readable.
+     * @throws IOException if the file can't be opened.
+     * @throws IllegalArgumentException if chunkSize is not positive.
+     */
+    public FileChunkReader(String username, String filePath, String fileSaveAsPath, int chunkSize)
+            throws IOException
+    {
+        this(username, filePath, fileSaveAsPath, chunkSize, 0);
+    }
+
+    /**
+     * Opens a file for reading in chunks, starting at a given offset.
+     *
+     * @param username name of user sending the file.
+     * @param filePath where to find the file to read.
+     * @param fileSaveAsPath the filename portion of this is used when saving the file.
+     * @param chunkSize most bytes in one chunk.
+     * @param startOffset position in the file of the first chunk's first byte.
+     * @throws FileNotFoundException if the file doesn't exist or isn't readable.
+     * @throws IOException if the file can't be opened.
+     * @throws IllegalArgumentException if chunkSize is not positive, or
+     * startOffset is negative or past the end of the file.
+     */
+    public FileChunkReader(String username, String filePath, String fileSaveAsPath, int chunkSize,
+                           long startOffset) throws IOException
+    {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        Path file = Paths.get(filePath);
+        if (!Files.exists(file)) {
+            throw new FileNotFoundException("File does not exist: " + filePath);
+        }
+        if (!Files.isReadable(file)) {
+            throw new FileNotFoundException("File is not readable: " + filePath);
+        }
+        this.username = username;
+        this.fileSaveAsName = Paths.get(fileSaveAsPath).getFileName().toString();
+        this.chunkSize = chunkSize;
+        this.windowSize = Math.max(chunkSize, WINDOW_SIZE / chunkSize * chunkSize);
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileLength = this.channel.size();
+        if (startOffset < 0 || startOffset > this.fileLength) {
+            this.channel.close();
+            throw new IllegalArgumentException("startOffset " + startOffset + " is outside file of "
+                                               + this.fileLength + " bytes");
+        }
+        this.offset = startOffset;
+    }
+
+    /**
+     * Opens a file for reading in chunks of DEFAULT_CHUNK_SIZE bytes.
+     *
+     * @param username name of user sending the file.
+     * @param filePath where to find the file to read, and where to write it.
+     * @throws FileNotFoundException if the file doesn't exist or isn't readable.
+     * @throws IOException if the file can't be opened.
+     */
+    public FileChunkReader(String username, String filePath) throws IOException
+    {
+        this(username, filePath, filePath, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Whether there are chunks left to read.
+     *
+     * @return true if next() will return another chunk.
+     */
+    @Override
+    public boolean hasNext()
+    {
+        return offset < fileLength || !sentAny;
+    }
+
+    /**
+     * Reads the next chunk.
+     *
+     * @return the next chunk, in file order.
+     * @throws NoSuchElementException if all chunks have been read.
+     * @throws UncheckedIOException if the file can't be mapped.
+     */
+    @Override
+    public FileChunkMessage next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int length = (int) Math.min(chunkSize, fileLength - offset);
+        try {
+            if (window == null || offset + length > windowStart + window.capacity()) {
+                windowStart = offset;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                                     Math.min(windowSize, fileLength - windowStart));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int from = (int) (offset - windowStart);
+        FileChunkMessage chunk = new FileChunkMessage(username, fileSaveAsName, offset, fileLength,
+                                                      window.duplicate().position(from).limit(from + length));
+        offset += length;
+        sentAny = true;
+        return chunk;
+    }
+
+    /**
+     * Get the length of the file being read.
+     *
+     * @return the file length, in bytes.
+     */
+    public long getFileLength()
+    {
+        return fileLength;
+    }
+
+    /**
+     * Closes the file. Chunks already read stay valid.
+     *
+     * @throws IOException if closing the file fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
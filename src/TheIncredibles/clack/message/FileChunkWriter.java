@@ -0,0 +1,300 @@
+package TheIncredibles.clack.message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Writes a file received as a sequence of FileChunkMessages. Each chunk
+ * is checked against its checksum and written at its own offset as soon
+ * as it arrives, so chunks may come in any order and nothing but the
+ * current chunk is ever held in memory.
+ *
+ * Chunks are written to a partial file, fileSaveAsName + PART_SUFFIX, in
+ * the working directory. Once every byte has been received, closing the
+ * writer renames it to fileSaveAsName, so the file never appears half
+ * written. Until then, a small manifest beside the partial file records
+ * how much of the file, from its start, has been verified and forced to
+ * disk. It is updated every MANIFEST_INTERVAL bytes and on close.
+ *
+ * A writer opened for a FileOfferMessage picks up the partial file and
+ * manifest of an earlier, interrupted transfer of the same content, and
+ * replyToOffer() tells the sender where to resume.
+ */
+public class FileChunkWriter implements Closeable
+{
+    /**
+     * Appended to fileSaveAsName to name the partial file.
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * Appended to fileSaveAsName to name the partial file's manifest.
+     */
+    public static final String MANIFEST_SUFFIX = ".part.manifest";
+
+    /**
+     * How many newly verified bytes to receive between manifest updates: 16 MiB.
+     * Each update forces the partial file to disk.
+     */
+    public static final long MANIFEST_INTERVAL = 16L * 1024 * 1024;
+
+    private final String fileSaveAsName;
+    private final long fileLength;
+    private final String contentHash;
+    private final Path partPath;
+    private final Path manifestPath;
+    private final FileChannel channel;
+
+    // Every byte before verifiedOffset has been verified and written.
+    private long verifiedOffset;
+    // verifiedOffset as last recorded in the manifest.
+    private long manifestOffset;
+    // Chunks written past verifiedOffset, as start -> end; merged in as the gap before them fills.
+    private final TreeMap<Long, Long> ahead = new TreeMap<>();
+    private boolean closed;
+
+    /**
+     * Opens the file that the given chunk belongs to, starting afresh.
+     * The chunk itself is not written; pass it to write() as well.
+     *
+     * @param first any chunk of the file, usually the first one received.
+     * @throws IllegalArgumentException if the chunk's fileSaveAsName is not a plain file name.
+     * @throws IOException if the file can't be created or opened for writing.
+     */
+    public FileChunkWriter(FileChunkMessage first) throws IOException
+    {
+        this(first.getFileSaveAsName(), first.getFileLength(), null);
+    }
+
+    /**
+     * Opens the file offered by a FileOfferMessage. If an earlier transfer
+     * of the same content (same name, length and hash) was interrupted,
+     * its verified part is kept, and getResumeOffset() says where it ends.
+     *
+     * @param offer the offer of the file about to be received.
+     * @throws IllegalArgumentException if the offer's fileSaveAsName is not a plain file name.
+     * @throws IOException if the file can't be created or opened for writing.
+     */
+    public FileChunkWriter(FileOfferMessage offer) throws IOException
+    {
+        this(offer.getFileSaveAsName(), offer.getFileLength(), offer.getContentHash());
+    }
+
+    private FileChunkWriter(String fileSaveAsName, long fileLength, String contentHash) throws IOException
+    {
+        // The name comes from the sender; the partial file and manifest are named after it.
+        if (!FileMessage.isFileName(fileSaveAsName)) {
+            throw new IllegalArgumentException("not a file name: " + fileSaveAsName);
+        }
+        this.fileSaveAsName = fileSaveAsName;
+        this.fileLength = fileLength;
+        this.contentHash = contentHash;
+        this.partPath = Paths.get(fileSaveAsName + PART_SUFFIX);
+        this.manifestPath = Paths.get(fileSaveAsName + MANIFEST_SUFFIX);
+
+        long resumeOffset = (contentHash != null) ? readManifest() : -1;
+        if (resumeOffset >= 0) {
+            this.channel = FileChannel.open(this.partPath, StandardOpenOption.WRITE);
+        } else {
+            Files.deleteIfExists(this.manifestPath);
+            this.channel = FileChannel.open(this.partPath, StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            resumeOffset = 0;
+        }
+        this.verifiedOffset = resumeOffset;
+        this.manifestOffset = resumeOffset;
+    }
+
+    /**
+     * Checks a chunk against its checksum and writes it into the file.
+     * A chunk already written (e.g. one re-sent after resuming) is accepted
+     * again without harm.
+     *
+     * @param chunk the chunk to write.
+     * @return true if the file is now complete.
+     * @throws IllegalArgumentException if the chunk belongs to a different file,
+     * or doesn't fit inside it.
+     * @throws IOException if the chunk's bytes don't match its checksum, or writing fails.
+     */
+    public boolean write(FileChunkMessage chunk) throws IOException
+    {
+        if (!fileSaveAsName.equals(chunk.getFileSaveAsName()) || fileLength != chunk.getFileLength()) {
+            throw new IllegalArgumentException("chunk belongs to a different file: "
+                                               + chunk.getFileSaveAsName());
+        }
+        if (chunk.getOffset() < 0 || chunk.getOffset() > fileLength - chunk.getChunkLength()) {
+            throw new IllegalArgumentException("chunk of " + chunk.getChunkLength() + " bytes at offset "
+                                               + chunk.getOffset() + " doesn't fit in " + fileSaveAsName);
+        }
+        if (!chunk.isIntact()) {
+            throw new IOException("Checksum mismatch in chunk at offset " + chunk.getOffset()
+                                  + " of " + fileSaveAsName);
+        }
+        long start = chunk.getOffset();
+        long end = start + chunk.getChunkLength();
+        if (end <= verifiedOffset) {
+            return isComplete();
+        }
+        ByteBuffer bytes = chunk.getChunk();
+        long position = start;
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+
+        ahead.merge(start, end, Math::max);
+        Map.Entry<Long, Long> next;
+        while ((next = ahead.firstEntry()) != null && next.getKey() <= verifiedOffset) {
+            verifiedOffset = Math.max(verifiedOffset, next.getValue());
+            ahead.pollFirstEntry();
+        }
+        if (!isComplete() && verifiedOffset - manifestOffset >= MANIFEST_INTERVAL) {
+            writeManifest();
+        }
+        return isComplete();
+    }
+
+    /**
+     * Whether every byte of the file has been verified and written.
+     *
+     * @return true if the file is complete.
+     */
+    public boolean isComplete()
+    {
+        return verifiedOffset >= fileLength;
+    }
+
+    /**
+     * Get how much of the file, from its start, has been verified and
+     * written: where a sender should resume.
+     *
+     * @return the offset of the first byte still needed.
+     */
+    public long getResumeOffset()
+    {
+        return verifiedOffset;
+    }
+
+    /**
+     * Answers the FileOfferMessage this writer was opened for, asking the
+     * sender to send the file from getResumeOffset().
+     *
+     * @param username name of user answering the offer.
+     * @return the reply to send back.
+     */
+    public FileOfferReplyMessage replyToOffer(String username)
+    {
+        return new FileOfferReplyMessage(username, contentHash, false, verifiedOffset);
+    }
+
+    /**
+     * Get the name of the file being written.
+     *
+     * @return the file name.
+     */
+    public String getFileSaveAsName()
+    {
+        return fileSaveAsName;
+    }
+
+    /**
+     * Closes the file. If it is complete, it is forced to disk and renamed
+     * to fileSaveAsName, and the manifest is deleted; otherwise the manifest
+     * is brought up to date so a later transfer can resume.
+     *
+     * A writer opened for a FileOfferMessage first checks the complete file
+     * against the offer's SHA-256 hash. If they differ, the partial file and
+     * manifest are deleted instead, and nothing is renamed.
+     *
+     * @throws IOException if closing, renaming or updating the manifest
+     * fails, or the file doesn't match the offer's hash.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (FileChannel c = channel) {
+            if (!isComplete()) {
+                writeManifest();
+                return;
+            }
+            c.force(true);
+        }
+        if (contentHash != null && !contentHash.equals(ContentStore.hash(partPath))) {
+            Files.deleteIfExists(partPath);
+            Files.deleteIfExists(manifestPath);
+            throw new IOException("Content of " + fileSaveAsName + " doesn't match the offer's hash");
+        }
+        Files.move(partPath, Paths.get(fileSaveAsName), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(manifestPath);
+    }
+
+    /**
+     * Reads the manifest of an interrupted transfer.
+     *
+     * @return the verified offset it records, or -1 if there is no
+     * usable manifest for this file.
+     */
+    private long readManifest() throws IOException
+    {
+        Properties manifest = new Properties();
+        try (Reader in = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+            manifest.load(in);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        try {
+            long length = Long.parseLong(manifest.getProperty("fileLength", "-1"));
+            long offset = Long.parseLong(manifest.getProperty("verifiedOffset", "-1"));
+            if (length != fileLength || !Objects.equals(contentHash, manifest.getProperty("contentHash"))
+                || offset < 0 || offset > length || !Files.isRegularFile(partPath)
+                || Files.size(partPath) < offset) {
+                return -1;
+            }
+            return offset;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Forces the partial file to disk, then records verifiedOffset in the
+     * manifest. The manifest is replaced atomically, so it never claims
+     * bytes that might not be on disk.
+     */
+    private void writeManifest() throws IOException
+    {
+        channel.force(false);
+        Properties manifest = new Properties();
+        manifest.setProperty("fileSaveAsName", fileSaveAsName);
+        manifest.setProperty("fileLength", Long.toString(fileLength));
+        if (contentHash != null) {
+            manifest.setProperty("contentHash", contentHash);
+        }
+        manifest.setProperty("verifiedOffset", Long.toString(verifiedOffset));
+        Path temp = Paths.get(fileSaveAsName + MANIFEST_SUFFIX + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            manifest.store(out, "Clack partial file");
+        }
+        Files.move(temp, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        manifestOffset = verifiedOffset;
+    }
+}
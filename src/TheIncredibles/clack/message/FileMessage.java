@@ -2,10 +2,15 @@ package TheIncredibles.clack.message;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * This class represents messages containing the name and
@@ -19,6 +24,7 @@ public class FileMessage extends Message
     private String filePath;
     private String fileSaveAsName;
     private String fileContents;
+    private byte[] fileBytes;
 
     /**
      * Constructs a FileMessage object with a given username
@@ -30,18 +36,44 @@ public class FileMessage extends Message
      * @param username name of user for this message.
      * @param filePath where to find the file to read.
      * @param fileSaveAsPath the filename portion of this is used when saving the file.
+     * @throws IllegalArgumentException if fileSaveAsPath has no filename portion,
+     * or it is "." or "..".
      */
     public FileMessage(String username, String filePath, String fileSaveAsPath)
     {
         super(username, MSGTYPE_FILE);
         this.filePath = filePath;
         //parse the filename portion of fileSaveAsPath
-        Path path = Paths.get(fileSaveAsPath);
-        this.fileSaveAsName = path.getFileName().toString();
+        Path path = Paths.get(fileSaveAsPath).getFileName();
+        if (path == null || !isFileName(path.toString())) {
+            throw new IllegalArgumentException("fileSaveAsPath has no file name");
+        }
+        this.fileSaveAsName = path.toString();
         // This really should be null when object is created.
         this.fileContents = "";
     }
 
+    /**
+     * Constructs a FileMessage object with every field given, including
+     * the file contents, file bytes, timestamp and sequence number. Used
+     * by MessageCodec when decoding. The fileSaveAsName comes from the
+     * other end, so it is checked just as setFileSaveAsName() checks it.
+     *
+     * @throws IllegalArgumentException if fileSaveAsName is not a plain file name.
+     */
+    FileMessage(String username, String filePath, String fileSaveAsName,
+                String fileContents, byte[] fileBytes, long epochNanos, long sequenceNumber)
+    {
+        super(username, MSGTYPE_FILE, epochNanos, sequenceNumber);
+        if (fileSaveAsName != null && !isFileName(fileSaveAsName)) {
+            throw new IllegalArgumentException("fileSaveAsName is not a file name");
+        }
+        this.filePath = filePath;
+        this.fileSaveAsName = fileSaveAsName;
+        this.fileContents = fileContents;
+        this.fileBytes = fileBytes;
+    }
+
     /**
      * Constructs a FileMessage object with a given username,
      * and a given filePath to give both the reading and saving
@@ -84,6 +116,7 @@ public class FileMessage extends Message
     public void setFilePath(String filePath)
     {
         this.filePath = filePath;
+        fingerprintChanged();
         //might be nice to add some validation
     }
 
@@ -97,12 +130,35 @@ public class FileMessage extends Message
      */
     public void setFileSaveAsName(String fileSaveAsName)
     {
-        Path path = Paths.get(fileSaveAsName);
-        if(path.getNameCount() > 1)
+        if(!isFileName(fileSaveAsName))
         {
             throw new IllegalArgumentException("fileSaveAsName contains path components");
         }
         this.fileSaveAsName = fileSaveAsName;
+        fingerprintChanged();
+    }
+
+    /**
+     * Whether a name is a plain file name, safe to save a file under in
+     * the local Clack directory: one path component, not absolute, and
+     * not "." or "..". Names from another user are checked with this
+     * before anything is written.
+     *
+     * @param name the name to check.
+     * @return true if name is a plain file name.
+     */
+    public static boolean isFileName(String name)
+    {
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..")
+                || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0) {
+            return false;
+        }
+        try {
+            Path path = Paths.get(name);
+            return path.getRoot() == null && path.getNameCount() == 1;
+        } catch (InvalidPathException e) {
+            return false;
+        }
     }
 
     /**
@@ -143,10 +199,68 @@ public class FileMessage extends Message
             throw new FileNotFoundException("File is not readable: " + this.filePath);
         }
         this.fileContents = Files.readString(file);
+        this.fileBytes = null;
+        fingerprintChanged();
+    }
+
+    /**
+     * Read contents of file 'filePath' into this message's fileBytes,
+     * as raw bytes. Unlike readFile(), this works for any file, not just
+     * UTF-8 text, and holds one byte per byte of file. fileContents is
+     * set to "", so only one copy of the file is kept.
+     *
+     * @throws IOException if the file named by this.filePath does
+     * not exist or cannot be opened for reading.
+     */
+    public void readFileBytes() throws IOException
+    {
+        Path file = Paths.get(this.filePath);
+        if(!Files.exists(file))
+        {
+            throw new FileNotFoundException("File does not exist: " + this.filePath);
+        }
+        if(!Files.isReadable(file))
+        {
+            throw new FileNotFoundException("File is not readable: " + this.filePath);
+        }
+        this.fileBytes = Files.readAllBytes(file);
+        this.fileContents = "";
+        fingerprintChanged();
+    }
+
+    /**
+     * Open the file 'filePath' for sending in chunks, instead of reading
+     * it whole into fileContents. Use this for files too large to hold
+     * in memory.
+     *
+     * @param chunkSize most bytes in one chunk.
+     * @return a reader giving the file's chunks in order; close it when done.
+     * @throws IOException if the file named by this.filePath does
+     * not exist or cannot be opened for reading.
+     */
+    public FileChunkReader readChunks(int chunkSize) throws IOException
+    {
+        return new FileChunkReader(getUsername(), this.filePath, this.fileSaveAsName, chunkSize);
+    }
+
+    /**
+     * Make an offer of the file 'filePath', to send before the file itself.
+     * If the receiver's ContentStore already has the file's content, the
+     * reply says so, and the file need not be sent.
+     *
+     * @return an offer naming the file's length and SHA-256 hash.
+     * @throws IOException if the file named by this.filePath does
+     * not exist or cannot be opened for reading.
+     */
+    public FileOfferMessage offer() throws IOException
+    {
+        return FileOfferMessage.forFile(getUsername(), this.filePath, this.fileSaveAsName);
     }
 
     /**
      * Write this message's fileContents to the local Clack directory.
+     * The file is replaced atomically, so it is never seen half written;
+     * this waits for writeFileAsync() on the default AsyncFileWriter.
      *
      * @throws FileNotFoundException if file cannot be found or created,
      * or opened for writing.
@@ -156,23 +270,70 @@ public class FileMessage extends Message
         if (this.fileContents == null || this.fileSaveAsName == null) {
             throw new FileNotFoundException("File contents or save file name is null.");
         }
+        if (!isFileName(this.fileSaveAsName)) {
+            throw new FileNotFoundException("Save file name is not a file name: " + this.fileSaveAsName);
+        }
+        await(AsyncFileWriter.getDefault().write(Paths.get(this.fileSaveAsName), this.fileContents));
+    }
 
+    /**
+     * Write this message's fileBytes to the local Clack directory,
+     * byte for byte. Like writeFile(), the file is replaced atomically.
+     *
+     * @throws FileNotFoundException if there are no fileBytes, or file
+     * cannot be found or created, or opened for writing.
+     */
+    public void writeFileBytes() throws FileNotFoundException
+    {
+        if (this.fileBytes == null || this.fileSaveAsName == null) {
+            throw new FileNotFoundException("File bytes or save file name is null.");
+        }
+        if (!isFileName(this.fileSaveAsName)) {
+            throw new FileNotFoundException("Save file name is not a file name: " + this.fileSaveAsName);
+        }
+        await(AsyncFileWriter.getDefault().write(Paths.get(this.fileSaveAsName), ByteBuffer.wrap(this.fileBytes)));
+    }
+
+    /**
+     * Write this message's file to the local Clack directory without
+     * waiting for the disk: its fileBytes if it has them, otherwise its
+     * fileContents. The file appears, complete, once the returned future
+     * completes.
+     *
+     * @param writer the writer whose I/O threads write the file.
+     * @return a future that completes with the path written, or
+     * exceptionally if the file can't be written.
+     */
+    public CompletableFuture<Path> writeFileAsync(AsyncFileWriter writer)
+    {
+        if ((this.fileBytes == null && this.fileContents == null) || this.fileSaveAsName == null) {
+            return CompletableFuture.failedFuture(
+                    new FileNotFoundException("File contents or save file name is null."));
+        }
+        if (!isFileName(this.fileSaveAsName)) {
+            return CompletableFuture.failedFuture(
+                    new FileNotFoundException("Save file name is not a file name: " + this.fileSaveAsName));
+        }
         Path outputPath = Paths.get(this.fileSaveAsName);
+        return (this.fileBytes != null) ? writer.write(outputPath, ByteBuffer.wrap(this.fileBytes))
+                                        : writer.write(outputPath, this.fileContents);
+    }
 
+    private void await(CompletableFuture<Path> written) throws FileNotFoundException
+    {
         try {
-            Files.writeString(outputPath, this.fileContents);
-        } catch (IOException e) {
-            throw new FileNotFoundException("Error writing to file: " + this.fileSaveAsName);
+            written.join();
+        } catch (CompletionException e) {
+            FileNotFoundException notWritten = new FileNotFoundException("Error writing to file: " + this.fileSaveAsName);
+            notWritten.initCause(e.getCause());
+            throw notWritten;
         }
     }
 
     @Override
     public String toString()
     {
-        return "{class=FileMessage|" + super.toString() +
-                "|filePath=" + this.filePath +
-                "|fileSaveAsName=" + this.fileSaveAsName +
-                "|fileContents=" + this.fileContents + "}";
+        return render(new StringBuilder(), Integer.MAX_VALUE).toString();
     }
 
     @Override
@@ -184,18 +345,16 @@ public class FileMessage extends Message
         if (o == null || getClass() != o.getClass()) return false;
         //Cast to FileMessage
         FileMessage that = (FileMessage) o;
+        //Different fingerprints mean different contents, without comparing them
+        if (getFingerprint() != that.getFingerprint()) return false;
         //Compare all relevant fields
         return Objects.equals(filePath, that.filePath) &&
                 Objects.equals(fileSaveAsName, that.fileSaveAsName) &&
                 Objects.equals(fileContents, that.fileContents) &&
+                Arrays.equals(fileBytes, that.fileBytes) &&
                 Objects.equals(getUsername(), that.getUsername()) &&
-                Objects.equals(getTimestamp(), that.getTimestamp());
-    }
-
-    @Override
-    public int hashCode()
-    {
-        return Objects.hash(filePath, fileSaveAsName, fileContents, getUsername(), getTimestamp());
+                getEpochNanos() == that.getEpochNanos() &&
+                getSequenceNumber() == that.getSequenceNumber();
     }
 
     /**
@@ -206,4 +365,39 @@ public class FileMessage extends Message
     public String getFileContents(){
         return this.fileContents;
     }
-}
\ No newline at end of file
+
+    /**
+     * Get the file contents read by readFileBytes(), as a read-only
+     * buffer (position 0, limit the file length).
+     *
+     * @return the file's bytes, or null if readFileBytes() hasn't been called.
+     */
+    public ByteBuffer getFileBytes()
+    {
+        return (this.fileBytes != null) ? ByteBuffer.wrap(this.fileBytes).asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * Computes the fingerprint from the fields in getData() and the
+     * fileBytes, if any.
+     *
+     * @return the fingerprint, not cached.
+     */
+    @Override
+    protected long computeFingerprint()
+    {
+        long f = super.computeFingerprint();
+        return (this.fileBytes != null) ? mixBytes(f, this.fileBytes) : f;
+    }
+
+    @Override
+    protected void renderFields(MessageRenderer renderer) throws IOException
+    {
+        renderer.field("filePath", this.filePath)
+                .field("fileSaveAsName", this.fileSaveAsName)
+                .field("fileContents", this.fileContents);
+        if (this.fileBytes != null) {
+            renderer.bytesField("fileBytes", getFileBytes());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package TheIncredibles.clack.message;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+/**
+ * This class represents the question "have you already got a file with
+ * this content?", sent before a file itself. It names the file's SHA-256
+ * hash, its length and the name to save it as. The receiver answers with
+ * a FileOfferReplyMessage; if its ContentStore already holds that content,
+ * it saves the file from there and the file itself need not be sent.
+ */
+public class FileOfferMessage extends Message
+{
+    private final String fileSaveAsName;
+    private final long fileLength;
+    private final String contentHash;
+
+    /**
+     * Constructs a FileOfferMessage object.
+     *
+     * @param username name of user offering the file.
+     * @param fileSaveAsName file name (no path components) to save the file as.
+     * @param fileLength length of the file, in bytes.
+     * @param contentHash SHA-256 hash of the file's content, in lowercase hex.
+     * @throws IllegalArgumentException if fileSaveAsName is not a plain file name,
+     * or contentHash is not a SHA-256 hash in lowercase hex.
+     */
+    public FileOfferMessage(String username, String fileSaveAsName, long fileLength, String contentHash)
+    {
+        super(username, MSGTYPE_FILE_OFFER);
+        checkFileName(fileSaveAsName);
+        checkHash(contentHash);
+        this.fileSaveAsName = fileSaveAsName;
+        this.fileLength = fileLength;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Constructs a FileOfferMessage object with a given timestamp and sequence number.
+     * Used by MessageCodec when decoding.
+     *
+     * @throws IllegalArgumentException if fileSaveAsName is not a plain file name,
+     * or contentHash is not a SHA-256 hash in lowercase hex.
+     */
+    FileOfferMessage(String username, String fileSaveAsName, long fileLength, String contentHash,
+                     long epochNanos, long sequenceNumber)
+    {
+        super(username, MSGTYPE_FILE_OFFER, epochNanos, sequenceNumber);
+        checkFileName(fileSaveAsName);
+        checkHash(contentHash);
+        this.fileSaveAsName = fileSaveAsName;
+        this.fileLength = fileLength;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Constructs a FileOfferMessage for a file on disk, hashing the file.
+     * Only the filename portion of fileSaveAsPath is kept, as in FileMessage.
+     *
+     * @param username name of user offering the file.
+     * @param filePath where to find the file to offer.
+     * @param fileSaveAsPath the filename portion of this is used when saving the file.
+     * @return the offer.
+     * @throws FileNotFoundException if the file doesn't exist or isn't readable.
+     * @throws IOException if reading the file fails.
+     * @throws IllegalArgumentException if fileSaveAsPath has no filename portion.
+     */
+    public static FileOfferMessage forFile(String username, String filePath, String fileSaveAsPath)
+            throws IOException
+    {
+        Path fileSaveAsName = Paths.get(fileSaveAsPath).getFileName();
+        if (fileSaveAsName == null) {
+            throw new IllegalArgumentException("fileSaveAsPath has no file name");
+        }
+        Path file = Paths.get(filePath);
+        if (!Files.exists(file)) {
+            throw new FileNotFoundException("File does not exist: " + filePath);
+        }
+        if (!Files.isReadable(file)) {
+            throw new FileNotFoundException("File is not readable: " + filePath);
+        }
+        return new FileOfferMessage(username, fileSaveAsName.toString(), Files.size(file), ContentStore.hash(file));
+    }
+
+    /**
+     * Get the name the file is to be saved as.
+     *
+     * @return the file name to save as.
+     */
+    public String getFileSaveAsName()
+    {
+        return fileSaveAsName;
+    }
+
+    /**
+     * Get the length of the file.
+     *
+     * @return the file length, in bytes.
+     */
+    public long getFileLength()
+    {
+        return fileLength;
+    }
+
+    /**
+     * Get the SHA-256 hash of the file's content.
+     *
+     * @return the hash, in lowercase hex.
+     */
+    public String getContentHash()
+    {
+        return contentHash;
+    }
+
+    /**
+     * Returns a three-element array of String: the fileSaveAsName, the
+     * file length and the content hash.
+     *
+     * @return the current values of fileSaveAsName, fileLength and contentHash.
+     */
+    @Override
+    public String[] getData()
+    {
+        return new String[] { fileSaveAsName, Long.toString(fileLength), contentHash };
+    }
+
+    /**
+     * Equality comparison. Returns true iff the other object is of
+     * the same class and all fields (including those inherited from
+     * superclasses) are equal.
+     *
+     * @param o the object to test for equality.
+     * @return whether o is of the same class as this, and all fields
+     * are equal.
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FileOfferMessage that = (FileOfferMessage) o;
+        return this.getFingerprint() == that.getFingerprint()
+               && this.getEpochNanos() == that.getEpochNanos()
+               && this.getSequenceNumber() == that.getSequenceNumber()
+               && this.fileLength == that.fileLength
+               && Objects.equals(this.getUsername(), that.getUsername())
+               && Objects.equals(this.fileSaveAsName, that.fileSaveAsName)
+               && Objects.equals(this.contentHash, that.contentHash);
+    }
+
+    /**
+     * Constructs a string representation of this object.
+     *
+     * @return this object's string representation.
+     */
+    @Override
+    public String toString()
+    {
+        return render(new StringBuilder(), Integer.MAX_VALUE).toString();
+    }
+
+    @Override
+    protected void renderFields(MessageRenderer renderer) throws IOException
+    {
+        renderer.field("fileSaveAsName", fileSaveAsName)
+                .field("fileLength", fileLength)
+                .field("contentHash", contentHash);
+    }
+
+    private static void checkFileName(String fileSaveAsName)
+    {
+        if (!FileMessage.isFileName(fileSaveAsName)) {
+            throw new IllegalArgumentException("fileSaveAsName is not a file name");
+        }
+    }
+
+    private static void checkHash(String contentHash)
+    {
+        if (!ContentStore.isHash(contentHash)) {
+            throw new IllegalArgumentException("contentHash is not a SHA-256 hash");
+        }
+    }
+}
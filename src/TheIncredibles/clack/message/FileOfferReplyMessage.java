@@ -0,0 +1,158 @@
+package TheIncredibles.clack.message;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * This class represents the answer to a FileOfferMessage: whether the
+ * receiver already has the offered content. If it has, the receiver has
+ * saved the file from its ContentStore and the sender is done; if not,
+ * the sender goes on to send the file in chunks, starting at the resume
+ * offset. That is 0 unless an earlier transfer of the same content was
+ * interrupted, in which case it is how much of the file the receiver
+ * had already verified and saved.
+ */
+public class FileOfferReplyMessage extends Message
+{
+    private final String contentHash;
+    private final boolean haveContent;
+    private final long resumeOffset;
+
+    /**
+     * Constructs a FileOfferReplyMessage object.
+     *
+     * @param username name of user answering the offer.
+     * @param contentHash the content hash from the offer being answered.
+     * @param haveContent true if the content need not be sent.
+     * @throws IllegalArgumentException if contentHash is not a SHA-256 hash in lowercase hex.
+     */
+    public FileOfferReplyMessage(String username, String contentHash, boolean haveContent)
+    {
+        this(username, contentHash, haveContent, 0);
+    }
+
+    /**
+     * Constructs a FileOfferReplyMessage object asking for the file from
+     * a given offset.
+     *
+     * @param username name of user answering the offer.
+     * @param contentHash the content hash from the offer being answered.
+     * @param haveContent true if the content need not be sent.
+     * @param resumeOffset where in the file to start sending.
+     * @throws IllegalArgumentException if contentHash is not a SHA-256 hash in lowercase hex,
+     * or resumeOffset is negative.
+     */
+    public FileOfferReplyMessage(String username, String contentHash, boolean haveContent, long resumeOffset)
+    {
+        this(username, contentHash, haveContent, resumeOffset,
+             getClock().epochNanos(), nextSequenceNumber(username));
+    }
+
+    /**
+     * Constructs a FileOfferReplyMessage object with a given timestamp and sequence number.
+     * Used by MessageCodec when decoding.
+     */
+    FileOfferReplyMessage(String username, String contentHash, boolean haveContent, long resumeOffset,
+                          long epochNanos, long sequenceNumber)
+    {
+        super(username, MSGTYPE_FILE_OFFER_REPLY, epochNanos, sequenceNumber);
+        if (!ContentStore.isHash(contentHash)) {
+            throw new IllegalArgumentException("contentHash is not a SHA-256 hash");
+        }
+        if (resumeOffset < 0) {
+            throw new IllegalArgumentException("resumeOffset must not be negative");
+        }
+        this.contentHash = contentHash;
+        this.haveContent = haveContent;
+        this.resumeOffset = resumeOffset;
+    }
+
+    /**
+     * Get the content hash from the offer being answered.
+     *
+     * @return the hash, in lowercase hex.
+     */
+    public String getContentHash()
+    {
+        return contentHash;
+    }
+
+    /**
+     * Whether the receiver already has the content.
+     *
+     * @return true if the file need not be sent.
+     */
+    public boolean haveContent()
+    {
+        return haveContent;
+    }
+
+    /**
+     * Get where in the file the sender should start sending.
+     *
+     * @return the offset of the first byte the receiver still needs.
+     */
+    public long getResumeOffset()
+    {
+        return resumeOffset;
+    }
+
+    /**
+     * Returns a three-element array of String: the content hash,
+     * "true" or "false" for haveContent, and the resume offset.
+     *
+     * @return the current values of contentHash, haveContent and resumeOffset.
+     */
+    @Override
+    public String[] getData()
+    {
+        return new String[] { contentHash, Boolean.toString(haveContent), Long.toString(resumeOffset) };
+    }
+
+    /**
+     * Equality comparison. Returns true iff the other object is of
+     * the same class and all fields (including those inherited from
+     * superclasses) are equal.
+     *
+     * @param o the object to test for equality.
+     * @return whether o is of the same class as this, and all fields
+     * are equal.
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FileOfferReplyMessage that = (FileOfferReplyMessage) o;
+        return this.getFingerprint() == that.getFingerprint()
+               && this.getEpochNanos() == that.getEpochNanos()
+               && this.getSequenceNumber() == that.getSequenceNumber()
+               && this.haveContent == that.haveContent
+               && this.resumeOffset == that.resumeOffset
+               && Objects.equals(this.getUsername(), that.getUsername())
+               && Objects.equals(this.contentHash, that.contentHash);
+    }
+
+    /**
+     * Constructs a string representation of this object.
+     *
+     * @return this object's string representation.
+     */
+    @Override
+    public String toString()
+    {
+        return render(new StringBuilder(), Integer.MAX_VALUE).toString();
+    }
+
+    @Override
+    protected void renderFields(MessageRenderer renderer) throws IOException
+    {
+        renderer.field("contentHash", contentHash)
+                .field("haveContent", Boolean.toString(haveContent))
+                .field("resumeOffset", resumeOffset);
+    }
+}
@@ -1,5 +1,7 @@
 package TheIncredibles.clack.message;
 
+import java.util.Objects;
+
 public class HelpMessage extends Message
 {
 
@@ -8,6 +10,15 @@ public class HelpMessage extends Message
         super(username, MSGTYPE_HELP);
     }
 
+    /**
+     * Constructs a HelpMessage with a given timestamp and sequence number.
+     * Used by MessageCodec when decoding.
+     */
+    HelpMessage(String username, long epochNanos, long sequenceNumber)
+    {
+        super(username, MSGTYPE_HELP, epochNanos, sequenceNumber);
+    }
+
     public void callforhelp()
     {
         System.out.println("Command Options:");
@@ -25,9 +36,28 @@ public class HelpMessage extends Message
         return new String[0];
     }
 
+    /**
+     * Equality comparison. Returns true if the other object is of
+     * the same class and all fields (including those inherited from
+     * superclasses) are equal.
+     *
+     * @param o the object to test for equality.
+     * @return whether o is of the same class as this, and all fields
+     * are equal.
+     */
     @Override
     public boolean equals(Object o)
     {
-        return false;
+        if (o == this) {
+            return true;
+        }
+        if (o == null || o.getClass() != this.getClass()) {
+            return false;
+        }
+        HelpMessage that = (HelpMessage) o;
+        return this.getFingerprint() == that.getFingerprint()
+                && this.getEpochNanos() == that.getEpochNanos()
+                && this.getSequenceNumber() == that.getSequenceNumber()
+                && Objects.equals(this.getUsername(), that.getUsername());
     }
 }
@@ -1,5 +1,8 @@
 package TheIncredibles.clack.message;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Objects;
 
 /*
@@ -8,32 +11,211 @@ import java.util.Objects;
 
 /**
  * This class represents a command to the server, asking for
- * a list of all active users of the server.
+ * a list of all active users of the server, and the server's answer.
+ *
+ * The server numbers every change to its user list (someone coming
+ * online or going offline) with a version. A request may give the
+ * version the client already has; the answer is then a delta holding
+ * only the users who joined or left since, instead of the whole list.
+ * The server answers with a snapshot of the whole list when the client
+ * has no version yet, or one the server no longer has the changes for.
  *
  * @author D. Tuinstra, adapted from work by Soumyabrata Dey.
  */
 public class ListUsersMessage extends Message
 {
+    /**
+     * Kind of a message asking for the list.
+     */
+    public static final int KIND_REQUEST = 0;
+
+    /**
+     * Kind of an answer holding every user online.
+     */
+    public static final int KIND_SNAPSHOT = 1;
+
+    /**
+     * Kind of an answer holding the users who joined or left between
+     * two versions.
+     */
+    public static final int KIND_DELTA = 2;
+
+    private static final String[] NO_USERS = new String[0];
+
+    private final int kind;
+    private final long baseVersion;
+    private final long version;
+    private final String[] joined;
+    private final String[] left;
+
     /**
      * Constructs a ListUsersMessage with a given username
-     * and the msgType set to MSGTYPE_LISTUSERS
+     * and the msgType set to MSGTYPE_LISTUSERS, asking for
+     * the whole list.
      *
      * @param username the user sending this message.
      */
     public ListUsersMessage(String username) {
-        super(username, MSGTYPE_LISTUSERS);
+        this(username, 0);
+    }
+
+    /**
+     * Constructs a ListUsersMessage asking for the changes since a
+     * given version of the list.
+     *
+     * @param username the user sending this message.
+     * @param sinceVersion the version the user already has, or 0 for none.
+     * @throws IllegalArgumentException if sinceVersion is negative.
+     */
+    public ListUsersMessage(String username, long sinceVersion)
+    {
+        this(username, KIND_REQUEST, sinceVersion, 0, NO_USERS, NO_USERS,
+             getClock().epochNanos(), nextSequenceNumber(username));
+    }
+
+    /**
+     * Constructs a ListUsersMessage with every field given, including the
+     * timestamp and sequence number. Used by MessageCodec when decoding.
+     *
+     * @throws IllegalArgumentException if kind is unknown, a version is
+     * negative, or a user name is null.
+     */
+    ListUsersMessage(String username, int kind, long baseVersion, long version,
+                     String[] joined, String[] left, long epochNanos, long sequenceNumber)
+    {
+        super(username, MSGTYPE_LISTUSERS, epochNanos, sequenceNumber);
+        if (kind < KIND_REQUEST || kind > KIND_DELTA) {
+            throw new IllegalArgumentException("unknown kind: " + kind);
+        }
+        if (baseVersion < 0 || version < 0) {
+            throw new IllegalArgumentException("versions must not be negative");
+        }
+        checkNames(joined);
+        checkNames(left);
+        this.kind = kind;
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.joined = joined;
+        this.left = left;
+    }
+
+    /**
+     * Constructs the answer holding the whole list.
+     *
+     * @param username the user the answer is for.
+     * @param version the version of the list.
+     * @param users every user online.
+     * @return the answer.
+     * @throws IllegalArgumentException if version is negative, or a user name is null.
+     */
+    public static ListUsersMessage snapshot(String username, long version, Collection<String> users)
+    {
+        return new ListUsersMessage(username, KIND_SNAPSHOT, 0, version,
+                                    users.toArray(NO_USERS), NO_USERS,
+                                    getClock().epochNanos(), nextSequenceNumber(username));
+    }
+
+    /**
+     * Constructs the answer holding the changes between two versions.
+     *
+     * @param username the user the answer is for.
+     * @param baseVersion the version the changes apply to.
+     * @param version the version they lead to.
+     * @param joined users online at version who were not at baseVersion.
+     * @param left users online at baseVersion who are not at version.
+     * @return the answer.
+     * @throws IllegalArgumentException if either version is negative, or a user name is null.
+     */
+    public static ListUsersMessage delta(String username, long baseVersion, long version,
+                                         Collection<String> joined, Collection<String> left)
+    {
+        return new ListUsersMessage(username, KIND_DELTA, baseVersion, version,
+                                    joined.toArray(NO_USERS), left.toArray(NO_USERS),
+                                    getClock().epochNanos(), nextSequenceNumber(username));
+    }
+
+    /**
+     * Get what kind of message this is.
+     *
+     * @return KIND_REQUEST, KIND_SNAPSHOT or KIND_DELTA.
+     */
+    public int getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * Whether this message asks for the list, rather than answering.
+     *
+     * @return true if the kind is KIND_REQUEST.
+     */
+    public boolean isRequest()
+    {
+        return kind == KIND_REQUEST;
     }
 
     /**
-     * Return this objects data in a String array. For objects
-     * with no data, return an empty array.
+     * Get the version this message starts from: for a request, the version
+     * the user already has; for a delta, the version its changes apply to.
+     *
+     * @return the base version; 0 for a snapshot.
+     */
+    public long getBaseVersion()
+    {
+        return baseVersion;
+    }
+
+    /**
+     * Get the version of the list this answer brings the user to.
+     *
+     * @return the version; 0 for a request.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Get the users who joined: every user, for a snapshot.
+     *
+     * @return a copy of the user names; empty for a request.
+     */
+    public String[] getJoined()
+    {
+        return joined.clone();
+    }
+
+    /**
+     * Get the users who left. Only a delta has any.
+     *
+     * @return a copy of the user names.
+     */
+    public String[] getLeft()
+    {
+        return left.clone();
+    }
+
+    /**
+     * Return this objects data in a String array: empty for a request,
+     * the users online for a snapshot, and for a delta each user who
+     * joined with "+" in front, then each who left with "-" in front.
      *
      * @return object data, in a String array.
      */
     @Override
     public String[] getData()
     {
-        return new String[0];
+        if (kind != KIND_DELTA) {
+            return joined.clone();
+        }
+        String[] data = new String[joined.length + left.length];
+        for (int i = 0; i < joined.length; i++) {
+            data[i] = "+" + joined[i];
+        }
+        for (int i = 0; i < left.length; i++) {
+            data[joined.length + i] = "-" + left[i];
+        }
+        return data;
     }
 
     /**
@@ -55,31 +237,61 @@ public class ListUsersMessage extends Message
             return false;
         }
         ListUsersMessage that = (ListUsersMessage) o;
-        return Objects.equals(this.getTimestamp(), that.getTimestamp())
-                && Objects.equals(this.getUsername(), that.getUsername());
-    }
-
-    /**
-     * Return this object's hash. In Message objects, this is simply the
-     * hash of the string returned by this.toString().
-     *
-     * @return hash of this object.
-     */
-    @Override
-    public int hashCode()
-    {
-        return this.toString().hashCode();
+        return this.getFingerprint() == that.getFingerprint()
+                && this.getEpochNanos() == that.getEpochNanos()
+                && this.getSequenceNumber() == that.getSequenceNumber()
+                && this.kind == that.kind
+                && this.baseVersion == that.baseVersion
+                && this.version == that.version
+                && Objects.equals(this.getUsername(), that.getUsername())
+                && Arrays.equals(this.joined, that.joined)
+                && Arrays.equals(this.left, that.left);
     }
 
     /**
      * Constructs a string representation of this object:
      *   "{class=ListUsersMessage|" + super.toString() + "}"
+     * followed, for anything but a request for the whole list, by the
+     * versions and users.
      *
      * @return this object's string representation.
      */
     @Override
     public String toString()
     {
-        return "{class=ListUsersMessage|" + super.toString() + "}";
+        return render(new StringBuilder(), Integer.MAX_VALUE).toString();
+    }
+
+    @Override
+    protected long computeFingerprint()
+    {
+        return ((super.computeFingerprint() * 31 + kind) * 31 + baseVersion) * 31 + version;
+    }
+
+    @Override
+    protected void renderFields(MessageRenderer renderer) throws IOException
+    {
+        if (kind == KIND_REQUEST) {
+            if (baseVersion != 0) {
+                renderer.field("sinceVersion", baseVersion);
+            }
+        } else if (kind == KIND_SNAPSHOT) {
+            renderer.field("version", version)
+                    .field("users", String.join(",", joined));
+        } else {
+            renderer.field("baseVersion", baseVersion)
+                    .field("version", version)
+                    .field("joined", String.join(",", joined))
+                    .field("left", String.join(",", left));
+        }
+    }
+
+    private static void checkNames(String[] names)
+    {
+        for (String name : names) {
+            if (name == null) {
+                throw new IllegalArgumentException("user names must not be null");
+            }
+        }
     }
 }
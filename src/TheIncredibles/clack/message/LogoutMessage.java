@@ -20,6 +20,15 @@ public class LogoutMessage extends Message
         super(username, MSGTYPE_LOGOUT);
     }
 
+    /**
+     * Constructs a LogoutMessage with a given timestamp and sequence number.
+     * Used by MessageCodec when decoding.
+     */
+    LogoutMessage(String username, long epochNanos, long sequenceNumber)
+    {
+        super(username, MSGTYPE_LOGOUT, epochNanos, sequenceNumber);
+    }
+
     /**
      * Return this objects data in a String array. For objects
      * with no data, return an empty array.
@@ -48,22 +57,12 @@ public class LogoutMessage extends Message
         if (o == null || getClass() != o.getClass()) return false; // Check for null and class type
 
         LogoutMessage that = (LogoutMessage) o;
-        return Objects.equals(this.getTimestamp(), that.getTimestamp())
+        return this.getFingerprint() == that.getFingerprint()
+                && this.getEpochNanos() == that.getEpochNanos()
+                && this.getSequenceNumber() == that.getSequenceNumber()
                 && Objects.equals(this.getUsername(), that.getUsername());
     }
 
-    /**
-     * Return this object's hash. In Message objects, this is simply the
-     * hash of the string returned by this.toString().
-     *
-     * @return hash of this object.
-     */
-    @Override
-    public int hashCode()
-    {
-        return 0;
-    }
-
     /**
      * Constructs a string representation of this object:
      *   "{class=LogoutMessage|" + super.toString() + "}"
@@ -73,6 +72,6 @@ public class LogoutMessage extends Message
     @Override
     public String toString()
     {
-        return "{class=LogoutMessage|" + super.toString() + "}";
+        return render(new StringBuilder(), Integer.MAX_VALUE).toString();
     }
 }
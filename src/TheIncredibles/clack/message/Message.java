@@ -2,11 +2,20 @@ package TheIncredibles.clack.message;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Abstract base class for Clack messages.
@@ -41,12 +50,57 @@ public abstract class Message
      */
     public static int MSGTYPE_HELP = 50;
 
+    /**
+     * Message type for one chunk of a file sent in chunks
+     */
+    public static int MSGTYPE_FILE_CHUNK = 60;
+
+    /**
+     * Message type for asking whether the receiver already has a file's content
+     */
+    public static int MSGTYPE_FILE_OFFER = 70;
+
+    /**
+     * Message type for answering a file offer
+     */
+    public static int MSGTYPE_FILE_OFFER_REPLY = 71;
+
+    /**
+     * Most chars of each field shown by preview() and the Client's
+     * message printing.
+     */
+    public static final int DEFAULT_PREVIEW_LENGTH = 200;
+
+    private static volatile MessageClock clock = MessageClock.system();
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final ConcurrentHashMap<String, SequenceCounter> SEQUENCE_NUMBERS = new ConcurrentHashMap<>();
+    // Senders kept before idle ones are forgotten.
+    private static final int MAX_SEQUENCE_SENDERS = 4096;
+    // Highest sequence number given out to any forgotten sender, by hash of the sender.
+    private static final AtomicLongArray SEQUENCE_FLOORS = new AtomicLongArray(MAX_SEQUENCE_SENDERS);
+    // Senders kept at the next check for idle ones.
+    private static volatile int sequenceSweepAt = MAX_SEQUENCE_SENDERS;
+
+    /**
+     * Orders messages by time, then by sender, then by sequence number,
+     * so that messages from one sender stay in the order they were made
+     * even when their timestamps are equal.
+     */
+    public static final Comparator<Message> CHRONOLOGICAL =
+            Comparator.comparingLong(Message::getEpochNanos)
+                      .thenComparing(Message::getUsername, Comparator.nullsFirst(Comparator.naturalOrder()))
+                      .thenComparingLong(Message::getSequenceNumber);
+
     private final int msgType;
-    private final LocalDateTime timestamp;
+    private final long epochNanos;
+    private final long sequenceNumber;
     private final String username;
-    private String filePath;
-    private String fileSaveAsName;
-    private String fileContents;
+    // Derived from epochNanos on first use.
+    private LocalDateTime timestamp;
+
+    // 64-bit content hash, computed on first use; 0 means not computed yet.
+    private volatile long fingerprint;
 
     /**
      * Constructs a Message object with a given username.
@@ -61,11 +115,124 @@ public abstract class Message
      */
     protected Message(String username, int msgType)
     {
-        this.timestamp = LocalDateTime.now();
+        this(username, msgType, clock.epochNanos(), nextSequenceNumber(username));
+    }
+
+    /**
+     * Constructs a Message object with a given username, timestamp and
+     * sequence number. Used when rebuilding a message that was created
+     * elsewhere, e.g. one decoded by MessageCodec, so that it keeps its
+     * original timestamp and sequence number.
+     *
+     * @param username name of user who created this message.
+     * @param msgType the msgType of the concrete subclass.
+     * @param epochNanos when the message was created, in nanoseconds since 1970-01-01T00:00Z.
+     * @param sequenceNumber the message's sequence number.
+     */
+    protected Message(String username, int msgType, long epochNanos, long sequenceNumber)
+    {
+        this.epochNanos = epochNanos;
+        this.sequenceNumber = sequenceNumber;
         this.username = username;
         this.msgType = msgType;
     }
 
+    /**
+     * Sets the clock that new messages take their timestamps from.
+     *
+     * @param messageClock the clock to use; MessageClock.system() by default.
+     */
+    public static void setClock(MessageClock messageClock)
+    {
+        clock = Objects.requireNonNull(messageClock);
+    }
+
+    /**
+     * Gets the clock that new messages take their timestamps from.
+     *
+     * @return the clock in use.
+     */
+    public static MessageClock getClock()
+    {
+        return clock;
+    }
+
+    /**
+     * Gets the sequence number for the next message from the given user.
+     * Each user's sequence numbers only ever go up, in the order their
+     * messages are made in this JVM: 1, 2, 3... for as long as the user
+     * keeps sending. Numbering a message is a lock-free map lookup and a
+     * compare-and-set on the sender's own counter; it doesn't read the clock.
+     *
+     * So that a long-running server making messages for many users doesn't
+     * keep a counter for each forever, once there are more than about 4096
+     * senders, those that have sent nothing since the last such check are
+     * forgotten. A forgotten sender's last number is kept in a small table
+     * of floors, by hash of the sender, and its new counter starts from
+     * there; so its numbers may jump, but are never given out twice.
+     */
+    static long nextSequenceNumber(String username)
+    {
+        String sender = (username != null) ? username : "";
+        while (true) {
+            SequenceCounter counter = SEQUENCE_NUMBERS.get(sender);
+            if (counter == null) {
+                counter = newSequenceCounter(sender);
+            }
+            counter.used = true;
+            for (long last = counter.get(); last >= 0; last = counter.get()) {
+                if (counter.compareAndSet(last, last + 1)) {
+                    return last + 1;
+                }
+            }
+            // Forgotten while we were using it.
+            SEQUENCE_NUMBERS.remove(sender, counter);
+        }
+    }
+
+    private static SequenceCounter newSequenceCounter(String sender)
+    {
+        if (SEQUENCE_NUMBERS.size() >= sequenceSweepAt) {
+            forgetIdleSenders();
+        }
+        return SEQUENCE_NUMBERS.computeIfAbsent(sender,
+                k -> new SequenceCounter(SEQUENCE_FLOORS.get(sequenceFloor(k))));
+    }
+
+    /**
+     * Forgets the senders that haven't numbered a message since the last
+     * call, and marks the rest to be forgotten next time unless they do.
+     * A forgotten counter's last number goes into its floor before the
+     * counter is retired, so whoever replaces it carries on from there.
+     */
+    private static synchronized void forgetIdleSenders()
+    {
+        if (SEQUENCE_NUMBERS.size() < sequenceSweepAt) {
+            return;                                                 // Another thread got here first
+        }
+        for (Map.Entry<String, SequenceCounter> entry : SEQUENCE_NUMBERS.entrySet()) {
+            SequenceCounter counter = entry.getValue();
+            if (counter.used) {
+                counter.used = false;
+                continue;
+            }
+            long last = counter.get();
+            if (last >= 0) {
+                SEQUENCE_FLOORS.accumulateAndGet(sequenceFloor(entry.getKey()), last, Math::max);
+                if (counter.compareAndSet(last, -1)) {
+                    SEQUENCE_NUMBERS.remove(entry.getKey(), counter);
+                }
+            }
+        }
+        sequenceSweepAt = Math.max(MAX_SEQUENCE_SENDERS, 2 * SEQUENCE_NUMBERS.size());
+    }
+
+    private static int sequenceFloor(String sender)
+    {
+        int h = sender.hashCode();
+        return (h ^ (h >>> 16)) & (MAX_SEQUENCE_SENDERS - 1);
+    }
+
     /**
      * Get the message's msgType. This allows the possessor
      * of a Message object to know the concrete subclass the
@@ -82,13 +249,40 @@ public abstract class Message
     }
 
     /**
-     * Gets the message's timestamp (as a LocalDate).
+     * Gets the message's timestamp, as a LocalDateTime in the system's
+     * time zone. It is worked out from getEpochNanos() on the first call.
      *
-     * @return the message's timestamp (as a LocalDate).
+     * @return the message's timestamp (as a LocalDateTime).
      */
     public LocalDateTime getTimestamp()
     {
-        return timestamp;
+        LocalDateTime t = this.timestamp;
+        if (t == null) {
+            t = LocalDateTime.ofInstant(Instant.ofEpochSecond(0, this.epochNanos), ZoneId.systemDefault());
+            this.timestamp = t;
+        }
+        return t;
+    }
+
+    /**
+     * Gets the message's timestamp.
+     *
+     * @return when the message was created, in nanoseconds since 1970-01-01T00:00Z.
+     */
+    public long getEpochNanos()
+    {
+        return epochNanos;
+    }
+
+    /**
+     * Gets the message's sequence number: its place among the messages
+     * made by the same user, starting at 1.
+     *
+     * @return the message's sequence number.
+     */
+    public long getSequenceNumber()
+    {
+        return sequenceNumber;
     }
 
     /**
@@ -126,16 +320,138 @@ public abstract class Message
     public abstract boolean equals(Object o);
 
     /**
-     * Return this object's hash. In Message objects, this is simply the
-     * hash of the string returned by this.toString().
+     * Return this object's hash: the low and high halves of
+     * getFingerprint(), folded together. Like the fingerprint, it is
+     * only computed once, however large the message is.
      *
-     * This is an abstract method; each concrete subclass must
-     * override this with a subclass-appropriate implementation.
-
      * @return hash of this object.
      */
-    public int hashCode() {
-        return this.toString().hashCode();
+    @Override
+    public int hashCode()
+    {
+        long f = getFingerprint();
+        return (int) (f ^ (f >>> 32));
+    }
+
+    /**
+     * Return a 64-bit hash of this message's msgType, timestamp,
+     * sequence number, username and data. Messages that are equal have the same
+     * fingerprint, so equals() implementations compare fingerprints
+     * first and only compare fields when these match. It is computed
+     * on the first call and cached; subclasses with fields that can
+     * change must call fingerprintChanged() when they do.
+     *
+     * @return this message's fingerprint.
+     */
+    public long getFingerprint()
+    {
+        long f = this.fingerprint;
+        if (f == 0) {
+            f = computeFingerprint();
+            if (f == 0) {
+                f = 1;      // keep 0 free to mean "not computed"
+            }
+            this.fingerprint = f;
+        }
+        return f;
+    }
+
+    /**
+     * Forget the cached fingerprint, so that it is computed again on the
+     * next call of getFingerprint() or hashCode(). Subclasses call this
+     * whenever a field that getData() returns is changed.
+     */
+    protected void fingerprintChanged()
+    {
+        this.fingerprint = 0;
+    }
+
+    /**
+     * Computes the fingerprint from getMsgType(), getEpochNanos(),
+     * getSequenceNumber(), getUsername() and every element of getData().
+     *
+     * @return the fingerprint, not cached.
+     */
+    protected long computeFingerprint()
+    {
+        long h = mix(0x9E3779B97F4A7C15L, this.msgType);
+        h = mix(h, this.epochNanos);
+        h = mix(h, this.sequenceNumber);
+        h = mix(h, hashString(this.username));
+        for (String s : getData()) {
+            h = mix(h, hashString(s));
+        }
+        return h;
+    }
+
+    /**
+     * 64-bit hash of a string, reading four chars at a time.
+     * null and "" hash differently.
+     */
+    private static long hashString(String s)
+    {
+        if (s == null) {
+            return 0x5851F42D4C957F2DL;
+        }
+        int n = s.length();
+        long h = n;
+        int i = 0;
+        for (; i <= n - 4; i += 4) {
+            long word = s.charAt(i)
+                        | (long) s.charAt(i + 1) << 16
+                        | (long) s.charAt(i + 2) << 32
+                        | (long) s.charAt(i + 3) << 48;
+            h = (h ^ word) * 0x100000001B3L;
+            h ^= h >>> 29;
+        }
+        for (; i < n; i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        }
+        return fmix(h);
+    }
+
+    /**
+     * Mixes a byte array into a fingerprint, for subclasses with binary
+     * fields. Reads eight bytes at a time, so every bit of the contents
+     * reaches the full 64 bits of the fingerprint. null and an empty
+     * array mix in differently.
+     *
+     * @param h the fingerprint so far.
+     * @param bytes the bytes to mix in; may be null.
+     * @return the new fingerprint.
+     */
+    protected static long mixBytes(long h, byte[] bytes)
+    {
+        if (bytes == null) {
+            return mix(h, 0x5851F42D4C957F2DL);
+        }
+        int n = bytes.length;
+        long b = n;
+        int i = 0;
+        for (; i <= n - 8; i += 8) {
+            b = (b ^ (long) LONGS.get(bytes, i)) * 0x100000001B3L;
+            b ^= b >>> 29;
+        }
+        for (; i < n; i++) {
+            b = (b ^ bytes[i]) * 0x100000001B3L;
+        }
+        return mix(h, fmix(b));
+    }
+
+    private static long mix(long h, long value)
+    {
+        return fmix(h * 31 + value);
+    }
+
+    // MurmurHash3's 64-bit finalizer: every input bit affects every output bit.
+    private static long fmix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
     }
 
     /**
@@ -151,7 +467,79 @@ public abstract class Message
      */
     public String toString()
     {
-        return "timestamp=" + timestamp + "|username=" + username;
+        return "timestamp=" + getTimestamp() + "|username=" + username;
+    }
+
+    /**
+     * Writes this message to out, in the same form as the subclasses'
+     * toString(): "{class=<i>classname</i>|timestamp=...|username=...|...}".
+     * Each field value is cut short after maxPreview chars, so the cost of
+     * rendering a message doesn't grow with its payload, and nothing is
+     * built in memory besides what out itself keeps.
+     *
+     * @param out where to write, e.g. a reused StringBuilder, or System.out.
+     * @param maxPreview most chars of each field value to write.
+     * @return out.
+     * @throws IOException if writing to out fails.
+     */
+    public Appendable render(Appendable out, int maxPreview) throws IOException
+    {
+        MessageRenderer renderer = new MessageRenderer(out, maxPreview);
+        out.append("{class=").append(getClass().getSimpleName()).append('|');
+        out.append("timestamp=").append(getTimestamp().toString());
+        renderer.field("username", this.username);
+        renderFields(renderer);
+        out.append('}');
+        return out;
+    }
+
+    /**
+     * Appends this message to sb, like render(Appendable, int).
+     *
+     * @param sb where to write.
+     * @param maxPreview most chars of each field value to write.
+     * @return sb.
+     */
+    public StringBuilder render(StringBuilder sb, int maxPreview)
+    {
+        try {
+            render((Appendable) sb, maxPreview);
+            return sb;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);      // StringBuilder never throws
+        }
+    }
+
+    /**
+     * Returns an object whose toString() renders this message with at most
+     * maxPreview chars per field. Nothing is rendered until toString() is
+     * called, so it can be handed to a logger that may drop the message.
+     *
+     * @param maxPreview most chars of each field value to show.
+     * @return a lazy, bounded view of this message.
+     */
+    public Object preview(int maxPreview)
+    {
+        return new Object()
+        {
+            @Override
+            public String toString()
+            {
+                return render(new StringBuilder(), maxPreview).toString();
+            }
+        };
+    }
+
+    /**
+     * Describes the subclass's fields to a renderer, in the order
+     * toString() shows them. Fields of Message itself are written by
+     * render(); subclasses without fields of their own needn't override this.
+     *
+     * @param renderer where to write the fields.
+     * @throws IOException if writing fails.
+     */
+    protected void renderFields(MessageRenderer renderer) throws IOException
+    {
     }
 
     public void callforhelp()
@@ -165,23 +553,29 @@ public abstract class Message
     }
 
     /**
-     * Write this message's fileContents to the local Clack directory.
+     * Write this message's file to the local Clack directory. Only
+     * FileMessages carry a file; see FileMessage.writeFile().
      *
-     * @throws FileNotFoundException if file cannot be found or created,
-     * or opened for writing.
+     * @throws FileNotFoundException always, as this message has no file.
      */
     public void writeFile() throws FileNotFoundException
     {
-        if (this.fileContents == null || this.fileSaveAsName == null) {
-            throw new FileNotFoundException("File contents or save file name is null.");
-        }
+        throw new FileNotFoundException("File contents or save file name is null.");
+    }
 
-        Path outputPath = Paths.get(this.fileSaveAsName);
+    /**
+     * One sender's last sequence number, or -1 once the sender has been
+     * forgotten, and whether it has been used since the last check for
+     * idle senders. That flag is only a hint, so it isn't volatile.
+     */
+    @SuppressWarnings("serial") // never serialized
+    private static final class SequenceCounter extends AtomicLong
+    {
+        boolean used = true;
 
-        try {
-            Files.writeString(outputPath, this.fileContents);
-        } catch (IOException e) {
-            throw new FileNotFoundException("Error writing to file: " + this.fileSaveAsName);
+        SequenceCounter(long last)
+        {
+            super(last);
         }
     }
-}
\ No newline at end of file
+}
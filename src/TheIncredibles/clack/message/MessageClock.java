@@ -0,0 +1,29 @@
+package TheIncredibles.clack.message;
+
+/**
+ * Where Message objects get their timestamps. Set one with
+ * Message.setClock(), e.g. a fixed or stepping clock in tests.
+ *
+ * Implementations must be thread-safe.
+ */
+@FunctionalInterface
+public interface MessageClock
+{
+    /**
+     * Gets the current time.
+     *
+     * @return nanoseconds since 1970-01-01T00:00Z.
+     */
+    long epochNanos();
+
+    /**
+     * Gets the clock that reads the system clock. It has nanosecond
+     * resolution, and allocates nothing.
+     *
+     * @return the system clock.
+     */
+    static MessageClock system()
+    {
+        return SystemMessageClock.INSTANCE;
+    }
+}
@@ -0,0 +1,773 @@
+package TheIncredibles.clack.message;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary wire format for Message objects. Each message is sent as one frame:
+ *
+ * <pre>
+ *   int     length of the rest of the frame, in bytes
+ *   byte    msgType
+ *   long    timestamp, in nanoseconds since 1970-01-01T00:00Z
+ *   varint  sequence number
+ *   string  username
+ *   ...     fields of the concrete subclass, in order:
+ *             TextMessage       string text
+ *             FileMessage       string filePath, string fileSaveAsName, string fileContents,
+ *                               optional bytes fileBytes
+ *             ListUsersMessage  byte kind, varint baseVersion, varint version,
+ *                               and unless kind is KIND_REQUEST:
+ *                               strings joined, strings left
+ *             LogoutMessage     (none)
+ *             HelpMessage       (none)
+ *             FileChunkMessage  string fileSaveAsName, long offset, long fileLength,
+ *                               int checksum (CRC32C of the chunk), bytes chunk
+ *             FileOfferMessage  string fileSaveAsName, varint fileLength, string contentHash
+ *             FileOfferReplyMessage  string contentHash, byte haveContent (0 or 1),
+ *                                    varint resumeOffset
+ * </pre>
+ *
+ * A string is a varint (7 bits per byte, low bits first) holding its length
+ * in UTF-8 bytes plus one, followed by those bytes; a varint of 0 stands for
+ * null. Bytes are a varint holding their count, followed by the bytes;
+ * optional bytes are written like strings, with the count plus one and 0
+ * for null. Strings (plural) are a varint holding their count, followed by
+ * each string.
+ * Multi-byte values are big-endian. A TextMessage saying "hi" from
+ * "user" is 22 bytes on the wire.
+ *
+ * With a CompressionContext, the payload (everything after the username)
+ * of a TextMessage, FileMessage or ListUsersMessage can be sent compressed
+ * instead: the msgType byte then has COMPRESSED_FLAG set, and the payload
+ * is replaced by a varint holding its uncompressed length, followed by the
+ * payload as compressed by the connection's Deflater. The uncompressed
+ * length may be at most MAX_DECOMPRESSED_LENGTH.
+ *
+ * Compression is optional. A client that wants it sends its first frame
+ * compressed; a server sends compressed frames only to clients that have
+ * sent it one, so peers that know nothing of compression never see any.
+ *
+ * Strings are encoded straight into the target buffer and frames are decoded
+ * straight from the source buffer, with no reflection or Java serialization.
+ * MessageCodec objects keep no state besides their BufferPool, so they can
+ * be shared between threads.
+ */
+public class MessageCodec
+{
+    /**
+     * Largest frame decode() accepts, not counting the length prefix.
+     */
+    public static final int MAX_FRAME_LENGTH = Integer.MAX_VALUE - Integer.BYTES;
+
+    /**
+     * Set in the msgType byte of frames whose payload is compressed.
+     */
+    public static final int COMPRESSED_FLAG = 0x80;
+
+    /**
+     * Largest payload a compressed frame may decompress to: 64 MiB. Larger
+     * files should be sent in chunks.
+     */
+    public static final int MAX_DECOMPRESSED_LENGTH = 64 * 1024 * 1024;
+
+    // Deflate can't do better than about 1032:1, so a frame claiming more is lying.
+    private static final int MAX_COMPRESSION_RATIO = 1032;
+
+    private static final int HEADER_LENGTH = Integer.BYTES + 1 + Long.BYTES;
+
+    private final BufferPool pool;
+
+    /**
+     * Constructs a MessageCodec that takes its buffers from the given pool.
+     *
+     * @param pool where encode(Message) gets its buffers.
+     */
+    public MessageCodec(BufferPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Constructs a MessageCodec with a pool of default-sized heap buffers.
+     */
+    public MessageCodec()
+    {
+        this(new BufferPool());
+    }
+
+    /**
+     * Encodes a message into a buffer from this codec's pool. The buffer
+     * is returned ready to be read or written to a channel; give it back
+     * with getPool().release() once it has been sent.
+     *
+     * @param message the message to encode.
+     * @return a buffer holding exactly one frame, between position and limit.
+     * @throws IllegalArgumentException if the message is of an unknown subclass.
+     */
+    public ByteBuffer encode(Message message)
+    {
+        ByteBuffer buf = this.pool.acquire(encodedLength(message));
+        encode(message, buf);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Encodes a message into the given buffer, starting at its position.
+     * The position is advanced past the frame.
+     *
+     * @param message the message to encode.
+     * @param buf where to put the frame; needs encodedLength(message) bytes remaining.
+     * @throws IllegalArgumentException if the message is of an unknown subclass.
+     * @throws java.nio.BufferOverflowException if buf doesn't have room for the frame.
+     */
+    public void encode(Message message, ByteBuffer buf)
+    {
+        payloadLength(message);     // rejects unknown subclasses before anything is written
+        int start = buf.position();
+        putHeader(buf, message, message.getMsgType());
+        putPayload(buf, message);
+        buf.putInt(start, buf.position() - start - Integer.BYTES);
+    }
+
+    /**
+     * Encodes a message into a buffer from this codec's pool, compressing
+     * its payload with the given connection's compression context if
+     * compresses(message, context) says so, and encoding it as
+     * encode(Message) does otherwise.
+     *
+     * @param message the message to encode.
+     * @param context the sending side of the connection's compression context.
+     * @return a buffer holding exactly one frame, between position and limit.
+     * @throws IllegalArgumentException if the message is of an unknown subclass.
+     */
+    public ByteBuffer encode(Message message, CompressionContext context)
+    {
+        return compresses(message, context) ? encodeCompressed(message, context) : encode(message);
+    }
+
+    /**
+     * Encodes a message into a buffer from this codec's pool, compressing
+     * its payload with the given connection's compression context however
+     * short it is. Compressed frames have COMPRESSED_FLAG set in their
+     * msgType byte, and must be decoded, in the order they were encoded,
+     * by decode(ByteBuffer, CompressionContext) with the other end's
+     * context of the same connection.
+     *
+     * @param message a TextMessage, FileMessage or ListUsersMessage.
+     * @param context the sending side of the connection's compression context.
+     * @return a buffer holding exactly one frame, between position and limit.
+     * @throws IllegalArgumentException if the message is of a subclass that
+     *         can't be compressed, or is too large.
+     */
+    public ByteBuffer encodeCompressed(Message message, CompressionContext context)
+    {
+        if (!isCompressible(message.getMsgType())) {
+            throw new IllegalArgumentException("message can't be compressed");
+        }
+        long payloadLength = payloadLength(message);
+        if (payloadLength > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("message too large to encode");
+        }
+
+        ByteBuffer payload = this.pool.acquire((int) payloadLength);
+        try {
+            putPayload(payload, message);
+            payload.flip();
+            int headerLength = (int) headerLength(message) + varintLength(payloadLength);
+            ByteBuffer buf = this.pool.acquire(headerLength + CompressionContext.maxCompressedLength(payload.remaining()));
+            putHeader(buf, message, message.getMsgType() | COMPRESSED_FLAG);
+            putVarint(buf, payloadLength);
+            context.compress(payload, buf);
+            buf.putInt(0, buf.position() - Integer.BYTES);
+            buf.flip();
+            return buf;
+        } finally {
+            this.pool.release(payload);
+        }
+    }
+
+    /**
+     * Whether encode(Message, CompressionContext) compresses the given
+     * message: it must be a TextMessage, FileMessage or ListUsersMessage
+     * whose payload is at least the context's threshold.
+     *
+     * @param message the message to be sent.
+     * @param context the connection's compression context, or null if it has none.
+     * @return true if the message would be sent compressed.
+     * @throws IllegalArgumentException if the message is of an unknown subclass.
+     */
+    public boolean compresses(Message message, CompressionContext context)
+    {
+        return context != null && isCompressible(message.getMsgType())
+               && payloadLength(message) >= context.getThreshold();
+    }
+
+    /**
+     * Whether the frame starting at the buffer's position is compressed,
+     * judged from its msgType byte alone. This lets a receiver set up a
+     * CompressionContext only once the other end has shown it wants one.
+     *
+     * @param buf bytes received, between position and limit.
+     * @return true if buf holds at least the start of a compressed frame.
+     */
+    public static boolean isCompressedFrame(ByteBuffer buf)
+    {
+        return buf.remaining() > Integer.BYTES
+               && (buf.get(buf.position() + Integer.BYTES) & COMPRESSED_FLAG) != 0;
+    }
+
+    /**
+     * Encodes everything of a FileChunkMessage frame except the chunk's
+     * bytes, which the caller then sends itself, straight after the
+     * header. This lets a file be sent with FileChannel.transferTo()
+     * without copying its bytes through a buffer; the receiver decodes
+     * header and bytes together as an ordinary FileChunkMessage.
+     * Give the buffer back with getPool().release() once it has been sent.
+     *
+     * @param username name of user sending the file.
+     * @param fileSaveAsName file name (no path components) to save the file as.
+     * @param offset position in the file of the chunk's first byte.
+     * @param fileLength length of the whole file, in bytes.
+     * @param checksum CRC32C checksum of the bytes that will follow, see FileChunkMessage.checksum().
+     * @param chunkLength number of bytes that will follow the header.
+     * @return a buffer holding the header, between position and limit.
+     * @throws IllegalArgumentException if the frame would be too large.
+     */
+    public ByteBuffer encodeChunkHeader(String username, String fileSaveAsName, long offset,
+                                        long fileLength, int checksum, int chunkLength)
+    {
+        long sequenceNumber = Message.nextSequenceNumber(username);
+        long headerLength = HEADER_LENGTH + varintLength(sequenceNumber) + stringLength(username)
+                            + stringLength(fileSaveAsName) + 2 * Long.BYTES + Integer.BYTES
+                            + varintLength(chunkLength);
+        if (headerLength - Integer.BYTES + chunkLength > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("chunk too large to encode");
+        }
+        ByteBuffer buf = this.pool.acquire((int) headerLength);
+        buf.putInt((int) (headerLength - Integer.BYTES + chunkLength));
+        buf.put((byte) Message.MSGTYPE_FILE_CHUNK);
+        buf.putLong(Message.getClock().epochNanos());
+        putVarint(buf, sequenceNumber);
+        putString(buf, username);
+        putChunkFields(buf, fileSaveAsName, offset, fileLength, checksum, chunkLength);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Number of bytes encode() will write for the given message,
+     * including the length prefix.
+     *
+     * @param message the message to measure.
+     * @return the frame length, in bytes.
+     * @throws IllegalArgumentException if the message is of an unknown subclass.
+     */
+    public int encodedLength(Message message)
+    {
+        long length = headerLength(message) + payloadLength(message);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("message too large to encode");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Decodes one frame from the given buffer. If the buffer holds a whole
+     * frame, its position is advanced past it. If it holds only part of a
+     * frame, nothing is consumed and null is returned, so the caller can
+     * read more bytes into the buffer and try again.
+     *
+     * @param buf bytes received, between position and limit.
+     * @return the decoded message, or null if buf doesn't hold a whole frame yet.
+     * @throws ProtocolException if the frame is malformed or of an unknown msgType.
+     *         The buffer's position is then left past the bad frame, if its
+     *         length could be read.
+     */
+    public Message decode(ByteBuffer buf) throws ProtocolException
+    {
+        return decode(buf, null);
+    }
+
+    /**
+     * Decodes one frame from the given buffer, like decode(ByteBuffer),
+     * inflating it with the given connection's compression context if it
+     * was compressed. Frames from one connection must all be decoded with
+     * the same context, in the order they arrive.
+     *
+     * @param buf bytes received, between position and limit.
+     * @param context the receiving side of the connection's compression
+     *                context, or null if the connection doesn't use compression.
+     * @return the decoded message, or null if buf doesn't hold a whole frame yet.
+     * @throws ProtocolException if the frame is malformed or of an unknown
+     *         msgType, or is compressed and context is null.
+     */
+    public Message decode(ByteBuffer buf, CompressionContext context) throws ProtocolException
+    {
+        int start = buf.position();
+        if (buf.remaining() < Integer.BYTES) {
+            return null;
+        }
+        int length = buf.getInt(start);
+        if (length < 1 + Long.BYTES || length > MAX_FRAME_LENGTH) {
+            throw new ProtocolException("bad frame length: " + length);
+        }
+        if (buf.remaining() - Integer.BYTES < length) {
+            return null;
+        }
+
+        int end = start + Integer.BYTES + length;
+        ByteBuffer frame = buf.duplicate();
+        frame.position(start + Integer.BYTES).limit(end);
+        buf.position(end);
+        try {
+            return decodeFrame(frame, context);
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("truncated frame");
+        }
+    }
+
+    /**
+     * Get the pool this codec takes its buffers from.
+     *
+     * @return this codec's BufferPool.
+     */
+    public BufferPool getPool()
+    {
+        return pool;
+    }
+
+    private Message decodeFrame(ByteBuffer frame, CompressionContext context) throws ProtocolException
+    {
+        int msgType = frame.get() & 0xFF;
+        long epochNanos = frame.getLong();
+        long sequenceNumber = getVarint(frame);
+        String username = getString(frame);
+        if ((msgType & COMPRESSED_FLAG) == 0) {
+            return decodePayload(frame, msgType, username, epochNanos, sequenceNumber);
+        }
+
+        msgType &= ~COMPRESSED_FLAG;
+        if (context == null) {
+            throw new ProtocolException("compressed frame on a connection without compression");
+        }
+        if (!isCompressible(msgType)) {
+            throw new ProtocolException("compressed frame of msgType " + msgType);
+        }
+        long payloadLength = getVarint(frame);
+        // Checked before the buffer for it is taken, so a few bytes can't claim gigabytes.
+        if (payloadLength < 0 || payloadLength > MAX_DECOMPRESSED_LENGTH
+            || payloadLength > (long) MAX_COMPRESSION_RATIO * (frame.remaining() + 1)) {
+            throw new ProtocolException("bad payload length: " + payloadLength);
+        }
+        ByteBuffer payload = this.pool.acquire((int) payloadLength);
+        try {
+            payload.limit((int) payloadLength);
+            context.decompress(frame, payload);
+            payload.flip();
+            return decodePayload(payload, msgType, username, epochNanos, sequenceNumber);
+        } finally {
+            this.pool.release(payload);
+        }
+    }
+
+    private static boolean isCompressible(int msgType)
+    {
+        return msgType == Message.MSGTYPE_TEXT || msgType == Message.MSGTYPE_FILE
+               || msgType == Message.MSGTYPE_LISTUSERS;
+    }
+
+    private static void putHeader(ByteBuffer buf, Message message, int msgType)
+    {
+        buf.position(buf.position() + Integer.BYTES);
+        buf.put((byte) msgType);
+        buf.putLong(message.getEpochNanos());
+        putVarint(buf, message.getSequenceNumber());
+        putString(buf, message.getUsername());
+    }
+
+    /**
+     * Number of bytes putHeader() writes, including the length prefix.
+     */
+    private static long headerLength(Message message)
+    {
+        return HEADER_LENGTH + varintLength(message.getSequenceNumber()) + stringLength(message.getUsername());
+    }
+
+    /**
+     * Number of bytes putPayload() writes: everything after the username.
+     */
+    private static long payloadLength(Message message)
+    {
+        if (message instanceof TextMessage) {
+            return stringLength(message.getData()[0]);
+        } else if (message instanceof FileMessage) {
+            FileMessage fileMessage = (FileMessage) message;
+            return stringLength(fileMessage.getFilePath())
+                   + stringLength(fileMessage.getFileSaveAsName())
+                   + stringLength(fileMessage.getFileContents())
+                   + optionalBytesLength(fileMessage.getFileBytes());
+        } else if (message instanceof FileChunkMessage) {
+            FileChunkMessage chunk = (FileChunkMessage) message;
+            return stringLength(chunk.getFileSaveAsName()) + 2 * Long.BYTES + Integer.BYTES
+                   + varintLength(chunk.getChunkLength()) + chunk.getChunkLength();
+        } else if (message instanceof FileOfferMessage) {
+            FileOfferMessage offer = (FileOfferMessage) message;
+            return stringLength(offer.getFileSaveAsName()) + varintLength(offer.getFileLength())
+                   + stringLength(offer.getContentHash());
+        } else if (message instanceof FileOfferReplyMessage) {
+            FileOfferReplyMessage reply = (FileOfferReplyMessage) message;
+            return stringLength(reply.getContentHash()) + 1 + varintLength(reply.getResumeOffset());
+        } else if (message instanceof ListUsersMessage) {
+            ListUsersMessage list = (ListUsersMessage) message;
+            long length = 1 + varintLength(list.getBaseVersion()) + varintLength(list.getVersion());
+            if (!list.isRequest()) {
+                length += stringsLength(list.getJoined()) + stringsLength(list.getLeft());
+            }
+            return length;
+        } else if (message instanceof LogoutMessage
+                   || message instanceof HelpMessage) {
+            return 0;
+        }
+        throw new IllegalArgumentException("unknown message class: " + message.getClass().getName());
+    }
+
+    private static void putPayload(ByteBuffer buf, Message message)
+    {
+        if (message instanceof TextMessage) {
+            putString(buf, message.getData()[0]);
+        } else if (message instanceof FileMessage) {
+            FileMessage fileMessage = (FileMessage) message;
+            putString(buf, fileMessage.getFilePath());
+            putString(buf, fileMessage.getFileSaveAsName());
+            putString(buf, fileMessage.getFileContents());
+            putOptionalBytes(buf, fileMessage.getFileBytes());
+        } else if (message instanceof FileChunkMessage) {
+            FileChunkMessage chunk = (FileChunkMessage) message;
+            putChunkFields(buf, chunk.getFileSaveAsName(), chunk.getOffset(),
+                           chunk.getFileLength(), chunk.getChecksum(), chunk.getChunkLength());
+            buf.put(chunk.getChunk());
+        } else if (message instanceof FileOfferMessage) {
+            FileOfferMessage offer = (FileOfferMessage) message;
+            putString(buf, offer.getFileSaveAsName());
+            putVarint(buf, offer.getFileLength());
+            putString(buf, offer.getContentHash());
+        } else if (message instanceof FileOfferReplyMessage) {
+            FileOfferReplyMessage reply = (FileOfferReplyMessage) message;
+            putString(buf, reply.getContentHash());
+            buf.put((byte) (reply.haveContent() ? 1 : 0));
+            putVarint(buf, reply.getResumeOffset());
+        } else if (message instanceof ListUsersMessage) {
+            ListUsersMessage list = (ListUsersMessage) message;
+            buf.put((byte) list.getKind());
+            putVarint(buf, list.getBaseVersion());
+            putVarint(buf, list.getVersion());
+            if (!list.isRequest()) {
+                putStrings(buf, list.getJoined());
+                putStrings(buf, list.getLeft());
+            }
+        }
+    }
+
+    private Message decodePayload(ByteBuffer frame, int msgType, String username,
+                                  long epochNanos, long sequenceNumber) throws ProtocolException
+    {
+        Message message;
+        if (msgType == Message.MSGTYPE_TEXT) {
+            message = new TextMessage(username, getString(frame), epochNanos, sequenceNumber);
+        } else if (msgType == Message.MSGTYPE_FILE) {
+            String filePath = getString(frame);
+            String fileSaveAsName = getString(frame);
+            String fileContents = getString(frame);
+            byte[] fileBytes = getOptionalBytes(frame);
+            if (fileSaveAsName != null && !FileMessage.isFileName(fileSaveAsName)) {
+                throw new ProtocolException("bad file name: " + fileSaveAsName);
+            }
+            message = new FileMessage(username, filePath, fileSaveAsName, fileContents, fileBytes,
+                                      epochNanos, sequenceNumber);
+        } else if (msgType == Message.MSGTYPE_LISTUSERS) {
+            message = decodeListUsers(frame, username, epochNanos, sequenceNumber);
+        } else if (msgType == Message.MSGTYPE_LOGOUT) {
+            message = new LogoutMessage(username, epochNanos, sequenceNumber);
+        } else if (msgType == Message.MSGTYPE_HELP) {
+            message = new HelpMessage(username, epochNanos, sequenceNumber);
+        } else if (msgType == Message.MSGTYPE_FILE_CHUNK) {
+            message = decodeChunk(frame, username, epochNanos, sequenceNumber);
+        } else if (msgType == Message.MSGTYPE_FILE_OFFER) {
+            String fileSaveAsName = getString(frame);
+            long fileLength = getVarint(frame);
+            String contentHash = getString(frame);
+            if (!FileMessage.isFileName(fileSaveAsName)) {
+                throw new ProtocolException("bad file name: " + fileSaveAsName);
+            }
+            if (fileLength < 0) {
+                throw new ProtocolException("bad file length: " + fileLength);
+            }
+            if (!ContentStore.isHash(contentHash)) {
+                throw new ProtocolException("bad content hash: " + contentHash);
+            }
+            message = new FileOfferMessage(username, fileSaveAsName, fileLength, contentHash,
+                                           epochNanos, sequenceNumber);
+        } else if (msgType == Message.MSGTYPE_FILE_OFFER_REPLY) {
+            String contentHash = getString(frame);
+            boolean haveContent = frame.get() != 0;
+            long resumeOffset = getVarint(frame);
+            if (!ContentStore.isHash(contentHash)) {
+                throw new ProtocolException("bad content hash: " + contentHash);
+            }
+            if (resumeOffset < 0) {
+                throw new ProtocolException("bad resume offset: " + resumeOffset);
+            }
+            message = new FileOfferReplyMessage(username, contentHash, haveContent, resumeOffset,
+                                                epochNanos, sequenceNumber);
+        } else {
+            throw new ProtocolException("unknown msgType: " + msgType);
+        }
+        if (frame.hasRemaining()) {
+            throw new ProtocolException(frame.remaining() + " unexpected bytes at end of frame");
+        }
+        return message;
+    }
+
+    private static void putChunkFields(ByteBuffer buf, String fileSaveAsName, long offset,
+                                       long fileLength, int checksum, int chunkLength)
+    {
+        putString(buf, fileSaveAsName);
+        buf.putLong(offset);
+        buf.putLong(fileLength);
+        buf.putInt(checksum);
+        putVarint(buf, chunkLength);
+    }
+
+    private static FileChunkMessage decodeChunk(ByteBuffer frame, String username, long epochNanos,
+                                                long sequenceNumber) throws ProtocolException
+    {
+        String fileSaveAsName = getString(frame);
+        long offset = frame.getLong();
+        long fileLength = frame.getLong();
+        int checksum = frame.getInt();
+        long length = getVarint(frame);
+        if (length < 0 || length > frame.remaining()) {
+            throw new ProtocolException("chunk runs past end of frame");
+        }
+        // Copy out of the frame, whose buffer the caller will reuse.
+        byte[] bytes = new byte[(int) length];
+        frame.get(bytes);
+        try {
+            return new FileChunkMessage(username, fileSaveAsName, offset, fileLength,
+                                        ByteBuffer.wrap(bytes), checksum, epochNanos, sequenceNumber);
+        } catch (IllegalArgumentException e) {
+            throw new ProtocolException(e.getMessage());
+        }
+    }
+
+    private static ListUsersMessage decodeListUsers(ByteBuffer frame, String username, long epochNanos,
+                                                    long sequenceNumber) throws ProtocolException
+    {
+        int kind = frame.get();
+        long baseVersion = getVarint(frame);
+        long version = getVarint(frame);
+        String[] joined = new String[0];
+        String[] left = new String[0];
+        if (kind != ListUsersMessage.KIND_REQUEST) {
+            joined = getStrings(frame);
+            left = getStrings(frame);
+        }
+        try {
+            return new ListUsersMessage(username, kind, baseVersion, version, joined, left,
+                                        epochNanos, sequenceNumber);
+        } catch (IllegalArgumentException e) {
+            throw new ProtocolException(e.getMessage());
+        }
+    }
+
+    private static long stringsLength(String[] strings)
+    {
+        long length = varintLength(strings.length);
+        for (String s : strings) {
+            length += stringLength(s);
+        }
+        return length;
+    }
+
+    private static void putStrings(ByteBuffer buf, String[] strings)
+    {
+        putVarint(buf, strings.length);
+        for (String s : strings) {
+            putString(buf, s);
+        }
+    }
+
+    private static String[] getStrings(ByteBuffer buf) throws ProtocolException
+    {
+        long count = getVarint(buf);
+        // Every string takes at least one byte. A ten-byte varint can be negative.
+        if (count < 0 || count > buf.remaining()) {
+            throw new ProtocolException("strings run past end of frame");
+        }
+        String[] strings = new String[(int) count];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = getString(buf);
+        }
+        return strings;
+    }
+
+    private static long stringLength(String s)
+    {
+        if (s == null) {
+            return 1;
+        }
+        long bytes = utf8Length(s);
+        return varintLength(bytes + 1) + bytes;
+    }
+
+    private static void putString(ByteBuffer buf, String s)
+    {
+        if (s == null) {
+            buf.put((byte) 0);
+            return;
+        }
+        putVarint(buf, utf8Length(s) + 1);
+        int n = s.length();
+        int i = 0;
+        // Plain ASCII is by far the most common case, so copy that without branching further.
+        while (i < n && s.charAt(i) < 0x80) {
+            buf.put((byte) s.charAt(i++));
+        }
+        while (i < n) {
+            char ch = s.charAt(i++);
+            if (ch < 0x80) {
+                buf.put((byte) ch);
+            } else if (ch < 0x800) {
+                buf.put((byte) (0xC0 | (ch >> 6)));
+                buf.put((byte) (0x80 | (ch & 0x3F)));
+            } else if (Character.isHighSurrogate(ch) && i < n && Character.isLowSurrogate(s.charAt(i))) {
+                int cp = Character.toCodePoint(ch, s.charAt(i++));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(ch)) {
+                // Unpaired surrogate: same replacement as String.getBytes(UTF_8).
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | (ch >> 12)));
+                buf.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (ch & 0x3F)));
+            }
+        }
+    }
+
+    private static long optionalBytesLength(ByteBuffer bytes)
+    {
+        if (bytes == null) {
+            return 1;
+        }
+        return varintLength(bytes.remaining() + 1L) + bytes.remaining();
+    }
+
+    private static void putOptionalBytes(ByteBuffer buf, ByteBuffer bytes)
+    {
+        if (bytes == null) {
+            buf.put((byte) 0);
+            return;
+        }
+        putVarint(buf, bytes.remaining() + 1L);
+        buf.put(bytes);
+    }
+
+    private static byte[] getOptionalBytes(ByteBuffer buf) throws ProtocolException
+    {
+        long prefix = getVarint(buf);
+        if (prefix == 0) {
+            return null;
+        }
+        if (prefix < 0 || prefix - 1 > buf.remaining()) {
+            throw new ProtocolException("bytes run past end of frame");
+        }
+        byte[] bytes = new byte[(int) (prefix - 1)];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private static String getString(ByteBuffer buf) throws ProtocolException
+    {
+        long prefix = getVarint(buf);
+        if (prefix == 0) {
+            return null;
+        }
+        long length = prefix - 1;
+        if (prefix < 0 || length > buf.remaining()) {
+            throw new ProtocolException("string runs past end of frame");
+        }
+        int n = (int) length;
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), n, StandardCharsets.UTF_8);
+            buf.position(buf.position() + n);
+        } else {
+            byte[] bytes = new byte[n];
+            buf.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    /**
+     * Number of bytes s takes in UTF-8, counting each unpaired surrogate
+     * as one byte, the way putString() writes it.
+     */
+    private static long utf8Length(String s)
+    {
+        int n = s.length();
+        long bytes = n;
+        for (int i = 0; i < n; i++) {
+            char ch = s.charAt(i);
+            if (ch >= 0x80) {
+                if (ch < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2;     // 4 bytes for the pair's 2 chars
+                    i++;
+                } else if (!Character.isSurrogate(ch)) {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static int varintLength(long value)
+    {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static void putVarint(ByteBuffer buf, long value)
+    {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer buf) throws ProtocolException
+    {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("varint too long");
+    }
+}
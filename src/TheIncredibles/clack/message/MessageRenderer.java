@@ -0,0 +1,98 @@
+package TheIncredibles.clack.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a message's fields to an Appendable, in the same
+ * "{class=...|name=value|...}" form as Message.toString(), but with every
+ * payload value cut short after a set number of chars. Used by
+ * Message.render(); subclasses describe their fields to it by overriding
+ * Message.renderFields().
+ *
+ * Values are appended straight from the message's own strings, so
+ * rendering a message makes no copy of its payload, whatever its size.
+ */
+public final class MessageRenderer
+{
+    private final Appendable out;
+    private final int maxPreview;
+
+    MessageRenderer(Appendable out, int maxPreview)
+    {
+        if (maxPreview < 0) {
+            throw new IllegalArgumentException("maxPreview must not be negative");
+        }
+        this.out = out;
+        this.maxPreview = maxPreview;
+    }
+
+    /**
+     * Writes "|name=value". Only the first maxPreview chars of value are
+     * written, followed by "...[N more chars]" if any were left out.
+     *
+     * @param name the field name.
+     * @param value the field value; "null" is written for null.
+     * @return this renderer.
+     * @throws IOException if writing to the Appendable fails.
+     */
+    public MessageRenderer field(String name, CharSequence value) throws IOException
+    {
+        out.append('|').append(name).append('=');
+        if (value == null) {
+            out.append("null");
+        } else if (value.length() <= maxPreview) {
+            out.append(value);
+        } else {
+            int end = maxPreview;
+            if (end > 0 && Character.isHighSurrogate(value.charAt(end - 1))) {
+                end--;      // don't split a surrogate pair
+            }
+            out.append(value, 0, end)
+               .append("...[")
+               .append(Integer.toString(value.length() - end))
+               .append(" more chars]");
+        }
+        return this;
+    }
+
+    /**
+     * Writes "|name=value".
+     *
+     * @param name the field name.
+     * @param value the field value.
+     * @return this renderer.
+     * @throws IOException if writing to the Appendable fails.
+     */
+    public MessageRenderer field(String name, long value) throws IOException
+    {
+        out.append('|').append(name).append('=').append(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes "|name=N bytes", without the bytes themselves, or
+     * "|name=null" if bytes is null.
+     *
+     * @param name the field name.
+     * @param bytes the field value.
+     * @return this renderer.
+     * @throws IOException if writing to the Appendable fails.
+     */
+    public MessageRenderer bytesField(String name, ByteBuffer bytes) throws IOException
+    {
+        out.append('|').append(name).append('=');
+        out.append(bytes != null ? bytes.remaining() + " bytes" : "null");
+        return this;
+    }
+
+    /**
+     * Get the most chars written for one field value.
+     *
+     * @return the preview length.
+     */
+    public int getMaxPreview()
+    {
+        return maxPreview;
+    }
+}
@@ -0,0 +1,59 @@
+package TheIncredibles.clack.message;
+
+/**
+ * The default MessageClock. The wall clock only has millisecond
+ * resolution, and Instant.now() allocates, so this clock counts
+ * System.nanoTime() from a point matched to the wall clock instead.
+ * Every CHECK_INTERVAL_NANOS it compares itself with the wall clock, and
+ * if the two have drifted more than MAX_DRIFT_NANOS apart (e.g. after the
+ * system clock is set), it matches them up again.
+ */
+final class SystemMessageClock implements MessageClock
+{
+    static final SystemMessageClock INSTANCE = new SystemMessageClock();
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final long MAX_DRIFT_NANOS = 2 * NANOS_PER_MILLI;
+    private static final long CHECK_INTERVAL_NANOS = 10 * NANOS_PER_MILLI;
+
+    // All together, so a reader never sees some fields updated without the others.
+    private static final class Anchor
+    {
+        final long epochNanos;
+        final long nanoTime;
+        final long checkedAt;
+
+        Anchor(long epochNanos, long nanoTime, long checkedAt)
+        {
+            this.epochNanos = epochNanos;
+            this.nanoTime = nanoTime;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    private volatile Anchor anchor;
+
+    private SystemMessageClock()
+    {
+        long nanoTime = System.nanoTime();
+        this.anchor = new Anchor(System.currentTimeMillis() * NANOS_PER_MILLI, nanoTime, nanoTime);
+    }
+
+    @Override
+    public long epochNanos()
+    {
+        long nanoTime = System.nanoTime();
+        Anchor a = this.anchor;
+        long now = a.epochNanos + (nanoTime - a.nanoTime);
+        if (nanoTime - a.checkedAt > CHECK_INTERVAL_NANOS) {
+            long wall = System.currentTimeMillis() * NANOS_PER_MILLI;
+            if (Math.abs(now - wall) > MAX_DRIFT_NANOS) {
+                this.anchor = new Anchor(wall, nanoTime, nanoTime);
+                now = wall;
+            } else {
+                this.anchor = new Anchor(a.epochNanos, a.nanoTime, nanoTime);
+            }
+        }
+        return now;
+    }
+}
@@ -1,6 +1,6 @@
 package TheIncredibles.clack.message;
 
-import java.util.Arrays;
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -25,6 +25,16 @@ public class TextMessage extends Message
         this.text = text;
     }
 
+    /**
+     * Constructs a TextMessage object with a given timestamp and sequence number.
+     * Used by MessageCodec when decoding.
+     */
+    TextMessage(String username, String text, long epochNanos, long sequenceNumber)
+    {
+        super(username, MSGTYPE_TEXT, epochNanos, sequenceNumber);
+        this.text = text;
+    }
+
     /**
      * Gets the message's data.
      *
@@ -54,23 +64,13 @@ public class TextMessage extends Message
             return false;
         }
         TextMessage that = (TextMessage) o;
-        return Objects.equals(this.getTimestamp(), that.getTimestamp())
+        return this.getFingerprint() == that.getFingerprint()
+               && this.getEpochNanos() == that.getEpochNanos()
+               && this.getSequenceNumber() == that.getSequenceNumber()
                && Objects.equals(this.getUsername(), that.getUsername())
-               && Arrays.equals(this.getData(), that.getData());
-    }
-
-    /**
-     * Return this object's hash. In Message objects, this is simply the
-     * hash of the string returned by this.toString().
-     *
-     * @return hash of this object.
-     */
-    @Override
-    public int hashCode() {
-        return this.toString().hashCode();
+               && Objects.equals(this.text, that.text);
     }
 
-
     /**
      * Constructs a string representation of this object:
      * "{class=TextMessage|" + super.toString() + "data=" + this.getData()[0] + "}"
@@ -79,9 +79,11 @@ public class TextMessage extends Message
      */
     @Override
     public String toString() {
-        return "{class=TextMessage|"
-               + super.toString()
-               + "|data=" + this.getData()[0]
-               + '}';
+        return render(new StringBuilder(), Integer.MAX_VALUE).toString();
+    }
+
+    @Override
+    protected void renderFields(MessageRenderer renderer) throws IOException {
+        renderer.field("data", this.text);
     }
 }